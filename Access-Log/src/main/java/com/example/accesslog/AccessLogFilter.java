@@ -0,0 +1,102 @@
+package com.example.accesslog;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One compact access record per request on the "access" logger, which each application's
+// logback-spring.xml routes through a non-blocking async appender. Successful requests are
+// sampled at access-log.sample-rate; 4xx and 5xx responses, and streamed responses that failed
+// or timed out, are always logged. Applications register a subclass as a bean and can add
+// their own fields through fields().
+public class AccessLogFilter extends OncePerRequestFilter {
+    private static final Logger accessLogger = LoggerFactory.getLogger("access");
+
+    @Value("${access-log.sample-rate:1.0}")
+    private double sampleRate;
+
+    // Extra " name=value" pairs logged after the status; none by default
+    protected String fields(HttpServletRequest request) {
+        return "";
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // Streamed bodies finish after the handler returns. The container reports a
+                // failure or timeout and then completion; only the first of them is logged.
+                AtomicBoolean logged = new AtomicBoolean();
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        if (logged.compareAndSet(false, true)) {
+                            log(request, response, start, null);
+                        }
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                        if (logged.compareAndSet(false, true)) {
+                            log(request, response, start, "timeout");
+                        }
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        if (logged.compareAndSet(false, true)) {
+                            Throwable failure = event.getThrowable();
+                            log(request, response, start,
+                                    failure != null ? failure.getClass().getSimpleName() : "unknown");
+                        }
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                log(request, response, start, null);
+            }
+        }
+    }
+
+    // 'error' is null unless the response failed or timed out after the handler returned
+    private void log(HttpServletRequest request, HttpServletResponse response, long start, String error) {
+        int status = response.getStatus();
+        if (!accessLogger.isInfoEnabled() || (status < 400 && error == null && !sampled())) {
+            return;
+        }
+        String bytes = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+        long micros = (System.nanoTime() - start) / 1000;
+        if (error == null) {
+            accessLogger.info("method={} path={} status={}{} bytes={} us={} client={}",
+                    request.getMethod(), request.getRequestURI(), status, fields(request),
+                    bytes != null ? bytes : "-", micros, request.getRemoteAddr());
+        } else {
+            accessLogger.warn("method={} path={} status={}{} bytes={} us={} client={} error={}",
+                    request.getMethod(), request.getRequestURI(), status, fields(request),
+                    bytes != null ? bytes : "-", micros, request.getRemoteAddr(), error);
+        }
+    }
+
+    private boolean sampled() {
+        return sampleRate >= 1.0 || (sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+}
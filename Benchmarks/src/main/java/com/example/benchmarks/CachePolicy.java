@@ -0,0 +1,95 @@
+package com.example.benchmarks;
+
+import java.util.Arrays;
+
+// Base of the byte-bounded cache policies the simulator replays traces through. Entries live
+// in parallel arrays indexed by slot; slots below 'lists' are sentinels heading intrusive
+// doubly linked lists, so recency queues cost two int writes per move and no allocation.
+abstract class CachePolicy {
+    private final String name;
+    protected final long capacity;
+    protected final LongIntMap index = new LongIntMap(1024);
+    protected long[] keys = new long[1024];
+    protected long[] sizes = new long[1024];
+    protected int[] prev = new int[1024];
+    protected int[] next = new int[1024];
+    protected long used;
+    private int[] free = new int[64];
+    private int freeCount;
+    private int allocated;
+
+    protected CachePolicy(String name, long capacity, int lists) {
+        this.name = name;
+        this.capacity = capacity;
+        for (int list = 0; list < lists; list++) {
+            prev[list] = list;
+            next[list] = list;
+        }
+        allocated = lists;
+    }
+
+    final String name() {
+        return name;
+    }
+
+    // Records a request for 'key' and returns true if it was served from the cache
+    abstract boolean access(long key, long size);
+
+    protected int allocate(long key, long size) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (allocated == keys.length) {
+                grow(keys.length * 2);
+            }
+            slot = allocated++;
+        }
+        keys[slot] = key;
+        sizes[slot] = size;
+        index.put(key, slot);
+        used += size;
+        return slot;
+    }
+
+    protected void release(int slot) {
+        index.remove(keys[slot]);
+        used -= sizes[slot];
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = slot;
+    }
+
+    // Subclasses with per-slot state of their own extend their arrays here too
+    protected void grow(int length) {
+        keys = Arrays.copyOf(keys, length);
+        sizes = Arrays.copyOf(sizes, length);
+        prev = Arrays.copyOf(prev, length);
+        next = Arrays.copyOf(next, length);
+    }
+
+    protected void linkFirst(int list, int slot) {
+        int first = next[list];
+        prev[slot] = list;
+        next[slot] = first;
+        prev[first] = slot;
+        next[list] = slot;
+    }
+
+    protected void unlink(int slot) {
+        next[prev[slot]] = next[slot];
+        prev[next[slot]] = prev[slot];
+    }
+
+    protected void moveToFirst(int list, int slot) {
+        unlink(slot);
+        linkFirst(list, slot);
+    }
+
+    // Least recently linked entry of 'list', or -1 when it is empty
+    protected int last(int list) {
+        int slot = prev[list];
+        return slot == list ? -1 : slot;
+    }
+}
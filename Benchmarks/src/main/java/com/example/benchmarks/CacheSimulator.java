@@ -0,0 +1,226 @@
+package com.example.benchmarks;
+
+import com.example.cdnnode.AccessTrace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+
+// Replays access traces recorded by CDN nodes (cdn.trace.enabled=true) through candidate cache
+// policies at several capacities, on one thread, and reports hit ratio, byte hit ratio and
+// origin egress for each. Arguments are key=value:
+//   trace=<file or directory of trace-*.bin>   (required)
+//   policies=lru,lfu,gds,gdsf,w-tinylfu
+//   capacities=1%,5%,10%,25%,50%   percentages of the unique bytes in the trace, or sizes
+//                                  such as 512m or 20g for a whole node
+//   warmup=0.1                     fraction of the trace replayed before counting starts
+//   window-percent=1               W-TinyLFU window share of the capacity
+// Traces recorded with a sample rate below 1 are replayed against caches scaled down by the
+// same rate, and egress is scaled back up, so the figures stand for the whole node.
+public class CacheSimulator {
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "policies", "lru,lfu,gds,gdsf,w-tinylfu",
+            "capacities", "1%,5%,10%,25%,50%",
+            "warmup", "0",
+            "window-percent", "1");
+
+    private record Trace(long[] keys, long[] sizes, long[] hits, int length, double sampleRate,
+                         long firstTimestamp, long lastTimestamp) {
+        boolean hit(int i) {
+            return (hits[i >>> 6] & (1L << i)) != 0;
+        }
+    }
+
+    private record Result(long requests, long hits, long bytes, long hitBytes, long nanos) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got: " + arg);
+            }
+            settings.put(arg.substring(0, separator).replaceFirst("^--", ""), arg.substring(separator + 1));
+        }
+        if (!settings.containsKey("trace")) {
+            throw new IllegalArgumentException("Missing setting: trace=<file or directory>");
+        }
+
+        Trace trace = load(Paths.get(settings.get("trace")));
+        int warmup = (int) (trace.length() * Double.parseDouble(settings.get("warmup")));
+        double windowPercent = Double.parseDouble(settings.get("window-percent"));
+        LongIntMap distinct = new LongIntMap(1024);
+        long uniqueBytes = 0;
+        for (int i = 0; i < trace.length(); i++) {
+            if (distinct.get(trace.keys()[i]) < 0) {
+                distinct.put(trace.keys()[i], 0);
+                uniqueBytes += trace.sizes()[i];
+            }
+        }
+        long meanSize = Math.max(1, uniqueBytes / Math.max(1, distinct.size()));
+
+        System.out.printf(Locale.ROOT, "%d requests for %d objects (%.1f MB) over %.1f min, sample rate %.4f%n",
+                trace.length(), distinct.size(), uniqueBytes / trace.sampleRate() / 1e6,
+                (trace.lastTimestamp() - trace.firstTimestamp()) / 60000.0, trace.sampleRate());
+        print("recorded", "-", observed(trace, warmup), trace.sampleRate());
+
+        for (String capacitySetting : settings.get("capacities").split(",")) {
+            // Capacities are what the simulated (sampled) cache holds; the table shows full scale
+            String spec = capacitySetting.trim();
+            long capacity = spec.endsWith("%")
+                    ? (long) (uniqueBytes * Double.parseDouble(spec.substring(0, spec.length() - 1)) / 100)
+                    : (long) (parseSize(spec) * trace.sampleRate());
+            String label = String.format(Locale.ROOT, "%s (%.1f MB)", spec, capacity / trace.sampleRate() / 1e6);
+            for (String policyName : settings.get("policies").split(",")) {
+                LongFunction<CachePolicy> policy = policy(policyName.trim(), windowPercent, meanSize);
+                print(policyName.trim(), label, replay(trace, policy.apply(capacity), warmup), trace.sampleRate());
+            }
+        }
+    }
+
+    private static LongFunction<CachePolicy> policy(String name, double windowPercent, long meanSize) {
+        return switch (name) {
+            case "lru" -> LruPolicy::new;
+            case "lfu" -> GreedyDualPolicy::lfu;
+            case "gds" -> GreedyDualPolicy::gds;
+            case "gdsf" -> GreedyDualPolicy::gdsf;
+            case "w-tinylfu" -> capacity -> new WindowTinyLfuPolicy(capacity, windowPercent, capacity / meanSize);
+            default -> throw new IllegalArgumentException("Unknown policy: " + name);
+        };
+    }
+
+    private static Result replay(Trace trace, CachePolicy policy, int warmup) {
+        long[] keys = trace.keys();
+        long[] sizes = trace.sizes();
+        long hits = 0;
+        long bytes = 0;
+        long hitBytes = 0;
+        for (int i = 0; i < warmup; i++) {
+            policy.access(keys[i], sizes[i]);
+        }
+        long start = System.nanoTime();
+        for (int i = warmup; i < trace.length(); i++) {
+            long size = sizes[i];
+            bytes += size;
+            if (policy.access(keys[i], size)) {
+                hits++;
+                hitBytes += size;
+            }
+        }
+        return new Result(trace.length() - warmup, hits, bytes, hitBytes, System.nanoTime() - start);
+    }
+
+    // What the node itself achieved while recording, for comparison
+    private static Result observed(Trace trace, int warmup) {
+        long hits = 0;
+        long bytes = 0;
+        long hitBytes = 0;
+        for (int i = warmup; i < trace.length(); i++) {
+            bytes += trace.sizes()[i];
+            if (trace.hit(i)) {
+                hits++;
+                hitBytes += trace.sizes()[i];
+            }
+        }
+        return new Result(trace.length() - warmup, hits, bytes, hitBytes, 0);
+    }
+
+    private static void print(String policy, String capacity, Result result, double sampleRate) {
+        double seconds = result.nanos() / 1e9;
+        System.out.printf(Locale.ROOT, "%-10s %-22s hit %6.2f%%  byte hit %6.2f%%  egress %10.1f MB  %s%n",
+                policy, capacity,
+                100.0 * result.hits() / Math.max(1, result.requests()),
+                100.0 * result.hitBytes() / Math.max(1, result.bytes()),
+                (result.bytes() - result.hitBytes()) / sampleRate / 1e6,
+                seconds > 0 ? String.format(Locale.ROOT, "%.1f M events/s", result.requests() / seconds / 1e6) : "");
+    }
+
+    // One file, or every trace-*.bin of a directory in recording order, loaded into flat arrays
+    private static Trace load(Path path) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> listing = Files.list(path)) {
+                listing.filter(file -> file.getFileName().toString().matches("trace-\\d+-\\d+\\.bin"))
+                        .sorted(Comparator.comparing((Path file) -> part(file, 1)).thenComparing(file -> part(file, 2)))
+                        .forEach(files::add);
+            }
+        } else {
+            files.add(path);
+        }
+        long records = 0;
+        for (Path file : files) {
+            records += (Files.size(file) - AccessTrace.HEADER_BYTES) / AccessTrace.RECORD_BYTES;
+        }
+        if (records > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("Trace too long to replay at once: " + records + " records");
+        }
+        int length = (int) records;
+        long[] keys = new long[length];
+        long[] sizes = new long[length];
+        long[] hits = new long[(length + 63) >>> 6];
+        double sampleRate = -1;
+        long first = 0;
+        long last = 0;
+        int count = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(AccessTrace.RECORD_BYTES * 65536);
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                double rate = AccessTrace.readHeader(channel);
+                if (sampleRate >= 0 && rate != sampleRate) {
+                    throw new IOException(file + " was sampled at " + rate + ", not " + sampleRate);
+                }
+                sampleRate = rate;
+                buffer.clear();
+                boolean end = false;
+                while (!end && count < length) {
+                    end = channel.read(buffer) < 0;
+                    buffer.flip();
+                    while (buffer.remaining() >= AccessTrace.RECORD_BYTES && count < length) {
+                        long timestamp = buffer.getLong();
+                        keys[count] = buffer.getLong();
+                        long sizeAndFlags = buffer.getLong();
+                        sizes[count] = sizeAndFlags & AccessTrace.SIZE_MASK;
+                        if ((sizeAndFlags & AccessTrace.FLAG_HIT) != 0) {
+                            hits[count >>> 6] |= 1L << count;
+                        }
+                        first = count == 0 ? timestamp : first;
+                        last = timestamp;
+                        count++;
+                    }
+                    // A record cut short at the end of a file (node killed mid-write) is dropped
+                    buffer.compact();
+                }
+            }
+        }
+        return new Trace(keys, sizes, hits, count, sampleRate < 0 ? 1.0 : sampleRate, first, last);
+    }
+
+    private static long part(Path file, int index) {
+        return Long.parseLong(file.getFileName().toString().split("[-.]")[index]);
+    }
+
+    private static long parseSize(String size) {
+        String value = size.toLowerCase(Locale.ROOT);
+        long unit = switch (value.charAt(value.length() - 1)) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            case 't' -> 1L << 40;
+            default -> 1;
+        };
+        return Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+    }
+}
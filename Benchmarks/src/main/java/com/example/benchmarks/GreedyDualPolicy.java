@@ -0,0 +1,129 @@
+package com.example.benchmarks;
+
+import java.util.Arrays;
+
+// Frequency and size-aware policies as one greedy-dual heap: each entry's priority is
+// inflation + frequency^f / size^s and the lowest priority is evicted. With aging, inflation
+// rises to each victim's priority, so entries that stop being requested eventually lose to
+// new ones. lfu counts in-cache hits without aging; gds weighs only size (small objects stay,
+// which favours hit ratio over byte hit ratio); gdsf weighs frequency per byte.
+final class GreedyDualPolicy extends CachePolicy {
+    private final boolean frequency;
+    private final boolean sizeAware;
+    private final boolean aging;
+    private double inflation;
+    private int[] hits = new int[1024];
+    private double[] priority = new double[1024];
+    // Min-heap of slots by priority, and each slot's position in it
+    private int[] heap = new int[1024];
+    private int[] position = new int[1024];
+    private int heapSize;
+
+    private GreedyDualPolicy(String name, long capacity, boolean frequency, boolean sizeAware, boolean aging) {
+        super(name, capacity, 0);
+        this.frequency = frequency;
+        this.sizeAware = sizeAware;
+        this.aging = aging;
+    }
+
+    static GreedyDualPolicy lfu(long capacity) {
+        return new GreedyDualPolicy("lfu", capacity, true, false, false);
+    }
+
+    static GreedyDualPolicy gds(long capacity) {
+        return new GreedyDualPolicy("gds", capacity, false, true, true);
+    }
+
+    static GreedyDualPolicy gdsf(long capacity) {
+        return new GreedyDualPolicy("gdsf", capacity, true, true, true);
+    }
+
+    @Override
+    boolean access(long key, long size) {
+        int slot = index.get(key);
+        if (slot >= 0) {
+            hits[slot]++;
+            // Priorities only grow, so the entry can only move down
+            priority[slot] = priorityOf(slot);
+            siftDown(position[slot]);
+            return true;
+        }
+        if (size > capacity) {
+            return false;
+        }
+        while (used + size > capacity) {
+            int victim = heap[0];
+            if (aging) {
+                inflation = priority[victim];
+            }
+            removeTop();
+            release(victim);
+        }
+        slot = allocate(key, size);
+        hits[slot] = 1;
+        priority[slot] = priorityOf(slot);
+        heap[heapSize] = slot;
+        position[slot] = heapSize;
+        siftUp(heapSize++);
+        return false;
+    }
+
+    private double priorityOf(int slot) {
+        double value = frequency ? hits[slot] : 1.0;
+        return inflation + (sizeAware ? value / Math.max(1, sizes[slot]) : value);
+    }
+
+    @Override
+    protected void grow(int length) {
+        super.grow(length);
+        hits = Arrays.copyOf(hits, length);
+        priority = Arrays.copyOf(priority, length);
+        heap = Arrays.copyOf(heap, length);
+        position = Arrays.copyOf(position, length);
+    }
+
+    private void removeTop() {
+        int last = heap[--heapSize];
+        if (heapSize > 0) {
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int i) {
+        int slot = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priority[heap[parent]] <= priority[slot]) {
+                break;
+            }
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = slot;
+        position[slot] = i;
+    }
+
+    private void siftDown(int i) {
+        int slot = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && priority[heap[child + 1]] < priority[heap[child]]) {
+                child++;
+            }
+            if (priority[slot] <= priority[heap[child]]) {
+                break;
+            }
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = slot;
+        position[slot] = i;
+    }
+}
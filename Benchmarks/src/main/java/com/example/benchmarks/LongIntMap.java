@@ -0,0 +1,86 @@
+package com.example.benchmarks;
+
+import java.util.Arrays;
+
+// Open-addressing map from trace key hashes to slot numbers, so replaying a trace allocates
+// nothing per event. Keys are already well mixed, which makes their low bits a good index.
+// Linear probing with backward-shift deletion keeps probe chains short without tombstones.
+final class LongIntMap {
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The value for 'key', or -1
+    int get(long key) {
+        for (int i = (int) key & mask; ; i = (i + 1) & mask) {
+            int value = values[i];
+            if (value < 0 || keys[i] == key) {
+                return value;
+            }
+        }
+    }
+
+    void put(long key, int value) {
+        if ((size + 1) * 2 > values.length) {
+            rehash(values.length * 2);
+        }
+        int i = (int) key & mask;
+        while (values[i] >= 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] < 0) {
+            size++;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    void remove(long key) {
+        int gap = (int) key & mask;
+        while (values[gap] >= 0 && keys[gap] != key) {
+            gap = (gap + 1) & mask;
+        }
+        if (values[gap] < 0) {
+            return;
+        }
+        size--;
+        // Pull later entries of the chain back into the gap when their home slot allows it
+        for (int i = (gap + 1) & mask; values[i] >= 0; i = (i + 1) & mask) {
+            int home = (int) keys[i] & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = -1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] >= 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.benchmarks;
+
+// Plain LRU over bytes, the order the memory and segment tiers evict in today
+final class LruPolicy extends CachePolicy {
+    private static final int QUEUE = 0;
+
+    LruPolicy(long capacity) {
+        super("lru", capacity, 1);
+    }
+
+    @Override
+    boolean access(long key, long size) {
+        int slot = index.get(key);
+        if (slot >= 0) {
+            moveToFirst(QUEUE, slot);
+            return true;
+        }
+        if (size > capacity) {
+            return false;
+        }
+        while (used + size > capacity) {
+            int victim = last(QUEUE);
+            unlink(victim);
+            release(victim);
+        }
+        linkFirst(QUEUE, allocate(key, size));
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.benchmarks;
+
+import com.example.cdnnode.FrequencySketch;
+
+import java.util.Arrays;
+
+// W-TinyLFU weighted by bytes. New entries land in a small LRU window; what falls out of the
+// window competes for the main segmented LRU against its eviction victims, and is admitted
+// only while the sketch says it is requested more often than each victim it would displace.
+// Main entries hit a second time move from probation to protected (80% of the main bytes).
+// The window size is fixed at window-percent; the adaptive hill climbing of Caffeine is not
+// simulated.
+final class WindowTinyLfuPolicy extends CachePolicy {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long windowCapacity;
+    private final long mainCapacity;
+    private final long protectedCapacity;
+    private final FrequencySketch sketch;
+    private byte[] queue = new byte[1024];
+    private long windowBytes;
+    private long mainBytes;
+    private long protectedBytes;
+
+    WindowTinyLfuPolicy(long capacity, double windowPercent, long expectedEntries) {
+        super("w-tinylfu", capacity, 3);
+        this.windowCapacity = Math.max(1, (long) (capacity * windowPercent / 100));
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = (long) (mainCapacity * 0.8);
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    boolean access(long key, long size) {
+        sketch.increment(key);
+        int slot = index.get(key);
+        if (slot >= 0) {
+            switch (queue[slot]) {
+                case WINDOW -> moveToFirst(WINDOW, slot);
+                case PROBATION -> promote(slot);
+                default -> moveToFirst(PROTECTED, slot);
+            }
+            return true;
+        }
+        if (size > mainCapacity) {
+            return false;
+        }
+        slot = allocate(key, size);
+        queue[slot] = WINDOW;
+        linkFirst(WINDOW, slot);
+        windowBytes += size;
+        while (windowBytes > windowCapacity) {
+            int candidate = last(WINDOW);
+            unlink(candidate);
+            windowBytes -= sizes[candidate];
+            admit(candidate);
+        }
+        return false;
+    }
+
+    private void promote(int slot) {
+        unlink(slot);
+        queue[slot] = PROTECTED;
+        linkFirst(PROTECTED, slot);
+        protectedBytes += sizes[slot];
+        while (protectedBytes > protectedCapacity) {
+            int demoted = last(PROTECTED);
+            unlink(demoted);
+            protectedBytes -= sizes[demoted];
+            queue[demoted] = PROBATION;
+            linkFirst(PROBATION, demoted);
+        }
+    }
+
+    private void admit(int candidate) {
+        int candidateFrequency = sketch.frequency(keys[candidate]);
+        while (mainBytes + sizes[candidate] > mainCapacity) {
+            int victim = last(PROBATION);
+            if (victim < 0) {
+                victim = last(PROTECTED);
+            }
+            if (candidateFrequency <= sketch.frequency(keys[victim])) {
+                release(candidate);
+                return;
+            }
+            unlink(victim);
+            mainBytes -= sizes[victim];
+            if (queue[victim] == PROTECTED) {
+                protectedBytes -= sizes[victim];
+            }
+            release(victim);
+        }
+        queue[candidate] = PROBATION;
+        linkFirst(PROBATION, candidate);
+        mainBytes += sizes[candidate];
+    }
+
+    @Override
+    protected void grow(int length) {
+        super.grow(length);
+        queue = Arrays.copyOf(queue, length);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.cdnnode;
+
+import com.example.benchmarks.BenchmarkFiles;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// A CDN node started as a trimmed Spring context (no Eureka, tracing, change feed, warmup or
+// access log) against a stub origin that serves files from originDir over a loopback HTTP
+// server. Everything else runs with the defaults the node's own code declares.
+public class CdnFixture implements AutoCloseable {
+    private final Path cacheDir;
+    private final Path originDir;
+    private final HttpServer origin;
+    private final ConfigurableApplicationContext context;
+
+    private CdnFixture(Path cacheDir, Path originDir, HttpServer origin, ConfigurableApplicationContext context) {
+        this.cacheDir = cacheDir;
+        this.originDir = originDir;
+        this.origin = origin;
+        this.context = context;
+    }
+
+    // 'properties' (--name=value) are applied on top of the fixture's own settings
+    public static CdnFixture start(String... properties) throws IOException {
+        Path cacheDir = Files.createTempDirectory("cdn-cache");
+        Path originDir = Files.createTempDirectory("origin-content");
+
+        HttpServer origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/origin/", exchange -> {
+            Path file = originDir.resolve(exchange.getRequestURI().getPath().substring("/origin/".length()));
+            if (!Files.isRegularFile(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, Files.size(file));
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(file, out);
+            }
+        });
+        origin.start();
+        String originUrl = "http://127.0.0.1:" + origin.getAddress().getPort();
+
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.config.name=cdn-fixture",
+                "--spring.application.name=cdn-node",
+                "--server.port=0",
+                "--cdn.cache.path=" + cacheDir,
+                "--cdn.origin.base-url=" + originUrl,
+                "--spring.cloud.discovery.client.simple.instances.Origin-Server[0].uri=" + originUrl,
+                "--cdn.origin.hedge.enabled=false",
+                "--eureka.client.enabled=false",
+                "--management.tracing.enabled=false",
+                "--spring.mvc.pathmatch.matching-strategy=ant-path-matcher",
+                "--access-log.sample-rate=0",
+                "--cdn.changes.enabled=false",
+                "--cdn.warmup.enabled=false"));
+        args.addAll(List.of(properties));
+        try {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(CdnNodeApplication.class)
+                    .run(args.toArray(new String[0]));
+            return new CdnFixture(cacheDir, originDir, origin, context);
+        } catch (RuntimeException e) {
+            origin.stop(0);
+            throw e;
+        }
+    }
+
+    public Path cacheDir() {
+        return cacheDir;
+    }
+
+    public Path originDir() {
+        return originDir;
+    }
+
+    public CdnController controller() {
+        return context.getBean(CdnController.class);
+    }
+
+    // Waits for cache writes queued behind earlier responses to land on disk
+    public void flushWrites() throws InterruptedException {
+        context.getBean(WriteBehindCache.class).flush(60000);
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        origin.stop(0);
+        BenchmarkFiles.deleteRecursively(cacheDir);
+        BenchmarkFiles.deleteRecursively(originDir);
+    }
+}
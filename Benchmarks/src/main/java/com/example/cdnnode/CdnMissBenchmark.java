@@ -0,0 +1,71 @@
+package com.example.cdnnode;
+
+import com.example.benchmarks.BenchmarkFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Cold miss: origin fetch over loopback and the response from the fetched bytes, per request.
+// getFileMiss is what the client waits for: the disk write happens behind the response and is
+// flushed between invocations. getFileMissWithFill also waits for that write to land, which is
+// the full cost of a miss to the node.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class CdnMissBenchmark {
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private CdnFixture fixture;
+    private Path cachedCopy;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = CdnFixture.start();
+        BenchmarkFiles.create(fixture.originDir().resolve("series").resolve("type"), "video.mp4", size);
+        cachedCopy = fixture.cacheDir().resolve("series").resolve("type").resolve("video.mp4");
+    }
+
+    @Setup(Level.Invocation)
+    public void evict() throws IOException, InterruptedException {
+        fixture.flushWrites();
+        Files.deleteIfExists(cachedCopy);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<?> getFileMiss() {
+        return fixture.controller().getFile("series", "type", "video.mp4", null, null, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> getFileMissWithFill() throws InterruptedException {
+        ResponseEntity<?> response = fixture.controller().getFile("series", "type", "video.mp4", null, null, null);
+        fixture.flushWrites();
+        return response;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.cdnnode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+// Per-request fixed costs in getFile: decoding the path variables into a cache key
+// and path, and formatting Last-Modified.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CdnRequestOverheadBenchmark {
+
+    @Param({"Series", "The%20Long%20Series%20Name%20%C3%A9"})
+    public String series;
+
+    private final String type = "episodes";
+    private final String filename = "S01E01%20-%20Pilot.mp4";
+    private CdnFixture fixture;
+    private String cacheDir;
+    private long timestamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = CdnFixture.start();
+        cacheDir = fixture.cacheDir().toString();
+        timestamp = System.currentTimeMillis();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void cacheKey(Blackhole blackhole) throws UnsupportedEncodingException {
+        String decodedSeries = URLDecoder.decode(series, "UTF-8");
+        String decodedType = URLDecoder.decode(type, "UTF-8");
+        String decodedFilename = URLDecoder.decode(filename, "UTF-8");
+        String cacheKey = decodedSeries + "/" + decodedType + "/" + decodedFilename;
+        blackhole.consume(cacheKey);
+        blackhole.consume(Paths.get(cacheDir, decodedSeries, decodedType, decodedFilename));
+    }
+
+    @Benchmark
+    public String formatLastModified() {
+        return fixture.controller().formatLastModified(timestamp);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.cdnnode;
+
+import com.example.benchmarks.BenchmarkFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Cache-hit serving: streamFile on its own and the full getFile path in front of it.
+// Bodies are written out, so heap, transferTo and mapped serving are all measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CdnServeBenchmark {
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private CdnFixture fixture;
+    private Path cachedFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = CdnFixture.start();
+        cachedFile = BenchmarkFiles.create(fixture.cacheDir().resolve("series").resolve("type"), "video.mp4", size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<?> streamFile() throws IOException {
+        return drain(fixture.controller().streamFile(cachedFile, "video.mp4", "series", CdnMetrics.SOURCE_CACHE));
+    }
+
+    @Benchmark
+    public ResponseEntity<?> getFileHit() throws IOException {
+        return drain(fixture.controller().getFile("series", "type", "video.mp4", null, null, null));
+    }
+
+    private static ResponseEntity<?> drain(ResponseEntity<?> response) throws IOException {
+        if (response.getBody() instanceof StreamingResponseBody body) {
+            body.writeTo(OutputStream.nullOutputStream());
+        } else if (response.getBody() instanceof ByteArrayResource resource) {
+            OutputStream.nullOutputStream().write(resource.getByteArray());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.cdnnode;
+
+import com.example.benchmarks.BenchmarkFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Cold start of a CDN node up to the point it reports ready (and would go UP in Eureka),
+// one start per fresh JVM. Compare runs with JMH's -jvmArgsAppend, e.g.
+// "-XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true" for an AOT/AppCDS build.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class StartupBenchmark {
+
+    @Param({"true", "false"})
+    public boolean warmup;
+
+    private Path cacheDir;
+    private ConfigurableApplicationContext context;
+
+    @Setup
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("cdn-startup-bench");
+        for (int i = 0; i < 10; i++) {
+            BenchmarkFiles.create(cacheDir.resolve("Series").resolve("episodes"), "file-" + i + ".bin", 1024 * 1024);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (context != null) {
+            context.close();
+        }
+        BenchmarkFiles.deleteRecursively(cacheDir);
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext startToReady() {
+        context = new SpringApplicationBuilder(CdnNodeApplication.class)
+                .run("--spring.config.name=startup-benchmark",
+                        "--spring.application.name=cdn-node",
+                        "--server.port=0",
+                        "--cdn.cache.path=" + cacheDir,
+                        "--cdn.origin.base-url=http://127.0.0.1:1",
+                        "--spring.cloud.discovery.client.simple.instances.Origin-Server[0].uri=http://127.0.0.1:1",
+                        "--eureka.client.enabled=false",
+                        "--management.tracing.enabled=false",
+                        "--spring.mvc.pathmatch.matching-strategy=ant-path-matcher",
+                        "--access-log.sample-rate=0",
+                        "--cdn.changes.enabled=false",
+                        "--cdn.warmup.enabled=" + warmup);
+        return context;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.originserver;
+
+import com.example.benchmarks.BenchmarkFiles;
+import org.apache.tika.Tika;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Media type detection as done per request: Tika on the origin, probeContentType on the CDN node
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediaTypeBenchmark {
+
+    @Param({"video.mp4", "poster.jpg", "subtitles.srt", "archive.bin"})
+    public String filename;
+
+    private final Tika tika = new Tika();
+    private Path dir;
+    private Path path;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("media-type-bench");
+        path = BenchmarkFiles.create(dir, filename, 64 * 1024);
+        file = path.toFile();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String tikaDetectFile() throws IOException {
+        return tika.detect(file);
+    }
+
+    @Benchmark
+    public String tikaDetectName() {
+        return tika.detect(filename);
+    }
+
+    @Benchmark
+    public String probeContentType() throws IOException {
+        return Files.probeContentType(path);
+    }
+}
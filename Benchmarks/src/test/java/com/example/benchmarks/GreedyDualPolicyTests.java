@@ -0,0 +1,50 @@
+package com.example.benchmarks;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GreedyDualPolicyTests {
+
+    @Test
+    void lfuKeepsTheMostRequestedEntry() {
+        GreedyDualPolicy policy = GreedyDualPolicy.lfu(2);
+        for (int i = 0; i < 3; i++) {
+            policy.access(1, 1);
+        }
+        policy.access(2, 1);
+        policy.access(3, 1);
+
+        assertThat(policy.access(1, 1)).isTrue();
+        assertThat(policy.access(3, 1)).isTrue();
+        assertThat(policy.access(2, 1)).isFalse();
+    }
+
+    @Test
+    void gdsEvictsTheLargestEntryFirst() {
+        GreedyDualPolicy policy = GreedyDualPolicy.gds(10);
+        policy.access(1, 8);
+        policy.access(2, 1);
+        policy.access(3, 2);
+
+        assertThat(policy.access(2, 1)).isTrue();
+        assertThat(policy.access(3, 2)).isTrue();
+        assertThat(policy.access(1, 8)).isFalse();
+    }
+
+    @Test
+    void agingLetsNewEntriesDisplaceOnceHotOnes() {
+        GreedyDualPolicy lfu = GreedyDualPolicy.lfu(2);
+        GreedyDualPolicy gdsf = GreedyDualPolicy.gdsf(2);
+        for (GreedyDualPolicy policy : new GreedyDualPolicy[] {lfu, gdsf}) {
+            for (int i = 0; i < 5; i++) {
+                policy.access(1, 1);
+            }
+            for (long key = 100; key < 120; key++) {
+                policy.access(key, 1);
+            }
+        }
+        assertThat(lfu.access(1, 1)).isTrue();
+        assertThat(gdsf.access(1, 1)).isFalse();
+    }
+}
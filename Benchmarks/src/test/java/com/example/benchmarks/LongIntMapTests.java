@@ -0,0 +1,37 @@
+package com.example.benchmarks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongIntMapTests {
+
+    @Test
+    void keepsProbeChainsIntactThroughRemovals() {
+        LongIntMap map = new LongIntMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // Few distinct low bits, so the keys collide and chains wrap around the table
+            long key = (long) random.nextInt(64) << 40 | random.nextInt(8);
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (int high = 0; high < 64; high++) {
+            for (int low = 0; low < 8; low++) {
+                long key = (long) high << 40 | low;
+                assertThat(map.get(key)).isEqualTo(expected.getOrDefault(key, -1));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.benchmarks;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LruPolicyTests {
+
+    @Test
+    void hitsWhatItHolds() {
+        LruPolicy policy = new LruPolicy(100);
+        assertThat(policy.access(1, 10)).isFalse();
+        assertThat(policy.access(1, 10)).isTrue();
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedBytes() {
+        LruPolicy policy = new LruPolicy(30);
+        policy.access(1, 10);
+        policy.access(2, 10);
+        policy.access(3, 10);
+        policy.access(1, 10);
+        policy.access(4, 20);
+
+        assertThat(policy.access(1, 10)).isTrue();
+        assertThat(policy.access(4, 20)).isTrue();
+        assertThat(policy.access(2, 10)).isFalse();
+    }
+
+    @Test
+    void neverCachesAnObjectLargerThanTheCache() {
+        LruPolicy policy = new LruPolicy(30);
+        policy.access(1, 10);
+        assertThat(policy.access(2, 31)).isFalse();
+        assertThat(policy.access(2, 31)).isFalse();
+        assertThat(policy.access(1, 10)).isTrue();
+    }
+}
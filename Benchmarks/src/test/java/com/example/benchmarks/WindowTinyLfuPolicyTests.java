@@ -0,0 +1,57 @@
+package com.example.benchmarks;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WindowTinyLfuPolicyTests {
+    private static final int POPULAR = 99;
+
+    @Test
+    void scanOfOneOffKeysLeavesPopularOnesCached() {
+        WindowTinyLfuPolicy tinyLfu = new WindowTinyLfuPolicy(100, 1, 1024);
+        LruPolicy lru = new LruPolicy(100);
+        for (CachePolicy policy : new CachePolicy[] {tinyLfu, lru}) {
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < POPULAR; i++) {
+                    policy.access(key(i), 1);
+                }
+            }
+            for (int i = 1000; i < 2000; i++) {
+                policy.access(key(i), 1);
+            }
+        }
+        for (int i = 0; i < POPULAR; i++) {
+            assertThat(tinyLfu.access(key(i), 1)).isTrue();
+            assertThat(lru.access(key(i), 1)).isFalse();
+        }
+    }
+
+    @Test
+    void admitsANewcomerOnceItIsRequestedMoreThanTheVictim() {
+        WindowTinyLfuPolicy policy = new WindowTinyLfuPolicy(100, 1, 1024);
+        for (int i = 0; i < 100; i++) {
+            policy.access(key(i), 1);
+        }
+        for (int i = 0; i < 3; i++) {
+            policy.access(key(500), 1);
+        }
+        // Pushed out of the window, it now wins against a victim seen once
+        policy.access(key(501), 1);
+        assertThat(policy.access(key(500), 1)).isTrue();
+    }
+
+    @Test
+    void neverCachesAnObjectLargerThanTheMainRegion() {
+        WindowTinyLfuPolicy policy = new WindowTinyLfuPolicy(100, 10, 1024);
+        assertThat(policy.access(key(1), 91)).isFalse();
+        assertThat(policy.access(key(1), 91)).isFalse();
+        assertThat(policy.access(key(2), 90)).isFalse();
+        assertThat(policy.access(key(2), 90)).isTrue();
+    }
+
+    // The simulator keys entries by well-mixed 64-bit hashes
+    private static long key(int i) {
+        return i * 0x9E3779B97F4A7C15L;
+    }
+}
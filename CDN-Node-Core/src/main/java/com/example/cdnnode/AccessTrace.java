@@ -0,0 +1,61 @@
+package com.example.cdnnode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+// Binary layout of the access traces written by AccessTraceRecorder and replayed by the cache
+// simulator in the Benchmarks module. A 16-byte header (magic, sample rate) is followed by
+// fixed 24-byte big-endian records: time in ms, 64-bit key hash, and the object size with the
+// flags in its top byte. Keys are hashed, so a trace carries no file names.
+public final class AccessTrace {
+    public static final long MAGIC = 0x43444E5452414301L; // "CDNTRAC" + version 1
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 24;
+    public static final long FLAG_HIT = 1L << 56;
+    public static final long SIZE_MASK = FLAG_HIT - 1;
+
+    private AccessTrace() {
+    }
+
+    // FNV-1a over the UTF-8 key, finished with a 64-bit mix so the low bits are usable for sampling
+    public static long keyHash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    // Sampling is by key, not by request, so every access to a sampled key is kept and a cache
+    // scaled down by the same rate sees the same hit ratio as the full one
+    public static boolean sampled(long keyHash, double sampleRate) {
+        return sampleRate >= 1.0 || (keyHash & 0xFFFFFF) < (long) (sampleRate * 0x1000000);
+    }
+
+    public static void putHeader(ByteBuffer buffer, double sampleRate) {
+        buffer.putLong(MAGIC).putDouble(sampleRate);
+    }
+
+    public static void putRecord(ByteBuffer buffer, long timestamp, long keyHash, long size, boolean hit) {
+        buffer.putLong(timestamp).putLong(keyHash).putLong((size & SIZE_MASK) | (hit ? FLAG_HIT : 0));
+    }
+
+    // Reads and checks the header; returns the trace's sample rate
+    public static double readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                throw new IOException("Truncated access trace header");
+            }
+        }
+        header.flip();
+        if (header.getLong() != MAGIC) {
+            throw new IOException("Not an access trace");
+        }
+        return header.getDouble();
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.cdnnode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Records one AccessTrace record per file served, for replay through the cache simulator in
+// the Benchmarks module. Requests only offer a record to a bounded queue; a single writer
+// thread appends them to trace-<start>-<n>.bin under cdn.trace.dir, starting a new file every
+// max-file-mb. When the writer falls behind, records are dropped and counted, never waited for.
+@Component
+public class AccessTraceRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(AccessTraceRecorder.class);
+
+    private record Access(long timestamp, long keyHash, long size, boolean hit) {
+    }
+
+    // Queued by stop() to wake the writer; an interrupt could close the channel mid-write
+    private static final Access STOP = new Access(0, 0, 0, false);
+
+    private final CdnMetrics metrics;
+    private final BlockingQueue<Access> queue;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(AccessTrace.RECORD_BYTES * 4096);
+    private final long started = System.currentTimeMillis();
+    private FileChannel channel;
+    private int files;
+    private volatile boolean running;
+    private Thread writer;
+
+    @Value("${cdn.trace.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cdn.trace.dir:traces}")
+    private String dir;
+
+    // Fraction of keys traced; the simulator scales cache sizes by the same fraction
+    @Value("${cdn.trace.sample-rate:1.0}")
+    private double sampleRate;
+
+    @Value("${cdn.trace.max-file-mb:256}")
+    private long maxFileMb;
+
+    @Value("${cdn.trace.flush-ms:1000}")
+    private long flushMs;
+
+    public AccessTraceRecorder(CdnMetrics metrics, @Value("${cdn.trace.queue-size:65536}") int queueSize) {
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::drain, "access-trace");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("Recording access traces to {} (sample rate {})", Paths.get(dir).toAbsolutePath(), sampleRate);
+    }
+
+    // 'size' is the whole object, also for range requests; 'hit' means no origin fetch was needed
+    public void record(String cacheKey, long size, boolean hit) {
+        if (!running) {
+            return;
+        }
+        long keyHash = AccessTrace.keyHash(cacheKey);
+        if (!AccessTrace.sampled(keyHash, sampleRate)) {
+            return;
+        }
+        if (!queue.offer(new Access(System.currentTimeMillis(), keyHash, size, hit))) {
+            metrics.accessTrace("dropped", 1);
+        }
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Access access = queue.poll(flushMs, TimeUnit.MILLISECONDS);
+                if (access == null) {
+                    write();
+                    continue;
+                }
+                if (access == STOP) {
+                    continue;
+                }
+                if (!buffer.hasRemaining()) {
+                    write();
+                }
+                AccessTrace.putRecord(buffer, access.timestamp(), access.keyHash(), access.size(), access.hit());
+            } catch (InterruptedException e) {
+                // Nothing interrupts the writer on purpose; keep draining until stopped
+            } catch (IOException e) {
+                logger.warn("Could not write access trace: {}", e.getMessage());
+                buffer.clear();
+                closeFile();
+            }
+        }
+        try {
+            write();
+        } catch (IOException e) {
+            logger.warn("Could not write access trace: {}", e.getMessage());
+        }
+        closeFile();
+    }
+
+    private void write() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        if (channel == null || channel.size() >= maxFileMb * 1024 * 1024) {
+            roll();
+        }
+        int records = buffer.position() / AccessTrace.RECORD_BYTES;
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        metrics.accessTrace("recorded", records);
+    }
+
+    private void roll() throws IOException {
+        closeFile();
+        Path directory = Files.createDirectories(Paths.get(dir));
+        Path file = directory.resolve("trace-" + started + "-" + (++files) + ".bin");
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(AccessTrace.HEADER_BYTES);
+        AccessTrace.putHeader(header, sampleRate);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private void closeFile() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Could not close access trace: {}", e.getMessage());
+        }
+        channel = null;
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            // A full queue needs no wake-up: the writer is busy and exits once it is empty
+            queue.offer(STOP);
+            writer.join(flushMs + 5000);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.cdnnode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Streams many cache entries as one zip archive. Entries are loaded in parallel ahead of the
+// writer, until the loaded entries hold window-mb of memory, and written in request order.
+// Keys that could not be served are listed in a trailing MISSING.txt entry.
+@Component
+public class BulkArchiveStreamer {
+    public static final String MISSING_ENTRY = "MISSING.txt";
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkArchiveStreamer.class);
+    private static final long MB = 1024 * 1024;
+
+    // A loaded entry, and the bytes of heap or cache memory it holds until it is written
+    public record Content(StreamingResponseBody body, long heldBytes) {
+        void discard() {
+            if (body instanceof ReleasableBody pinned) {
+                pinned.discard();
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final long windowBytes;
+
+    public BulkArchiveStreamer(@Value("${cdn.bulk.parallelism:8}") int parallelism,
+                               @Value("${cdn.bulk.window-mb:64}") long windowMb) {
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "cdn-bulk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.parallelism = Math.max(1, parallelism);
+        this.windowBytes = Math.max(1, windowMb) * MB;
+    }
+
+    // The three segments of a "series/type/filename" key, or null if it is not one. Empty,
+    // "." and ".." segments are refused, so a key never leaves its directory on disk and
+    // is safe to use as a zip entry name.
+    public static String[] split(String key) {
+        String[] parts = key.split("/", -1);
+        if (parts.length != 3) {
+            return null;
+        }
+        for (String part : parts) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..") || part.indexOf('\\') >= 0) {
+                return null;
+            }
+        }
+        return parts;
+    }
+
+    // The loader returns the entry's content, or null if the key cannot be served
+    public void write(List<String> keys, Function<String, Content> loader, OutputStream outputStream)
+            throws IOException {
+        Deque<Slot> pending = new ArrayDeque<>();
+        AtomicInteger loading = new AtomicInteger();
+        AtomicLong heldBytes = new AtomicLong();
+        List<String> missing = new ArrayList<>();
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        // Media is already compressed; only the archive framing is wanted
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        int next = 0;
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                // The entry to be written next is always loaded; others only while there is room
+                while (next < keys.size() && (pending.isEmpty()
+                        || (loading.get() < parallelism && heldBytes.get() < windowBytes))) {
+                    pending.add(load(keys.get(next++), loader, loading, heldBytes));
+                }
+                String key = keys.get(i);
+                Content content = await(pending.poll(), key);
+                if (content == null) {
+                    missing.add(key);
+                    continue;
+                }
+                try {
+                    zip.putNextEntry(new ZipEntry(key));
+                    content.body().writeTo(zip);
+                    zip.closeEntry();
+                } finally {
+                    content.discard();
+                    heldBytes.addAndGet(-content.heldBytes());
+                }
+            }
+            if (!missing.isEmpty()) {
+                zip.putNextEntry(new ZipEntry(MISSING_ENTRY));
+                zip.write(String.join("\n", missing).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+            zip.finish();
+        } finally {
+            // The client went away or an entry failed: loads still running are cancelled, and
+            // entries already loaded give back what they hold
+            pending.forEach(Slot::close);
+        }
+    }
+
+    private Slot load(String key, Function<String, Content> loader, AtomicInteger loading, AtomicLong heldBytes) {
+        if (split(key) == null) {
+            // Never handed to the loader, nor written as an entry name
+            return new Slot(null);
+        }
+        Slot slot = new Slot(heldBytes);
+        loading.incrementAndGet();
+        slot.future = executor.submit(() -> {
+            Content content;
+            try {
+                content = loader.apply(key);
+            } finally {
+                loading.decrementAndGet();
+            }
+            if (content != null) {
+                slot.offer(content);
+            }
+            return null;
+        });
+        return slot;
+    }
+
+    private Content await(Slot slot, String key) throws IOException {
+        if (slot.future == null) {
+            logger.warn("Ignoring malformed bulk key: {}", key);
+            return null;
+        }
+        try {
+            slot.future.get();
+            return slot.take();
+        } catch (ExecutionException e) {
+            logger.error("Bulk entry failed: {}: {}", key, e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading " + key);
+        }
+    }
+
+    // Hands a loaded entry from its loader thread to the writer. Once the writer has taken it
+    // or given up on it, a late entry is discarded instead of being held forever.
+    private static final class Slot {
+        private final AtomicLong heldBytes;
+        private Future<?> future;
+        private Content content;
+        private boolean closed;
+
+        Slot(AtomicLong heldBytes) {
+            this.heldBytes = heldBytes;
+        }
+
+        synchronized void offer(Content loaded) {
+            if (closed) {
+                loaded.discard();
+                return;
+            }
+            content = loaded;
+            heldBytes.addAndGet(loaded.heldBytes());
+        }
+
+        synchronized Content take() {
+            closed = true;
+            Content taken = content;
+            content = null;
+            return taken;
+        }
+
+        void close() {
+            if (future != null) {
+                future.cancel(true);
+            }
+            Content abandoned = take();
+            if (abandoned != null) {
+                abandoned.discard();
+                heldBytes.addAndGet(-abandoned.heldBytes());
+            }
+        }
+    }
+}
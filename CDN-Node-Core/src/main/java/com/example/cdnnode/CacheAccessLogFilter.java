@@ -0,0 +1,38 @@
+package com.example.cdnnode;
+
+import com.example.accesslog.AccessLogFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+// The shared access log with how the cache answered each request: cache=hit|miss|... and the
+// tier that answered it
+@Component
+public class CacheAccessLogFilter extends AccessLogFilter {
+    private static final String CACHE_ATTRIBUTE = CacheAccessLogFilter.class.getName() + ".cache";
+    private static final String TIER_ATTRIBUTE = CacheAccessLogFilter.class.getName() + ".tier";
+
+    // Called by the controller to tag the current request with how the cache answered it
+    public static void cacheStatus(String tier, String result) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.setAttribute(TIER_ATTRIBUTE, tier, RequestAttributes.SCOPE_REQUEST);
+            attributes.setAttribute(CACHE_ATTRIBUTE, result, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    // How the cache answered the current request so far, or null
+    public static String cacheResult() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes == null ? null
+                : (String) attributes.getAttribute(CACHE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    protected String fields(HttpServletRequest request) {
+        Object cache = request.getAttribute(CACHE_ATTRIBUTE);
+        Object tier = request.getAttribute(TIER_ATTRIBUTE);
+        return " cache=" + (cache != null ? cache : "-") + " tier=" + (tier != null ? tier : "-");
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.cdnnode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// SHA-256 checksums for the whole-file disk tier. A fill is hashed while it is written, checked
+// against the origin's digest and only then moved into place; the checksum, size and mtime go
+// into a sidecar under <volume>/.checksums. A hit compares size and mtime with the sidecar, which
+// costs one stat. A rate-limited scrubber re-hashes entries that have not been hit recently
+// (and content-store objects, whose name is their hash) and quarantines any that fail.
+@Component
+public class CacheIntegrity {
+    private static final Logger logger = LoggerFactory.getLogger(CacheIntegrity.class);
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+    private static final String CHECKSUMS_DIR = ".checksums";
+    private static final String QUARANTINE_DIR = ".quarantine";
+    private static final String TEMP_DIR = ".tmp";
+    private static final String SIDECAR_SUFFIX = ".sha256";
+
+    public static final String CHECK_FILL = "fill";
+    public static final String CHECK_HIT = "hit";
+    public static final String CHECK_SCRUB = "scrub";
+    private static final String RESULT_OK = "ok";
+    private static final String RESULT_CORRUPT = "corrupt";
+
+    // What was recorded when the file was written or last verified
+    public record Checksum(String sha256, long size, long lastModified, long verifiedAt) {
+        private String format() {
+            return sha256 + " " + size + " " + lastModified + " " + verifiedAt;
+        }
+
+        private static Checksum parse(String line) {
+            String[] fields = line.trim().split(" ");
+            return new Checksum(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]));
+        }
+    }
+
+    private final CacheVolumes volumes;
+    private final CdnMetrics metrics;
+    private final MappedFileCache mappedFiles;
+    private final OffHeapCache memoryCache;
+    private final TokenBucket scrubBudget;
+    // Sidecar contents by cache file, read on first use; empty for files cached before checksums
+    private final Map<Path, Optional<Checksum>> checksums = new ConcurrentHashMap<>();
+    private final Map<Path, Long> lastHits = new ConcurrentHashMap<>();
+    // Content-store objects carry their checksum in their name; only the last verification is kept
+    private final Map<Path, Long> objectsVerifiedAt = new ConcurrentHashMap<>();
+
+    @Value("${cdn.cache.path}")
+    private String cdnCacheDir;
+
+    @Value("${cdn.integrity.scrub-enabled:true}")
+    private boolean scrubEnabled;
+
+    @Value("${cdn.integrity.reverify-after-hours:24}")
+    private long reverifyAfterHours;
+
+    // Entries hit within this window are checked on each hit instead of being re-read
+    @Value("${cdn.integrity.cold-after-ms:600000}")
+    private long coldAfterMs;
+
+    public CacheIntegrity(CacheVolumes volumes, CdnMetrics metrics, MappedFileCache mappedFiles,
+                          OffHeapCache memoryCache,
+                          @Value("${cdn.integrity.scrub-bytes-per-second:20971520}") long scrubBytesPerSecond) {
+        this.volumes = volumes;
+        this.metrics = metrics;
+        this.mappedFiles = mappedFiles;
+        this.memoryCache = memoryCache;
+        this.scrubBudget = new TokenBucket(scrubBytesPerSecond);
+    }
+
+    // A fill written and verified in a temp file on the target's volume, not yet visible
+    public record Staged(Path temp, Path target, String sha256) {
+    }
+
+    // Writes the stream to 'target' through a temp file on the same volume, hashing on the way;
+    // the file only appears under its name once complete and matching the expected digest
+    public Checksum write(Path target, InputStream in, String key, String expectedSha256) throws IOException {
+        Staged staged = stage(target, in, key, expectedSha256);
+        try {
+            return publish(staged);
+        } finally {
+            discard(staged);
+        }
+    }
+
+    // First half of write: the temp file, hashed and checked, for callers that sync or batch
+    // before anything is renamed
+    public Staged stage(Path target, InputStream in, String key, String expectedSha256) throws IOException {
+        Path temp = Files.createDirectories(rootFor(target).resolve(TEMP_DIR)).resolve(UUID.randomUUID().toString());
+        MessageDigest digest = newSha256();
+        try {
+            try (InputStream digesting = new DigestInputStream(in, digest)) {
+                Files.copy(digesting, temp);
+            }
+            String actual = HexFormat.of().formatHex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equals(actual)) {
+                metrics.integrity(CHECK_FILL, RESULT_CORRUPT);
+                throw new ChecksumMismatchException(key, expectedSha256, actual);
+            }
+            metrics.integrity(CHECK_FILL, RESULT_OK);
+            return new Staged(temp, target, actual);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // Second half: the atomic rename into place and the checksum record
+    public Checksum publish(Staged staged) throws IOException {
+        Path target = staged.target();
+        Files.createDirectories(target.getParent());
+        Files.move(staged.temp(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+        Checksum checksum = new Checksum(staged.sha256(), attributes.size(), attributes.lastModifiedTime().toMillis(),
+                System.currentTimeMillis());
+        record(target, checksum);
+        return checksum;
+    }
+
+    // Drops a staged fill that will not be published; harmless after publish
+    public void discard(Staged staged) throws IOException {
+        Files.deleteIfExists(staged.temp());
+    }
+
+    // Cheap check on a hit: size and mtime must still be what was recorded. A file that fails is
+    // quarantined and the caller treats the lookup as a miss.
+    public boolean verifyOnHit(Path file) throws IOException {
+        lastHits.put(file, System.currentTimeMillis());
+        Checksum recorded = recorded(file);
+        if (recorded == null) {
+            return true;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.size() == recorded.size()
+                && attributes.lastModifiedTime().toMillis() == recorded.lastModified()) {
+            return true;
+        }
+        metrics.integrity(CHECK_HIT, RESULT_CORRUPT);
+        quarantine(file, "size or mtime no longer matches its checksum record");
+        return false;
+    }
+
+    // Drops the record of an invalidated file
+    public void forget(Path file) throws IOException {
+        checksums.remove(file);
+        lastHits.remove(file);
+        Files.deleteIfExists(sidecarOf(file));
+    }
+
+    // Recorded checksum of a cache file, or null if it has none
+    public Checksum recorded(Path file) {
+        return checksums.computeIfAbsent(file, this::readSidecar).orElse(null);
+    }
+
+    @Scheduled(initialDelayString = "${cdn.integrity.scrub-interval-ms:600000}",
+            fixedDelayString = "${cdn.integrity.scrub-interval-ms:600000}")
+    public void scrub() {
+        if (!scrubEnabled) {
+            return;
+        }
+        try {
+            for (Path root : volumes.roots()) {
+                scrubVolume(root);
+            }
+            scrubObjects(Paths.get(cdnCacheDir, ".objects"));
+        } catch (InterruptedIOException e) {
+            logger.info("Cache scrub interrupted");
+        }
+    }
+
+    private void scrubVolume(Path root) throws InterruptedIOException {
+        Path sidecars = root.resolve(CHECKSUMS_DIR);
+        if (!Files.isDirectory(sidecars)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long reverifyAfterMs = TimeUnit.HOURS.toMillis(reverifyAfterHours);
+        for (Path sidecar : list(sidecars)) {
+            if (!sidecar.getFileName().toString().endsWith(SIDECAR_SUFFIX)) {
+                continue;
+            }
+            Path file = fileOf(root, sidecar);
+            Long lastHit = lastHits.get(file);
+            if (lastHit != null && now - lastHit < coldAfterMs) {
+                continue;
+            }
+            Checksum recorded = recorded(file);
+            if (recorded == null || now - recorded.verifiedAt() < reverifyAfterMs) {
+                continue;
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                String actual = sha256(file);
+                if (attributes.size() != recorded.size()
+                        || attributes.lastModifiedTime().toMillis() != recorded.lastModified()
+                        || !recorded.sha256().equals(actual)) {
+                    metrics.integrity(CHECK_SCRUB, RESULT_CORRUPT);
+                    quarantine(file, "checksum " + actual + " does not match recorded " + recorded.sha256());
+                    continue;
+                }
+                metrics.integrity(CHECK_SCRUB, RESULT_OK);
+                record(file, new Checksum(recorded.sha256(), recorded.size(), recorded.lastModified(), now));
+            } catch (NoSuchFileException e) {
+                // Deleted behind our back; the record is all that is left
+                checksums.remove(file);
+                deleteQuietly(sidecar);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                logger.warn("Failed to scrub {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    private void scrubObjects(Path objectsDir) throws InterruptedIOException {
+        if (!Files.isDirectory(objectsDir)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long reverifyAfterMs = TimeUnit.HOURS.toMillis(reverifyAfterHours);
+        for (Path object : list(objectsDir)) {
+            String name = object.getFileName().toString();
+            Long verifiedAt = objectsVerifiedAt.get(object);
+            if (!SHA256_HEX.matcher(name).matches() || (verifiedAt != null && now - verifiedAt < reverifyAfterMs)) {
+                continue;
+            }
+            try {
+                String actual = sha256(object);
+                if (!name.equals(actual)) {
+                    metrics.integrity(CHECK_SCRUB, RESULT_CORRUPT);
+                    quarantine(object, "content hashes to " + actual);
+                    continue;
+                }
+                metrics.integrity(CHECK_SCRUB, RESULT_OK);
+                objectsVerifiedAt.put(object, now);
+            } catch (NoSuchFileException e) {
+                objectsVerifiedAt.remove(object);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                logger.warn("Failed to scrub {}: {}", object, e.getMessage());
+            }
+        }
+    }
+
+    // Moves a bad file aside under <volume>/.quarantine so it is never served again
+    private void quarantine(Path file, String reason) {
+        logger.error("Quarantining corrupt cache file {}: {}", file, reason);
+        Path root = rootFor(file);
+        Path relative = root.relativize(file);
+        mappedFiles.evict(file);
+        if (relative.getNameCount() == 3 && !relative.getName(0).toString().startsWith(".")) {
+            memoryCache.invalidate(relative.toString().replace('\\', '/'));
+        }
+        Path target = root.resolve(QUARANTINE_DIR).resolve(relative.toString() + "." + System.currentTimeMillis());
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            forget(file);
+        } catch (IOException e) {
+            logger.error("Failed to quarantine {}, deleting it: {}", file, e.getMessage());
+            deleteQuietly(file);
+        }
+    }
+
+    // Re-reads a file at no more than the scrub rate
+    private String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                scrubBudget.acquire(read);
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void record(Path file, Checksum checksum) throws IOException {
+        Path sidecar = sidecarOf(file);
+        Files.createDirectories(sidecar.getParent());
+        // Renamed into place, so a crash mid-write never leaves a truncated record behind
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.writeString(temp, checksum.format(), StandardCharsets.UTF_8);
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        checksums.put(file, Optional.of(checksum));
+    }
+
+    private Optional<Checksum> readSidecar(Path file) {
+        try {
+            return Optional.of(Checksum.parse(Files.readString(sidecarOf(file), StandardCharsets.UTF_8)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable checksum record for {}: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Path rootFor(Path file) {
+        Path root = volumes.rootOf(file);
+        return root != null ? root : Paths.get(cdnCacheDir);
+    }
+
+    private Path sidecarOf(Path file) {
+        Path root = rootFor(file);
+        return root.resolve(CHECKSUMS_DIR).resolve(root.relativize(file).toString() + SIDECAR_SUFFIX);
+    }
+
+    private static Path fileOf(Path root, Path sidecar) {
+        String relative = root.resolve(CHECKSUMS_DIR).relativize(sidecar).toString();
+        return root.resolve(relative.substring(0, relative.length() - SIDECAR_SUFFIX.length()));
+    }
+
+    private static List<Path> list(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).toList();
+        } catch (IOException e) {
+            logger.warn("Failed to list {} for scrubbing: {}", dir, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
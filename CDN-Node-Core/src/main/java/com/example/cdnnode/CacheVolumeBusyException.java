@@ -0,0 +1,11 @@
+package com.example.cdnnode;
+
+import java.io.IOException;
+
+// Thrown when a cache volume has no room for more work; the disk is busy, not broken
+public class CacheVolumeBusyException extends IOException {
+
+    public CacheVolumeBusyException(String message) {
+        super(message);
+    }
+}
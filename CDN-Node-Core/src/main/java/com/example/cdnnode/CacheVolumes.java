@@ -0,0 +1,500 @@
+package com.example.cdnnode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// The whole-file disk tier spread over several volumes (cdn.cache.volumes, "path" or
+// "path=weight"; defaults to cdn.cache.path alone). Each key is owned by one volume, chosen by
+// weighted rendezvous hashing so that taking a volume out only moves the keys it owned. Each
+// volume has its own small I/O pool with a bounded queue, and callers wait at most
+// io-timeout-ms, so a slow or dead disk cannot tie up request threads meant for the others.
+// Response bodies that read a file after the request thread has returned are limited to
+// io-readers-per-volume per volume for the same reason. A volume that keeps failing is taken
+// offline until a probe succeeds again; what it held is discarded then, since invalidations
+// did not reach it while it was offline.
+@Component
+public class CacheVolumes {
+    private static final Logger logger = LoggerFactory.getLogger(CacheVolumes.class);
+    private static final long GB = 1024L * 1024L * 1024L;
+    private static final String STALE_PREFIX = ".stale-";
+
+    private final class Volume {
+        private final Path root;
+        private final double weight;
+        private final int seed;
+        private final ThreadPoolExecutor executor;
+        private final Semaphore readers = new Semaphore(readersPerVolume);
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile boolean online = true;
+
+        private Volume(int index, Path root, double weight) {
+            this.root = root;
+            this.weight = weight;
+            this.seed = root.toString().hashCode();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(ioThreads, ioThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(ioQueueSize), runnable -> {
+                        Thread thread = new Thread(runnable, "cache-io-" + index + "-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        // Rendezvous score: the volume with the highest score for a key owns it
+        private double score(String cacheKey) {
+            CRC32C crc = new CRC32C();
+            crc.update(cacheKey.getBytes(StandardCharsets.UTF_8));
+            long hash = mix(crc.getValue() ^ ((long) seed << 32));
+            double uniform = ((hash >>> 11) + 1) / (double) (1L << 53);
+            return -weight / Math.log(uniform);
+        }
+
+        private void succeeded() {
+            consecutiveFailures.set(0);
+        }
+
+        private void failed(String operation, Throwable e) {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold && online) {
+                online = false;
+                logger.error("Cache volume {} taken offline after {} consecutive failures (last {}: {})",
+                        root, failureThreshold, operation, e.toString());
+            }
+        }
+    }
+
+    // A cached file opened for a response body. It holds one of its volume's reader slots
+    // until closed; the open, and reads into the heap, run on the volume's pool.
+    public final class Reader implements Closeable {
+        private final Volume volume;
+        private final FileChannel channel;
+        private final long size;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Reader(Volume volume, FileChannel channel, long size) {
+            this.volume = volume;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        // Runs further I/O on the file (e.g. mapping it) on the volume's pool
+        public <T> T call(Callable<T> io) throws IOException {
+            return volume != null ? run(volume, "read", io) : CacheVolumes.call(io);
+        }
+
+        public byte[] readAll() throws IOException {
+            return call(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, buffer.position()) < 0) {
+                        throw new IOException("File shorter than expected");
+                    }
+                }
+                return buffer.array();
+            });
+        }
+
+        // Sends the file with transferTo on the calling (response) thread
+        public void transferTo(OutputStream outputStream) throws IOException {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = 0;
+            while (position < size) {
+                long written = channel.transferTo(position, size - position, target);
+                if (written <= 0) {
+                    throw new IOException("File shorter than expected");
+                }
+                position += written;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close cached file: {}", e.getMessage());
+            }
+            if (volume != null) {
+                volume.readers.release();
+            }
+        }
+    }
+
+    private final CdnMetrics metrics;
+    private final MappedFileCache mappedFiles;
+    private volatile List<Volume> volumes = List.of();
+
+    @Value("${cdn.cache.path}")
+    private String cdnCacheDir;
+
+    @Value("${cdn.cache.volumes:}")
+    private String[] volumeSpecs;
+
+    @Value("${cdn.cache.io-threads-per-volume:4}")
+    private int ioThreads;
+
+    @Value("${cdn.cache.io-queue-size:256}")
+    private int ioQueueSize;
+
+    @Value("${cdn.cache.io-timeout-ms:2000}")
+    private long ioTimeoutMs;
+
+    @Value("${cdn.cache.io-readers-per-volume:64}")
+    private int readersPerVolume;
+
+    @Value("${cdn.cache.io-min-write-mb-per-second:20}")
+    private long minWriteMbPerSecond;
+
+    @Value("${cdn.cache.io-min-read-mb-per-second:50}")
+    private long minReadMbPerSecond;
+
+    @Value("${cdn.cache.volume-failure-threshold:5}")
+    private int failureThreshold;
+
+    public CacheVolumes(CdnMetrics metrics, MappedFileCache mappedFiles) {
+        this.metrics = metrics;
+        this.mappedFiles = mappedFiles;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        List<String> specs = new ArrayList<>();
+        for (String spec : volumeSpecs == null ? new String[0] : volumeSpecs) {
+            if (!spec.isBlank()) {
+                specs.add(spec.trim());
+            }
+        }
+        if (specs.isEmpty()) {
+            specs.add(cdnCacheDir);
+        }
+        List<Volume> configured = new ArrayList<>();
+        for (String spec : specs) {
+            int separator = spec.lastIndexOf('=');
+            Path root = Paths.get(separator < 0 ? spec : spec.substring(0, separator));
+            Files.createDirectories(root);
+            // Without an explicit weight a volume gets keys in proportion to its size
+            double weight = separator < 0
+                    ? Math.max(1, Files.getFileStore(root).getTotalSpace() / GB)
+                    : Double.parseDouble(spec.substring(separator + 1));
+            configured.add(new Volume(configured.size(), root, weight));
+            logger.info("Cache volume {} (weight {})", root, weight);
+        }
+        volumes = List.copyOf(configured);
+        for (Volume volume : volumes) {
+            // Left behind by a discard that was cut short
+            volume.executor.execute(() -> deleteStale(volume));
+        }
+        metrics.gauge("cdn.cache.volumes.online", "Disk cache volumes currently in use",
+                () -> volumes.stream().filter(volume -> volume.online).count());
+    }
+
+    // Roots of all configured volumes, online or not
+    public List<Path> roots() {
+        return volumes.stream().map(volume -> volume.root).toList();
+    }
+
+    // Path of the cached file if any online volume holds it: the owner is checked first, then
+    // the others, since the owner changes when a volume goes offline or comes back
+    public Path locate(String series, String type, String filename) {
+        for (Volume volume : byPreference(series + "/" + type + "/" + filename)) {
+            Path path = volume.root.resolve(series).resolve(type).resolve(filename);
+            try {
+                if (run(volume, "stat", () -> Files.isRegularFile(path))) {
+                    return path;
+                }
+            } catch (IOException e) {
+                logger.debug("Skipping cache volume {}: {}", volume.root, e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    // Every online copy of the file, for invalidation
+    public List<Path> locateAll(String series, String type, String filename) {
+        List<Path> paths = new ArrayList<>();
+        for (Volume volume : byPreference(series + "/" + type + "/" + filename)) {
+            Path path = volume.root.resolve(series).resolve(type).resolve(filename);
+            try {
+                if (run(volume, "stat", () -> Files.exists(path))) {
+                    paths.add(path);
+                }
+            } catch (IOException e) {
+                logger.debug("Skipping cache volume {}: {}", volume.root, e.getMessage());
+            }
+        }
+        return paths;
+    }
+
+    // Root of the volume holding the path, or null
+    public Path rootOf(Path path) {
+        for (Volume volume : volumes) {
+            if (path.startsWith(volume.root)) {
+                return volume.root;
+            }
+        }
+        return null;
+    }
+
+    // Where a new copy of the file goes, or null when no volume is online
+    public Path placement(String series, String type, String filename) {
+        List<Volume> candidates = byPreference(series + "/" + type + "/" + filename);
+        return candidates.isEmpty() ? null
+                : candidates.get(0).root.resolve(series).resolve(type).resolve(filename);
+    }
+
+    // Runs file I/O for a path on its volume's pool, waiting at most io-timeout-ms
+    public <T> T run(Path path, Callable<T> io) throws IOException {
+        return run(volumeOf(path), "io", io, ioTimeoutMs);
+    }
+
+    // Opens a cached file for a response body, or throws CacheVolumeBusyException when its
+    // volume already has io-readers-per-volume open. Files outside the volumes (such as the
+    // content store next to them) are opened directly. The reader must be closed.
+    public Reader open(Path path) throws IOException {
+        Volume volume = findVolume(path);
+        if (volume == null) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                return new Reader(null, channel, channel.size());
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        if (!volume.readers.tryAcquire()) {
+            throw new CacheVolumeBusyException("Cache volume busy: " + volume.root);
+        }
+        try {
+            return run(volume, "open", () -> {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                try {
+                    Reader reader = new Reader(volume, channel, channel.size());
+                    if (Thread.currentThread().isInterrupted()) {
+                        // The caller gave up waiting; nobody will close this
+                        throw new InterruptedIOException();
+                    }
+                    return reader;
+                } catch (IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            volume.readers.release();
+            throw e;
+        }
+    }
+
+    // Reads 'size' bytes of a file on its volume's pool, allowing for the minimum read rate;
+    // run directly for files outside the volumes
+    public <T> T read(Path path, long size, Callable<T> io) throws IOException {
+        Volume volume = findVolume(path);
+        if (volume == null) {
+            return call(io);
+        }
+        long transferMs = size * 1000 / (minReadMbPerSecond * 1024 * 1024);
+        return run(volume, "read", io, ioTimeoutMs + transferMs);
+    }
+
+    // Same for writing 'size' bytes; the wait also allows for the minimum write rate
+    public <T> T write(Path path, long size, Callable<T> io) throws IOException {
+        long transferMs = size * 1000 / (minWriteMbPerSecond * 1024 * 1024);
+        return run(volumeOf(path), "write", io, ioTimeoutMs + transferMs);
+    }
+
+    private Volume volumeOf(Path path) throws IOException {
+        Volume volume = findVolume(path);
+        if (volume == null) {
+            throw new IOException("Not on a cache volume: " + path);
+        }
+        return volume;
+    }
+
+    private Volume findVolume(Path path) {
+        for (Volume volume : volumes) {
+            if (path.startsWith(volume.root)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    private static <T> T call(Callable<T> io) throws IOException {
+        try {
+            return io.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private <T> T run(Volume volume, String operation, Callable<T> io) throws IOException {
+        return run(volume, operation, io, ioTimeoutMs);
+    }
+
+    private <T> T run(Volume volume, String operation, Callable<T> io, long timeoutMs) throws IOException {
+        Future<T> future;
+        try {
+            future = volume.executor.submit(io);
+        } catch (RejectedExecutionException e) {
+            // Busy, not broken: the request gives up on this volume without counting a failure
+            throw new CacheVolumeBusyException("Cache volume busy: " + volume.root);
+        }
+        try {
+            T result = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            volume.succeeded();
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            volume.failed(operation, e);
+            throw new IOException("Cache volume timed out: " + volume.root);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (!(cause instanceof NoSuchFileException)) {
+                volume.failed(operation, cause);
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for cache volume " + volume.root);
+        }
+    }
+
+    private List<Volume> byPreference(String cacheKey) {
+        List<Volume> online = new ArrayList<>();
+        for (Volume volume : volumes) {
+            if (volume.online) {
+                online.add(volume);
+            }
+        }
+        online.sort(Comparator.comparingDouble((Volume volume) -> volume.score(cacheKey)).reversed());
+        return online;
+    }
+
+    // Brings offline volumes back once a write and delete on them succeeds again. Invalidations
+    // skipped the volume while it was offline, so its files are moved aside first and deleted
+    // in the background, and any mappings of them are dropped.
+    @Scheduled(fixedDelayString = "${cdn.cache.volume-probe-interval-ms:30000}")
+    public void probeOffline() {
+        for (Volume volume : volumes) {
+            if (volume.online) {
+                continue;
+            }
+            Path probe = volume.root.resolve(".probe");
+            try {
+                Future<?> future = volume.executor.submit(() -> {
+                    Files.createDirectories(volume.root);
+                    Files.writeString(probe, "probe");
+                    Files.delete(probe);
+                    moveAside(volume.root);
+                    return null;
+                });
+                future.get(ioTimeoutMs, TimeUnit.MILLISECONDS);
+                mappedFiles.evictUnder(volume.root);
+                volume.succeeded();
+                volume.online = true;
+                volume.executor.execute(() -> deleteStale(volume));
+                logger.info("Cache volume {} back online, its previous contents discarded", volume.root);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException | RejectedExecutionException e) {
+                logger.debug("Cache volume {} still failing: {}", volume.root, e.toString());
+            }
+        }
+    }
+
+    // Renames the cached files and their checksum records into a .stale-* directory; cheap,
+    // since nothing is copied. Other hidden directories (content store, segments, staging)
+    // are not invalidated through the volumes and stay.
+    private static void moveAside(Path root) throws IOException {
+        Path stale = root.resolve(STALE_PREFIX + System.currentTimeMillis());
+        Files.createDirectories(stale);
+        try (Stream<Path> children = Files.list(root)) {
+            for (Path child : children.toList()) {
+                String name = child.getFileName().toString();
+                if (!name.startsWith(".") || name.equals(".checksums")) {
+                    Files.move(child, stale.resolve(name));
+                }
+            }
+        }
+    }
+
+    private static void deleteStale(Volume volume) {
+        try (Stream<Path> children = Files.list(volume.root)) {
+            for (Path stale : children.filter(child -> child.getFileName().toString().startsWith(STALE_PREFIX)).toList()) {
+                deleteRecursively(stale);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Failed to delete discarded contents of cache volume {}: {}", volume.root, e.getMessage());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (Volume volume : volumes) {
+            volume.executor.shutdownNow();
+        }
+    }
+}
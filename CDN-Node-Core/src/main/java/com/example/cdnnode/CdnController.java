@@ -0,0 +1,984 @@
+package com.example.cdnnode;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.net.URLDecoder;
+
+@RestController
+@RequestMapping("/cdn")
+public class CdnController {
+    private final OriginClient originClient;
+    private final NodeLoadTracker loadTracker;
+    private final CdnMetrics metrics;
+    private final ObservationRegistry observationRegistry;
+    private final ContentAddressedStore contentStore;
+    private final BulkArchiveStreamer bulkStreamer;
+    private final SegmentedCache segmentedCache;
+    private final MappedFileCache mappedFiles;
+    private final OffHeapCache memoryCache;
+    private final LoadShedder loadShedder;
+    private final CacheVolumes volumes;
+    private final CacheIntegrity integrity;
+    private final WriteBehindCache writeBehind;
+    private final AccessTraceRecorder traceRecorder;
+    // Content type per file extension, so hits do not probe the file type every time
+    private final Map<String, String> contentTypes = new ConcurrentHashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(CdnController.class);
+    private static final String TOTAL_COUNT = "X-Total-Count";
+    private static final String NEXT_CURSOR = "X-Next-Cursor";
+
+    // Cold files up to this size are read into the heap; larger ones are streamed from the file
+    @Value("${cdn.serve.heap-max-kb:256}")
+    private long heapMaxKb;
+
+    @Value("${cdn.listing.page-size:1000}")
+    private int listingPageSize;
+
+    @Value("${cdn.listing.max-page-size:5000}")
+    private int listingMaxPageSize;
+
+    @Value("${cdn.bulk.max-keys:10000}")
+    private int bulkMaxKeys;
+
+    public CdnController(OriginClient originClient, NodeLoadTracker loadTracker, CdnMetrics metrics,
+                         ObservationRegistry observationRegistry, ContentAddressedStore contentStore,
+                         BulkArchiveStreamer bulkStreamer, SegmentedCache segmentedCache,
+                         MappedFileCache mappedFiles, OffHeapCache memoryCache, LoadShedder loadShedder,
+                         CacheVolumes volumes, CacheIntegrity integrity, WriteBehindCache writeBehind,
+                         AccessTraceRecorder traceRecorder) {
+        this.originClient = originClient;
+        this.loadTracker = loadTracker;
+        this.metrics = metrics;
+        this.observationRegistry = observationRegistry;
+        this.contentStore = contentStore;
+        this.bulkStreamer = bulkStreamer;
+        this.segmentedCache = segmentedCache;
+        this.mappedFiles = mappedFiles;
+        this.memoryCache = memoryCache;
+        this.loadShedder = loadShedder;
+        this.volumes = volumes;
+        this.integrity = integrity;
+        this.writeBehind = writeBehind;
+        this.traceRecorder = traceRecorder;
+        metrics.gauge("cdn.downloads.in-flight", "File and bulk downloads being served",
+                loadTracker::getActiveDownloads);
+    }
+
+    // Utility method to format the date to the required format
+    String formatLastModified(long timestamp) {
+        SimpleDateFormat sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'");
+        sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return sdf.format(new Date(timestamp));
+    }
+
+    // Counts the lookup for the node's load figures and metrics, and tags the access log record
+    private void recordHit(String tier, String series) {
+        loadTracker.recordHit();
+        metrics.hit(tier, series);
+        CacheAccessLogFilter.cacheStatus(tier, "hit");
+    }
+
+    private void recordMiss(String tier, String series) {
+        loadTracker.recordMiss();
+        metrics.miss(tier, series);
+        CacheAccessLogFilter.cacheStatus(tier, "miss");
+    }
+
+    // Writes a fetched object into a cache tier, traced as its own span and counted as fill time
+    private <T> T fill(String tier, Observation.CheckedCallable<T, IOException> write) throws IOException {
+        long start = System.nanoTime();
+        try {
+            T result = Observation.createNotStarted("cdn.cache.write", observationRegistry)
+                    .lowCardinalityKeyValue("tier", tier)
+                    .observeChecked(write);
+            metrics.cacheFill(tier, System.nanoTime() - start);
+            return result;
+        } finally {
+            ServerTiming.recordFill(System.nanoTime() - start);
+        }
+    }
+
+    private HttpStatus unavailableStatus(UpstreamUnavailableException e) {
+        return e.isTimedOut() ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.SERVICE_UNAVAILABLE;
+    }
+
+    private ResponseEntity<List<String>> getListResponseEntity(String originPath, Deadline deadline) {
+        ResponseEntity<String[]> response = originClient.get(originPath, String[].class, deadline);
+        if (response.getBody() == null || response.getBody().length == 0) {
+            return ResponseEntity.ok(Collections.emptyList());
+        }
+
+        // Weak validator over the names; Spring answers a matching If-None-Match with 304
+        List<String> names = Arrays.asList(response.getBody());
+        return ResponseEntity.ok()
+                .eTag("W/\"" + Integer.toHexString(names.hashCode()) + "-" + names.size() + "\"")
+                .body(names);
+    }
+
+    @GetMapping("/list-series")
+    public ResponseEntity<List<String>> listSeries(
+            @RequestHeader(value = Deadline.HEADER, required = false) String timeout) {
+        String originPath = "/series";
+        logger.debug("Origin path: {}", originPath);
+        if (!admit(LoadShedder.MISSES)) {
+            return overloaded(Collections.emptyList());
+        }
+        try {
+            return getListResponseEntity(originPath, originClient.deadline(timeout));
+        } catch (UpstreamUnavailableException e) {
+            logger.error("Origin Server unavailable for series list: {}", e.getMessage());
+            return ResponseEntity.status(unavailableStatus(e)).body(Collections.emptyList());
+        } catch (Exception e) {
+            logger.error("Failed to fetch series list from Origin Server: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.emptyList());
+        }
+    }
+
+    @GetMapping("/list-types/{series}")
+    public ResponseEntity<List<String>> listTypes(@PathVariable String series,
+                                                  @RequestHeader(value = Deadline.HEADER, required = false) String timeout) {
+        String originPath = UriComponentsBuilder.fromPath("/types/{series}").encode()
+                .buildAndExpand(series).toUriString();
+        logger.debug("Origin path: {}", originPath);
+        if (!admit(LoadShedder.MISSES)) {
+            return overloaded(Collections.emptyList());
+        }
+        try {
+            return getListResponseEntity(originPath, originClient.deadline(timeout));
+        } catch (UpstreamUnavailableException e) {
+            logger.error("Origin Server unavailable for types list: {}", e.getMessage());
+            return ResponseEntity.status(unavailableStatus(e)).body(Collections.emptyList());
+        } catch (Exception e) {
+            logger.error("Failed to fetch types list from Origin Server: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.emptyList());
+        }
+    }
+
+    // Fetch the file from the origin server if not in cache. When segmenting is on, a file
+    // large enough for it is not transferred whole: the GET's headers stand in for a HEAD,
+    // its body is left unread, and the file is served from segments.
+    private ResponseEntity<?> fetchFromOriginServer(String series, String type, String filename, String range,
+                                                    Deadline deadline) {
+        String originPath = OriginClient.filePath(series, type, filename);
+        logger.debug("Origin path: {}", originPath);
+        try {
+            ResponseEntity<OriginBody> response = originClient.getObject(originPath, deadline, (status, headers, body) -> {
+                if (segmentedCache.isEnabled() && segmentedCache.isSegmentable(headers.getContentLength())) {
+                    return null;
+                }
+                MessageDigest digest = CacheIntegrity.newSha256();
+                try (InputStream in = new DigestInputStream(body, digest)) {
+                    byte[] data = in.readAllBytes();
+                    return new OriginBody(data, HexFormat.of().formatHex(digest.digest()));
+                }
+            });
+
+            if (response.getStatusCode().is2xxSuccessful()) {
+                metrics.confirmSeries(series);
+                if (response.getBody() == null) {
+                    String cacheKey = series + "/" + type + "/" + filename;
+                    SegmentedCache.Metadata metadata = segmentedCache.remember(cacheKey, response.getHeaders());
+                    return segmentedResponse(filename, cacheKey, originPath, metadata, range, deadline);
+                }
+                // Fix: Avoid NullPointerException by providing a default content type
+                String contentType = (response.getHeaders().getContentType() != null)
+                        ? response.getHeaders().getContentType().toString()
+                        : "application/octet-stream";  // Default Content-Type
+
+                long lastModifiedTimestamp = System.currentTimeMillis();
+
+                logger.debug("File fetched from Origin Server and cached: {}", series + "/" + type + "/" + filename);
+                return ResponseEntity.ok()
+                        .eTag(response.getHeaders().getETag())
+                        .header(HttpHeaders.CACHE_CONTROL, "max-age=3600, must-revalidate")
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
+                        .header(HttpHeaders.LAST_MODIFIED, formatLastModified(lastModifiedTimestamp))
+                        .header(HttpHeaders.CONTENT_TYPE, contentType)
+                        .body(response.getBody());
+            } else {
+                logger.error("Error fetching file from origin server: {}", response.getStatusCode());
+                return ResponseEntity.status(response.getStatusCode()).body(null);
+            }
+        } catch (HttpStatusCodeException e) {
+            logger.error("Origin Server returned {} for {}", e.getStatusCode(), originPath);
+            return ResponseEntity.status(e.getStatusCode()).body(null);
+        } catch (UpstreamUnavailableException e) {
+            logger.error("Origin Server unavailable for {}: {}", originPath, e.getMessage());
+            return ResponseEntity.status(unavailableStatus(e)).body(null);
+        } catch (IOException e) {
+            logger.error("Error reading file from Origin Server: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
+
+
+    // Stat-only integrity check of a disk hit; a failed or unverifiable file counts as a miss
+    private boolean verifiedOnHit(Path cachePath) {
+        try {
+            return volumes.run(cachePath, () -> integrity.verifyOnHit(cachePath));
+        } catch (IOException e) {
+            logger.warn("Could not verify cached file {}: {}", cachePath, e.getMessage());
+            return false;
+        }
+    }
+
+    // Serves an object held in the off-heap memory tier, releasing it once it has been written
+    private ResponseEntity<?> serveFromMemory(OffHeapCache.Entry entry, String filename, String series) {
+        loadTracker.recordBytesServed(entry.size());
+        metrics.bytesServed(CdnMetrics.SOURCE_CACHE, series, entry.size());
+        StreamingResponseBody body = new ReleasableBody(entry::writeTo, entry::release);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, contentTypeOf(filename))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentLength(entry.size())
+                .body(body);
+    }
+
+    // Copies a cache hit into the memory tier and serves it from there; null if it was not admitted
+    private ResponseEntity<?> promoteToMemory(String cacheKey, Path file, String filename, String series) {
+        if (!memoryCache.isEnabled()) {
+            return null;
+        }
+        try {
+            // The copy reads the whole file, so it runs on the volume's pool
+            long size = volumes.run(file, () -> Files.size(file));
+            volumes.read(file, size, () -> {
+                memoryCache.admit(cacheKey, file, size);
+                return null;
+            });
+        } catch (IOException e) {
+            return null;
+        }
+        OffHeapCache.Entry entry = memoryCache.acquire(cacheKey);
+        return entry != null ? serveFromMemory(entry, filename, series) : null;
+    }
+
+    private String contentTypeOf(String filename) {
+        int dot = filename.lastIndexOf('.');
+        String extension = dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return contentTypes.computeIfAbsent(extension, ext -> {
+            try {
+                String contentType = Files.probeContentType(Paths.get("file." + ext));
+                return contentType != null ? contentType : "application/octet-stream";
+            } catch (IOException e) {
+                return "application/octet-stream";  // Default fallback
+            }
+        });
+    }
+
+    // A whole file held in the heap, with the same headers as streamFile
+    private ResponseEntity<?> serveBytes(byte[] data, String filename, String series, String source) {
+        loadTracker.recordBytesServed(data.length);
+        metrics.bytesServed(source, series, data.length);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, contentTypeOf(filename))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .contentLength(data.length)
+                .body(new ByteArrayResource(data));
+    }
+
+    // Stream the file to the client; the filename drives content type and disposition,
+    // the source says whether these bytes were already cached or just came from the origin.
+    // Hot files are served from a memory mapping, large cold ones with transferTo, small
+    // cold ones from the heap. The file is opened, mapped or read on its volume's pool, and
+    // the volume's reader slot is held until the body has been written.
+    ResponseEntity<?> streamFile(Path filePath, String filename, String series, String source) {
+        CacheVolumes.Reader reader;
+        try {
+            reader = volumes.open(filePath);
+        } catch (CacheVolumeBusyException e) {
+            return overloaded("Cache volume busy");
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error streaming file");
+        }
+        try {
+            long size = reader.size();
+            Object body;
+            MappedFileCache.Mapping mapping = reader.call(() -> mappedFiles.acquire(filePath, size));
+            if (mapping != null) {
+                body = new ReleasableBody(outputStream -> {
+                    ByteBuffer buffer = mapping.slice();
+                    WritableByteChannel target = Channels.newChannel(outputStream);
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                }, () -> {
+                    mapping.release();
+                    reader.close();
+                });
+            } else if (size > heapMaxKb * 1024) {
+                body = new ReleasableBody(reader::transferTo, reader::close);
+            } else {
+                body = new ByteArrayResource(reader.readAll());
+                reader.close();
+            }
+            loadTracker.recordBytesServed(size);
+            metrics.bytesServed(source, series, size);
+
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_TYPE, contentTypeOf(filename))
+                    // Always force download instead of opening inline
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                    .contentLength(size)
+                    .body(body);
+        } catch (Exception e) {
+            reader.close();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error streaming file");
+        }
+    }
+
+
+    @GetMapping("/{series}/{type}/{filename}")
+    public ResponseEntity<?> getFile(@PathVariable String series,
+                                     @PathVariable String type,
+                                     @PathVariable String filename,
+                                     @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                                     @RequestHeader(value = Deadline.HEADER, required = false) String timeout,
+                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // Decode the filename, series, and type to ensure proper URL decoding
+        try {
+            series = URLDecoder.decode(series, "UTF-8");
+            type = URLDecoder.decode(type, "UTF-8");
+            filename = URLDecoder.decode(filename, "UTF-8");
+        } catch (Exception e) {
+            logger.error("Error decoding URL parameters: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid URL parameters");
+        }
+
+        logger.debug("Fetching file: {}/{}/{}", series, type, filename);
+        String budget = isCached(series, type, filename) ? LoadShedder.HITS : LoadShedder.MISSES;
+        if (!admit(budget)) {
+            return overloaded("Node overloaded, retry later");
+        }
+        // Both are held until the body has been written, not just until the headers are ready
+        loadTracker.beginDownload();
+        RequestCompletion.whenComplete(loadTracker::endDownload);
+        long start = System.nanoTime();
+        Deadline deadline = originClient.deadline(timeout);
+        // Clients validate their copies by content hash, so an unchanged file costs no transfer
+        if (ifNoneMatch != null) {
+            String hash = currentHash(series, type, filename, deadline);
+            if (hash != null && matchesAny(ifNoneMatch, hash)) {
+                CacheAccessLogFilter.cacheStatus("validator", "not-modified");
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag("\"" + hash + "\"")
+                        .header(ServerTiming.HEADER, ServerTiming.header(System.nanoTime() - start))
+                        .build();
+            }
+        }
+        ResponseEntity<?> response = serveFile(series, type, filename, range, deadline);
+        traceAccess(series + "/" + type + "/" + filename, response);
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(ServerTiming.HEADER, ServerTiming.header(System.nanoTime() - start))
+                .body(response.getBody());
+    }
+
+    // Takes a permit from the budget, held until the response is complete; false if shed
+    private boolean admit(String budget) {
+        LoadShedder.Permit permit = loadShedder.tryAcquire(budget);
+        if (permit == null) {
+            return false;
+        }
+        RequestCompletion.whenComplete(permit::release);
+        return true;
+    }
+
+    private <T> ResponseEntity<T> overloaded(T body) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(loadShedder.getRetryAfterSeconds()))
+                .body(body);
+    }
+
+    // Traces served files only, with the size of the whole object even when a range was sent
+    private void traceAccess(String cacheKey, ResponseEntity<?> response) {
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            return;
+        }
+        long size = response.getHeaders().getContentLength();
+        String contentRange = response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE);
+        if (contentRange != null && contentRange.lastIndexOf('/') >= 0) {
+            try {
+                size = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1));
+            } catch (NumberFormatException e) {
+                return;
+            }
+        }
+        if (size >= 0) {
+            traceRecorder.record(cacheKey, size, "hit".equals(CacheAccessLogFilter.cacheResult()));
+        }
+    }
+
+    // SHA-256 of the content a GET would serve: the disk tier's checksum record or the content
+    // store's hash when cached, otherwise the origin's ETag; null when unknown
+    private String currentHash(String series, String type, String filename, Deadline deadline) {
+        String hash = localHash(series, type, filename);
+        if (hash != null) {
+            return hash;
+        }
+        try {
+            String originPath = OriginClient.filePath(series, type, filename);
+            return ContentAddressedStore.hashFromEtag(originClient.head(originPath, deadline).getHeaders().getETag());
+        } catch (RuntimeException e) {
+            logger.debug("Could not validate {}/{}/{} against the origin: {}", series, type, filename, e.getMessage());
+            return null;
+        }
+    }
+
+    // SHA-256 recorded for the cached copy by the disk tier or the content store, or null
+    private String localHash(String series, String type, String filename) {
+        String cacheKey = series + "/" + type + "/" + filename;
+        Path cachePath = volumes.locate(series, type, filename);
+        if (cachePath != null) {
+            try {
+                CacheIntegrity.Checksum checksum = volumes.run(cachePath, () -> integrity.recorded(cachePath));
+                if (checksum != null) {
+                    return checksum.sha256();
+                }
+            } catch (IOException e) {
+                logger.debug("No checksum record for {}: {}", cacheKey, e.getMessage());
+            }
+        }
+        return contentStore.isEnabled() ? contentStore.hashOf(cacheKey) : null;
+    }
+
+    // What is known of a cached copy, to compare with the origin's listing: its SHA-256 (null
+    // when unknown) and the time it was filled, or the origin's Last-Modified for a segmented
+    // object (-1 when unknown)
+    record CachedVersion(String sha256, long lastModified) {
+    }
+
+    CachedVersion cachedVersion(String series, String type, String filename) {
+        String cacheKey = series + "/" + type + "/" + filename;
+        String hash = localHash(series, type, filename);
+        if (segmentedCache.isEnabled()) {
+            try {
+                SegmentedCache.Metadata metadata = segmentedCache.metadata(cacheKey);
+                if (metadata != null) {
+                    return new CachedVersion(hash != null ? hash : ContentAddressedStore.hashFromEtag(metadata.etag()),
+                            parseLastModified(metadata.lastModified()));
+                }
+            } catch (IOException e) {
+                logger.debug("No segment metadata for {}: {}", cacheKey, e.getMessage());
+            }
+        }
+        Path cachePath = volumes.locate(series, type, filename);
+        if (cachePath != null) {
+            try {
+                return new CachedVersion(hash, volumes.run(cachePath,
+                        () -> Files.getLastModifiedTime(cachePath).toMillis()));
+            } catch (IOException e) {
+                logger.debug("Could not stat {}: {}", cacheKey, e.getMessage());
+            }
+        }
+        if (contentStore.isEnabled() && contentStore.hashOf(cacheKey) != null) {
+            return new CachedVersion(hash, contentStore.linkedAt(cacheKey));
+        }
+        return new CachedVersion(hash, -1);
+    }
+
+    private static long parseLastModified(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Keys of everything some tier holds, series/type/filename
+    Set<String> cachedKeys() {
+        Set<String> keys = new HashSet<>(memoryCache.keys());
+        if (contentStore.isEnabled()) {
+            keys.addAll(contentStore.keys());
+        }
+        if (segmentedCache.isEnabled()) {
+            try {
+                keys.addAll(segmentedCache.keys());
+            } catch (IOException e) {
+                logger.warn("Failed to list segmented objects: {}", e.getMessage());
+            }
+        }
+        for (Path root : volumes.roots()) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(root, 3)) {
+                files.filter(file -> root.relativize(file).getNameCount() == 3)
+                        .filter(file -> !root.relativize(file).getName(0).toString().startsWith("."))
+                        .filter(Files::isRegularFile)
+                        .forEach(file -> {
+                            Path relative = root.relativize(file);
+                            keys.add(relative.getName(0) + "/" + relative.getName(1) + "/" + relative.getName(2));
+                        });
+            } catch (IOException e) {
+                logger.warn("Failed to list cached files on {}: {}", root, e.getMessage());
+            }
+        }
+        return keys;
+    }
+
+    private static boolean matchesAny(String ifNoneMatch, String hash) {
+        for (String etag : ifNoneMatch.split(",")) {
+            if (hash.equals(ContentAddressedStore.hashFromEtag(etag.trim()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Cheap check used to pick the load-shedding budget: true if a cache tier holds the whole file
+    private boolean isCached(String series, String type, String filename) {
+        String cacheKey = series + "/" + type + "/" + filename;
+        return memoryCache.contains(cacheKey)
+                || writeBehind.pending(cacheKey) != null
+                || volumes.locate(series, type, filename) != null
+                || (contentStore.isEnabled() && contentStore.lookup(cacheKey) != null);
+    }
+
+    private ResponseEntity<?> serveFile(String series, String type, String filename, String range,
+                                        Deadline deadline) {
+        String cacheKey = series + "/" + type + "/" + filename;
+        if (memoryCache.isEnabled()) {
+            OffHeapCache.Entry entry = memoryCache.acquire(cacheKey);
+            if (entry != null) {
+                recordHit(CdnMetrics.TIER_MEMORY, series);
+                return serveFromMemory(entry, filename, series);
+            }
+            // Counted for the tier only; the lookup continues on disk
+            metrics.miss(CdnMetrics.TIER_MEMORY, series);
+        }
+        if (segmentedCache.isEnabled()) {
+            ResponseEntity<?> segmented = serveSegmented(series, type, filename, cacheKey, range, deadline);
+            if (segmented != null) {
+                return segmented;
+            }
+        }
+        if (contentStore.isEnabled()) {
+            return serveContentAddressed(series, type, filename, cacheKey, range, deadline);
+        }
+        // Fetched moments ago and still on its way to disk
+        byte[] pendingFill = writeBehind.pending(cacheKey);
+        if (pendingFill != null) {
+            recordHit(CdnMetrics.TIER_PENDING, series);
+            return serveBytes(pendingFill, filename, series, CdnMetrics.SOURCE_CACHE);
+        }
+        Path cachePath = volumes.locate(series, type, filename);
+
+        // Check if file is in cache
+        if (cachePath != null && verifiedOnHit(cachePath)) {
+            logger.debug("Serving file from cache: {}", cacheKey);
+            recordHit(CdnMetrics.TIER_DISK, series);
+            ResponseEntity<?> promoted = promoteToMemory(cacheKey, cachePath, filename, series);
+            if (promoted != null) {
+                return promoted;
+            }
+            return streamFile(cachePath, filename, series, CdnMetrics.SOURCE_CACHE);  // Stream from cache
+        }
+
+        // Fetch file from origin server
+        recordMiss(CdnMetrics.TIER_DISK, series);
+        ResponseEntity<?> originResponse = fetchFromOriginServer(series, type, filename, range, deadline);
+        Path placement = volumes.placement(series, type, filename);
+        if (placement != null && originResponse.getStatusCode().is2xxSuccessful()
+                && originResponse.getBody() instanceof OriginBody body) {
+            // Checked here, since the client gets these bytes before they reach the disk
+            byte[] data = body.getByteArray();
+            String expectedHash = ContentAddressedStore.hashFromEtag(originResponse.getHeaders().getETag());
+            String actualHash = body.sha256();
+            if (expectedHash != null && !expectedHash.equals(actualHash)) {
+                logger.error(new ChecksumMismatchException(cacheKey, expectedHash, actualHash).getMessage());
+                return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body("Corrupt transfer from origin");
+            }
+            // Persisted on the volume that owns the key, behind the response; a full queue
+            // costs the cache entry, not the response
+            if (!writeBehind.submit(cacheKey, placement, data, actualHash)) {
+                logger.debug("Write-behind queue full, not caching {}", cacheKey);
+            }
+            return serveBytes(data, filename, series, CdnMetrics.SOURCE_ORIGIN);
+        }
+        // If fetch from origin server fails, return the origin server's response
+        return originResponse;
+    }
+
+    // Large files are served from independently cached segments; null means "not segmented".
+    // Only objects segmented here before are recognised; new ones are found by the miss path.
+    private ResponseEntity<?> serveSegmented(String series, String type, String filename, String cacheKey,
+                                             String range, Deadline deadline) {
+        SegmentedCache.Metadata metadata;
+        try {
+            metadata = segmentedCache.metadata(cacheKey);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unreadable segment metadata for {}: {}", cacheKey, e.getMessage());
+            return null;
+        }
+        if (metadata == null) {
+            return null;
+        }
+        return segmentedResponse(filename, cacheKey, "/" + series + "/" + type + "/" + filename, metadata, range,
+                deadline);
+    }
+
+    private ResponseEntity<?> segmentedResponse(String filename, String cacheKey, String originPath,
+                                                SegmentedCache.Metadata metadata, String range, Deadline deadline) {
+        long size = metadata.size();
+        long start = 0;
+        long end = size - 1;
+        HttpHeaders headers = new HttpHeaders();
+        HttpStatus status = HttpStatus.OK;
+        if (range != null) {
+            try {
+                List<HttpRange> ranges = HttpRange.parseRanges(range);
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(size);
+                    end = ranges.get(0).getRangeEnd(size);
+                    status = HttpStatus.PARTIAL_CONTENT;
+                    headers.add(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+                }
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size).build();
+            }
+        }
+
+        logger.debug("Serving segmented file: {} bytes {}-{}", cacheKey, start, end);
+        long from = start;
+        long to = end;
+        loadTracker.recordBytesServed(to - from + 1);
+        // Per-segment hits, misses and bytes by source are recorded by the segmented cache
+        CacheAccessLogFilter.cacheStatus(CdnMetrics.TIER_SEGMENT, "segmented");
+        StreamingResponseBody body = outputStream ->
+                segmentedCache.write(cacheKey, originPath, metadata, from, to, deadline, outputStream);
+        headers.add(HttpHeaders.CONTENT_TYPE, metadata.contentType());
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        headers.add(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setContentLength(to - from + 1);
+        return ResponseEntity.status(status).headers(headers).body(body);
+    }
+
+    // Content-addressed variant: identical bytes under different keys are fetched and stored once
+    private ResponseEntity<?> serveContentAddressed(String series, String type, String filename, String cacheKey,
+                                                    String range, Deadline deadline) {
+        try {
+            Path object = contentStore.lookup(cacheKey);
+            if (object != null) {
+                logger.debug("Serving file from content store: {}", cacheKey);
+                recordHit(CdnMetrics.TIER_CONTENT_STORE, series);
+                ResponseEntity<?> promoted = promoteToMemory(cacheKey, object, filename, series);
+                if (promoted != null) {
+                    return promoted;
+                }
+                return streamFile(object, filename, series, CdnMetrics.SOURCE_CACHE);
+            }
+
+            // Ask the origin for the content hash first; a known hash needs no body transfer
+            String originPath = OriginClient.filePath(series, type, filename);
+            String hash = null;
+            try {
+                hash = ContentAddressedStore.hashFromEtag(
+                        originClient.headWithDigest(originPath, deadline).getHeaders().getETag());
+            } catch (RuntimeException e) {
+                logger.warn("HEAD {} failed, fetching without dedup: {}", originPath, e.getMessage());
+            }
+            if (hash != null && (object = contentStore.lookupByHash(hash)) != null) {
+                contentStore.link(cacheKey, hash);
+                logger.debug("Deduplicated {} onto stored object {}", cacheKey, hash);
+                recordHit(CdnMetrics.TIER_CONTENT_STORE, series);
+                return streamFile(object, filename, series, CdnMetrics.SOURCE_CACHE);
+            }
+
+            recordMiss(CdnMetrics.TIER_CONTENT_STORE, series);
+            ResponseEntity<?> originResponse = fetchFromOriginServer(series, type, filename, range, deadline);
+            if (originResponse.getStatusCode().is2xxSuccessful() && originResponse.getBody() instanceof OriginBody body) {
+                String expectedHash = hash;
+                object = fill(CdnMetrics.TIER_CONTENT_STORE,
+                        () -> contentStore.store(cacheKey, expectedHash, body.getByteArray(), body.sha256()));
+                logger.debug("File cached in content store: {}", cacheKey);
+                return streamFile(object, filename, series, CdnMetrics.SOURCE_ORIGIN);
+            }
+            return originResponse;
+        } catch (ChecksumMismatchException e) {
+            logger.error(e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body("Corrupt transfer from origin");
+        } catch (IOException e) {
+            logger.error("Error caching file: {}", cacheKey, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error caching file");
+        }
+    }
+
+    @PostMapping("/invalidate/{series}/{type}/{filename}")
+    public ResponseEntity<String> invalidateCache(@PathVariable String series,
+                                                  @PathVariable String type,
+                                                  @PathVariable String filename) {
+        String cacheKey = series + "/" + type + "/" + filename;
+        memoryCache.invalidate(cacheKey);
+        boolean cancelled = writeBehind.cancel(cacheKey);
+        if (segmentedCache.isEnabled()) {
+            try {
+                if (segmentedCache.invalidate(cacheKey)) {
+                    logger.info("Segments invalidated for: {}", cacheKey);
+                    return ResponseEntity.ok("Cache invalidated successfully");
+                }
+            } catch (IOException e) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to invalidate cache");
+            }
+        }
+        if (contentStore.isEnabled()) {
+            try {
+                Path object = contentStore.lookup(cacheKey);
+                if (object != null) {
+                    mappedFiles.evict(object);
+                }
+                if (contentStore.release(cacheKey)) {
+                    logger.info("Cache invalidated for: {}", cacheKey);
+                    return ResponseEntity.ok("Cache invalidated successfully");
+                }
+            } catch (IOException e) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to invalidate cache");
+            }
+        }
+        List<Path> cachePaths = volumes.locateAll(series, type, filename);
+        if (!cachePaths.isEmpty()) {
+            try {
+                for (Path cachePath : cachePaths) {
+                    mappedFiles.evict(cachePath);
+                    volumes.run(cachePath, () -> {
+                        integrity.forget(cachePath);
+                        return Files.deleteIfExists(cachePath);  // Invalidate cache
+                    });
+                }
+                logger.info("Cache invalidated for: {}/{}/{}", series, type, filename);
+                return ResponseEntity.ok("Cache invalidated successfully");
+            } catch (IOException e) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to invalidate cache");
+            }
+        }
+        if (cancelled) {
+            logger.info("Pending cache write cancelled for: {}", cacheKey);
+            return ResponseEntity.ok("Cache invalidated successfully");
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found in cache");
+    }
+
+    // One page of a directory listing (limit, cursor, prefix, sort, order as on the origin),
+    // relayed as the JSON bytes the origin wrote instead of being parsed and re-serialised.
+    // Carries the origin's ETag, or a weak one over the page, so Spring can answer a matching
+    // If-None-Match with 304.
+    // The limit defaults to cdn.listing.page-size and is capped at cdn.listing.max-page-size;
+    // further pages follow X-Next-Cursor.
+    @GetMapping("/list-files/{series}/{type}")
+    public ResponseEntity<?> listFiles(@PathVariable String series, @PathVariable String type,
+                                       @RequestParam(required = false) Integer limit,
+                                       @RequestParam(required = false) String cursor,
+                                       @RequestParam(required = false) String prefix,
+                                       @RequestParam(defaultValue = "name") String sort,
+                                       @RequestParam(defaultValue = "asc") String order,
+                                       @RequestHeader(value = Deadline.HEADER, required = false) String timeout) {
+        int pageSize = limit == null || limit <= 0 ? listingPageSize : Math.min(limit, listingMaxPageSize);
+        // Every value is encoded whole, so a cursor or prefix holding '&', '=', '+' or '#' reaches
+        // the origin intact instead of adding or cutting parameters
+        Map<String, Object> values = new HashMap<>(
+                Map.of("series", series, "type", type, "sort", sort, "order", order));
+        UriComponentsBuilder uri = UriComponentsBuilder.fromPath("/list-files/{series}/{type}")
+                .queryParam("limit", pageSize)
+                .queryParam("sort", "{sort}")
+                .queryParam("order", "{order}");
+        if (cursor != null && !cursor.isEmpty()) {
+            uri.queryParam("cursor", "{cursor}");
+            values.put("cursor", cursor);
+        }
+        if (prefix != null && !prefix.isEmpty()) {
+            uri.queryParam("prefix", "{prefix}");
+            values.put("prefix", prefix);
+        }
+        String originPath = uri.encode().buildAndExpand(values).toUriString();
+        logger.debug("Fetching file list from Origin: {}", originPath);
+        if (!admit(LoadShedder.MISSES)) {
+            return overloaded(Collections.emptyList());
+        }
+
+        try {
+            ResponseEntity<byte[]> response = originClient.get(originPath, byte[].class,
+                    originClient.deadline(timeout));
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            for (String header : List.of(TOTAL_COUNT, NEXT_CURSOR)) {
+                String value = response.getHeaders().getFirst(header);
+                if (value != null) {
+                    headers.set(header, value);
+                }
+            }
+            if (response.getStatusCode().is2xxSuccessful()) {
+                String etag = response.getHeaders().getETag();
+                headers.setETag(etag != null ? etag : pageEtag(response.getBody(), headers.getFirst(NEXT_CURSOR)));
+            }
+            return ResponseEntity.status(response.getStatusCode()).headers(headers).body(response.getBody());
+        } catch (HttpStatusCodeException e) {
+            logger.error("Origin Server returned {} for file list {}", e.getStatusCode(), originPath);
+            return ResponseEntity.status(e.getStatusCode()).body(Collections.emptyList());
+        } catch (UpstreamUnavailableException e) {
+            logger.error("Origin Server unavailable for file list: {}", e.getMessage());
+            return ResponseEntity.status(unavailableStatus(e)).body(Collections.emptyList());
+        } catch (Exception e) {
+            logger.error("Error fetching file list from Origin Server: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Collections.emptyList());
+        }
+    }
+
+    // Weak validator over a page's bytes and where it continues, for origins that send none
+    private static String pageEtag(byte[] body, String nextCursor) {
+        int hash = 31 * Arrays.hashCode(body) + Objects.hashCode(nextCursor);
+        return "W/\"" + Integer.toHexString(hash) + "-" + (body == null ? 0 : body.length) + "\"";
+    }
+
+    // Every file name of a directory, read from the origin one full-size page at a time
+    private List<String> listAllFiles(String series, String type, Deadline deadline) {
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do {
+            UriComponentsBuilder uri = UriComponentsBuilder.fromPath("/list-files/{series}/{type}")
+                    .queryParam("limit", listingMaxPageSize);
+            if (cursor != null) {
+                uri.queryParam("cursor", "{cursor}");
+            }
+            String originPath = uri.encode().buildAndExpand(series, type, cursor).toUriString();
+            ResponseEntity<String[]> page = originClient.get(originPath, String[].class, deadline);
+            if (page.getBody() != null) {
+                names.addAll(Arrays.asList(page.getBody()));
+            }
+            cursor = page.getHeaders().getFirst(NEXT_CURSOR);
+        } while (cursor != null);
+        return names;
+    }
+
+    // Whole series/type as one zip archive, in the order the origin lists the files
+    @GetMapping("/bulk/{series}/{type}")
+    public ResponseEntity<?> bulkByPrefix(@PathVariable String series, @PathVariable String type,
+                                          @RequestHeader(value = Deadline.HEADER, required = false) String timeout) {
+        // A whole archive runs against the miss budget, however many of its files are cached
+        if (!admit(LoadShedder.MISSES)) {
+            return overloaded("Node overloaded, retry later");
+        }
+        List<String> filenames;
+        try {
+            filenames = listAllFiles(series, type, originClient.deadline(timeout));
+        } catch (HttpStatusCodeException e) {
+            return ResponseEntity.status(e.getStatusCode()).body("Failed to list files");
+        } catch (UpstreamUnavailableException e) {
+            return ResponseEntity.status(unavailableStatus(e)).body("Failed to list files");
+        }
+        String decodedSeries = URLDecoder.decode(series, java.nio.charset.StandardCharsets.UTF_8);
+        String decodedType = URLDecoder.decode(type, java.nio.charset.StandardCharsets.UTF_8);
+        List<String> keys = new ArrayList<>();
+        for (String filename : filenames) {
+            keys.add(decodedSeries + "/" + decodedType + "/" + filename);
+        }
+        return bulkResponse(keys, timeout, decodedSeries + "-" + decodedType + ".zip");
+    }
+
+    // Explicit list of "series/type/filename" keys as one zip archive, in request order
+    @PostMapping("/bulk")
+    public ResponseEntity<?> bulk(@RequestBody List<String> keys,
+                                  @RequestHeader(value = Deadline.HEADER, required = false) String timeout) {
+        if (keys.size() > bulkMaxKeys) {
+            return ResponseEntity.badRequest().body("At most " + bulkMaxKeys + " keys per archive");
+        }
+        if (!admit(LoadShedder.MISSES)) {
+            return overloaded("Node overloaded, retry later");
+        }
+        return bulkResponse(keys, timeout, "bulk.zip");
+    }
+
+    private ResponseEntity<?> bulkResponse(List<String> keys, String timeout, String archiveName) {
+        logger.info("Bulk download of {} files", keys.size());
+        loadTracker.beginDownload();
+        RequestCompletion.whenComplete(loadTracker::endDownload);
+        StreamingResponseBody body = outputStream ->
+                bulkStreamer.write(keys, key -> loadBulkEntry(key, originClient.deadline(timeout)), outputStream);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, "application/zip")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archiveName + "\"")
+                .body(body);
+    }
+
+    // One bulk entry through the normal cache path, with the bytes it pins until written;
+    // null if it cannot be served
+    private BulkArchiveStreamer.Content loadBulkEntry(String key, Deadline deadline) {
+        String[] parts = BulkArchiveStreamer.split(key);
+        if (parts == null) {
+            logger.warn("Ignoring malformed bulk key: {}", key);
+            return null;
+        }
+        ResponseEntity<?> response = serveFile(parts[0], parts[1], parts[2], null, deadline);
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            return null;
+        }
+        if (response.getBody() instanceof ReleasableBody pinned) {
+            return new BulkArchiveStreamer.Content(pinned, response.getHeaders().getContentLength());
+        }
+        if (response.getBody() instanceof StreamingResponseBody streamed) {
+            return new BulkArchiveStreamer.Content(streamed, 0);
+        }
+        if (response.getBody() instanceof ByteArrayResource resource) {
+            byte[] fileData = resource.getByteArray();
+            return new BulkArchiveStreamer.Content(outputStream -> outputStream.write(fileData), fileData.length);
+        }
+        return null;
+    }
+
+    // Bytes read from the origin, with the SHA-256 taken while they streamed in
+    private static final class OriginBody extends ByteArrayResource {
+        private final String sha256;
+
+        private OriginBody(byte[] data, String sha256) {
+            super(data);
+            this.sha256 = sha256;
+        }
+
+        private String sha256() {
+            return sha256;
+        }
+    }
+}
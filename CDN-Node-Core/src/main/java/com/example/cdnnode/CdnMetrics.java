@@ -0,0 +1,216 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Micrometer meters for the cache, origin and streaming paths. The node tag is added
+// to every meter through management.metrics.tags.node; series tags are per call. The series
+// comes from the request path, so only series the origin has answered with a 2xx (or that
+// are already cached) are tagged by name, up to cdn.metrics.max-series; the rest are
+// "other", and made-up paths cannot create meters.
+@Component
+public class CdnMetrics {
+    public static final String TIER_MEMORY = "memory";
+    public static final String TIER_DISK = "disk";
+    public static final String TIER_CONTENT_STORE = "content-store";
+    public static final String TIER_SEGMENT = "segment";
+    public static final String TIER_MAPPED = "mapped";
+    public static final String TIER_PENDING = "write-behind";
+
+    public static final String SOURCE_CACHE = "cache";
+    public static final String SOURCE_ORIGIN = "origin";
+    public static final String OTHER_SERIES = "other";
+
+    private final MeterRegistry registry;
+    private final Set<String> knownSeries = ConcurrentHashMap.newKeySet();
+
+    @Value("${cdn.metrics.max-series:200}")
+    private int maxSeries;
+
+    public CdnMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // The series is the first element of a "series/type/filename" key
+    public static String seriesOf(String key) {
+        int slash = key.indexOf('/');
+        return slash < 0 ? key : key.substring(0, slash);
+    }
+
+    // Lets the series be tagged by name from now on
+    public void confirmSeries(String series) {
+        if (knownSeries.size() < maxSeries) {
+            knownSeries.add(series);
+        }
+    }
+
+    private String seriesTag(String series) {
+        return knownSeries.contains(series) ? series : OTHER_SERIES;
+    }
+
+    // A hit is on content the origin once served, which confirms its series
+    public void hit(String tier, String series) {
+        confirmSeries(series);
+        lookup("hit", tier, series);
+    }
+
+    public void miss(String tier, String series) {
+        lookup("miss", tier, series);
+    }
+
+    // A miss that joined a fill already in progress instead of going to the origin
+    public void coalesced(String tier, String series) {
+        lookup("coalesced", tier, series);
+    }
+
+    private void lookup(String result, String tier, String series) {
+        Counter.builder("cdn.cache.requests")
+                .description("Cache lookups by tier and result")
+                .tag("result", result)
+                .tag("tier", tier)
+                .tag("series", seriesTag(series))
+                .register(registry)
+                .increment();
+    }
+
+    public void bytesServed(String source, String series, long bytes) {
+        Counter.builder("cdn.bytes.served")
+                .description("Bytes sent to clients, by where they came from")
+                .baseUnit("bytes")
+                .tag("source", source)
+                .tag("series", seriesTag(series))
+                .register(registry)
+                .increment(bytes);
+    }
+
+    // Total bytes served so far per named series, from cache and origin alike
+    public Map<String, Double> bytesServedBySeries() {
+        Map<String, Double> totals = new HashMap<>();
+        for (Counter counter : registry.find("cdn.bytes.served").counters()) {
+            String series = counter.getId().getTag("series");
+            if (series != null && !series.equals(OTHER_SERIES)) {
+                totals.merge(series, counter.count(), Double::sum);
+            }
+        }
+        return totals;
+    }
+
+    public void originFetch(String method, String outcome, long nanos) {
+        Timer.builder("cdn.origin.fetch")
+                .description("Single origin request attempts")
+                .tag("method", method)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void originBytes(long bytes) {
+        Counter.builder("cdn.origin.bytes")
+                .description("Bytes received from the origin")
+                .baseUnit("bytes")
+                .register(registry)
+                .increment(bytes);
+    }
+
+    public void hedge() {
+        Counter.builder("cdn.origin.hedges")
+                .description("Hedged origin requests sent after the p95 delay")
+                .register(registry)
+                .increment();
+    }
+
+    public void concurrency(String budget, Supplier<Number> limit, Supplier<Number> inFlight) {
+        Gauge.builder("cdn.concurrency.limit", limit)
+                .description("Adaptive concurrency limit per serving budget")
+                .tag("budget", budget)
+                .register(registry);
+        Gauge.builder("cdn.concurrency.in-flight", inFlight)
+                .description("Requests holding a permit per serving budget")
+                .tag("budget", budget)
+                .register(registry);
+    }
+
+    public void shed(String budget) {
+        Counter.builder("cdn.requests.shed")
+                .description("Requests rejected with 503 because the budget was at its limit")
+                .tag("budget", budget)
+                .register(registry)
+                .increment();
+    }
+
+    public void rateLimited() {
+        Counter.builder("cdn.egress.rejected")
+                .description("Downloads refused with 429 by the per-client request limit")
+                .register(registry)
+                .increment();
+    }
+
+    public void cacheFill(String tier, long nanos) {
+        Timer.builder("cdn.cache.fill")
+                .description("Time to persist a fetched object or segment")
+                .tag("tier", tier)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Outcome of a checksum comparison; check is fill, hit or scrub
+    public void integrity(String check, String result) {
+        Counter.builder("cdn.cache.integrity")
+                .description("Cache integrity checks by where they ran and their result")
+                .tag("check", check)
+                .tag("result", result)
+                .register(registry)
+                .increment();
+    }
+
+    public void writeBehind(String outcome) {
+        Counter.builder("cdn.cache.write-behind")
+                .description("Disk fills handed to the write-behind queue, by outcome")
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    public void accessTrace(String outcome, long records) {
+        Counter.builder("cdn.trace.records")
+                .description("Access trace records written or dropped")
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment(records);
+    }
+
+    public void eviction(String tier) {
+        Counter.builder("cdn.cache.evictions")
+                .description("Objects or segments removed from a tier")
+                .tag("tier", tier)
+                .register(registry)
+                .increment();
+    }
+
+    public void occupancy(String tier, Supplier<Number> bytes) {
+        Gauge.builder("cdn.cache.occupancy", bytes)
+                .description("Bytes held by a cache tier")
+                .baseUnit("bytes")
+                .tag("tier", tier)
+                .register(registry);
+    }
+
+    public void gauge(String name, String description, Supplier<Number> value) {
+        Gauge.builder(name, value)
+                .description(description)
+                .register(registry);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.cdnnode;
+
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@SpringBootApplication
+@EnableDiscoveryClient
+@EnableScheduling
+public class CdnNodeApplication {
+
+    public static void main(String[] args) {
+        SpringApplication.run(CdnNodeApplication.class, args);
+    }
+
+    @Bean
+    public HttpMessageConverter<byte[]> createByteArrayHttpMessageConverter() {
+        return new ByteArrayHttpMessageConverter();
+    }
+
+    // h2c (server.http2.enabled): lets one multiplexed connection carry as many concurrent
+    // transfers as would otherwise be spread over parallel HTTP/1.1 connections
+    @Bean
+    public TomcatConnectorCustomizer http2StreamLimits(
+            @Value("${http2.max-concurrent-streams:200}") int maxConcurrentStreams) {
+        return connector -> {
+            for (UpgradeProtocol protocol : connector.findUpgradeProtocols()) {
+                if (protocol instanceof Http2Protocol http2) {
+                    http2.setMaxConcurrentStreams(maxConcurrentStreams);
+                    http2.setMaxConcurrentStreamExecution(maxConcurrentStreams);
+                }
+            }
+        };
+    }
+}
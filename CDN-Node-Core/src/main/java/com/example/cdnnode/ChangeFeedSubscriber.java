@@ -0,0 +1,284 @@
+package com.example.cdnnode;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Follows the origin's change feed (/origin/changes, long-polled) so that changed and deleted
+// files leave every cache tier as soon as the origin notices, instead of being served until
+// revalidation. Optionally fetches added or changed files of the node's hottest series over
+// loopback, so the first client request for a new episode is already a hit.
+// When it starts following, and whenever the feed resets, the changes it missed are unknown, so
+// everything cached is first compared with the origin's listings and what changed is dropped.
+@Component
+public class ChangeFeedSubscriber {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeFeedSubscriber.class);
+
+    public record Change(long offset, String type, String key, long size, long lastModified) {
+    }
+
+    public record Batch(String epoch, long next, boolean reset, List<Change> changes) {
+    }
+
+    // One file of an origin /list-entries listing
+    public record Entry(String name, long size, long lastModified, String mediaType, String sha256) {
+    }
+
+    private final OriginClient originClient;
+    private final CdnController cdnController;
+    private final CdnMetrics metrics;
+    private final Environment environment;
+    // Decayed bytes served per series, sampled from the metrics, and the totals last seen
+    private final Map<String, Double> heat = new ConcurrentHashMap<>();
+    private final Map<String, Double> lastServed = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor prefetcher;
+    private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+    private volatile boolean running;
+    private Thread thread;
+
+    @Value("${cdn.changes.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cdn.changes.wait-ms:20000}")
+    private long waitMs;
+
+    @Value("${cdn.changes.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${cdn.changes.retry-ms:5000}")
+    private long retryMs;
+
+    @Value("${cdn.changes.prefetch.enabled:false}")
+    private boolean prefetchEnabled;
+
+    @Value("${cdn.changes.prefetch.hot-series:10}")
+    private int hotSeries;
+
+    @Value("${cdn.changes.prefetch.max-file-mb:256}")
+    private long prefetchMaxFileMb;
+
+    public ChangeFeedSubscriber(OriginClient originClient, CdnController cdnController, CdnMetrics metrics,
+                                Environment environment,
+                                @Value("${cdn.changes.prefetch.queue-size:1000}") int prefetchQueueSize) {
+        this.originClient = originClient;
+        this.cdnController = cdnController;
+        this.metrics = metrics;
+        this.environment = environment;
+        // One loopback fetch at a time; when the queue is full further prefetches are dropped
+        this.prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(prefetchQueueSize), runnable -> {
+                    Thread prefetchThread = new Thread(runnable, "change-prefetch");
+                    prefetchThread.setDaemon(true);
+                    return prefetchThread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    // Started once the node serves traffic, so loopback prefetches have somewhere to go
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::follow, "change-feed");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void follow() {
+        String epoch = "";
+        long after = 0;
+        while (running) {
+            try {
+                String path = UriComponentsBuilder.fromPath("/changes")
+                        .queryParam("epoch", "{epoch}")
+                        .queryParam("after", after)
+                        .queryParam("limit", batchSize)
+                        .queryParam("waitMs", waitMs)
+                        .encode().buildAndExpand(epoch).toUriString();
+                ResponseEntity<Batch> response = originClient.longPoll(path, Batch.class);
+                Batch batch = response.getBody();
+                if (batch == null) {
+                    continue;
+                }
+                if (batch.reset() && !epoch.isEmpty()) {
+                    // Origin restarted, another replica answered, or this node fell too far behind
+                    logger.warn("Change feed reset after offset {} of epoch {}; revalidating the cache",
+                            after, epoch);
+                }
+                if (batch.reset() || epoch.isEmpty()) {
+                    // Not resumed until this completes: if the origin fails midway, the next poll
+                    // resets again and the whole pass is repeated
+                    revalidate();
+                }
+                for (Change change : batch.changes()) {
+                    apply(change);
+                }
+                epoch = batch.epoch();
+                after = batch.next();
+            } catch (RuntimeException e) {
+                logger.warn("Change feed poll failed: {}", e.getMessage());
+                try {
+                    Thread.sleep(retryMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Drops every cached object whose directory listing at the origin no longer shows it, or shows
+    // it with a different hash or modified after it was cached
+    private void revalidate() {
+        long start = System.nanoTime();
+        Map<String, List<String>> byDirectory = new HashMap<>();
+        for (String key : cdnController.cachedKeys()) {
+            String[] parts = key.split("/");
+            if (parts.length == 3) {
+                byDirectory.computeIfAbsent(parts[0] + "/" + parts[1], directory -> new ArrayList<>()).add(parts[2]);
+            }
+        }
+        int dropped = 0;
+        for (Map.Entry<String, List<String>> directory : byDirectory.entrySet()) {
+            String[] parts = directory.getKey().split("/");
+            Map<String, Entry> listed = listing(parts[0], parts[1]);
+            for (String filename : directory.getValue()) {
+                if (!isCurrent(cdnController.cachedVersion(parts[0], parts[1], filename), listed.get(filename))
+                        && cdnController.invalidateCache(parts[0], parts[1], filename)
+                        .getStatusCode().is2xxSuccessful()) {
+                    dropped++;
+                }
+            }
+        }
+        logger.info("Revalidated {} cached directories in {} ms, dropped {} files", byDirectory.size(),
+                (System.nanoTime() - start) / 1_000_000, dropped);
+    }
+
+    // The origin's entries for one directory by name; empty when the directory is gone
+    private Map<String, Entry> listing(String series, String type) {
+        String path = UriComponentsBuilder.fromPath("/list-entries/{series}/{type}").encode()
+                .buildAndExpand(URLEncoder.encode(series, StandardCharsets.UTF_8),
+                        URLEncoder.encode(type, StandardCharsets.UTF_8)).toUriString();
+        Map<String, Entry> entries = new HashMap<>();
+        try {
+            Entry[] body = originClient.get(path, Entry[].class, originClient.deadline(null)).getBody();
+            if (body != null) {
+                for (Entry entry : body) {
+                    entries.put(entry.name(), entry);
+                }
+            }
+        } catch (HttpClientErrorException.NotFound e) {
+            logger.debug("Directory {}/{} is gone from the origin", series, type);
+        }
+        return entries;
+    }
+
+    // Same hash when both sides know one, else not modified at the origin since it was cached;
+    // compared to the second, the precision of Last-Modified
+    static boolean isCurrent(CdnController.CachedVersion cached, Entry origin) {
+        if (origin == null) {
+            return false;
+        }
+        if (cached.sha256() != null && origin.sha256() != null) {
+            return cached.sha256().equals(origin.sha256());
+        }
+        return cached.lastModified() >= 0 && origin.lastModified() / 1000 <= cached.lastModified() / 1000;
+    }
+
+    private void apply(Change change) {
+        String[] parts = change.key().split("/");
+        if (parts.length != 3) {
+            return;
+        }
+        String series = parts[0];
+        if (!"added".equals(change.type())) {
+            ResponseEntity<String> result = cdnController.invalidateCache(series, parts[1], parts[2]);
+            if (result.getStatusCode().is2xxSuccessful()) {
+                logger.info("Dropped {} after origin reported it {}", change.key(), change.type());
+            }
+        }
+        if (!"deleted".equals(change.type()) && prefetchEnabled && isHot(series)
+                && change.size() <= prefetchMaxFileMb * 1024 * 1024) {
+            prefetcher.execute(() -> prefetch(parts));
+        }
+    }
+
+    private void prefetch(String[] parts) {
+        StringBuilder path = new StringBuilder("/cdn");
+        for (String part : parts) {
+            path.append('/').append(URLEncoder.encode(part, StandardCharsets.UTF_8).replace("+", "%20"));
+        }
+        HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://127.0.0.1:" + environment.getProperty("local.server.port") + path))
+                .timeout(Duration.ofMinutes(5))
+                .header("X-Client-Id", "prefetch")
+                .build();
+        try {
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            logger.debug("Prefetched {} ({})", path, response.statusCode());
+        } catch (IOException e) {
+            logger.debug("Prefetch of {} failed: {}", path, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Hot means among the hot-series series with the most bytes served lately
+    private boolean isHot(String series) {
+        Double own = heat.get(series);
+        if (own == null || own <= 0) {
+            return false;
+        }
+        return heat.values().stream().filter(other -> other > own).count() < hotSeries;
+    }
+
+    // Halves the heat of every series each interval and adds what it served since the last one
+    @Scheduled(fixedDelayString = "${cdn.changes.prefetch.heat-interval-ms:60000}")
+    public void sampleHeat() {
+        if (!prefetchEnabled) {
+            return;
+        }
+        for (Map.Entry<String, Double> served : metrics.bytesServedBySeries().entrySet()) {
+            double previous = lastServed.getOrDefault(served.getKey(), 0.0);
+            lastServed.put(served.getKey(), served.getValue());
+            heat.merge(served.getKey(), served.getValue() - previous, (old, delta) -> old / 2 + delta);
+        }
+        heat.entrySet().removeIf(entry -> entry.getValue() < 1);
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        prefetcher.shutdownNow();
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.cdnnode;
+
+import java.io.IOException;
+
+// Thrown when bytes received from the origin do not hash to the digest it sent with them
+public class ChecksumMismatchException extends IOException {
+
+    public ChecksumMismatchException(String key, String expected, String actual) {
+        super("Checksum mismatch for " + key + ": origin sent " + expected + ", received " + actual);
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.cdnnode;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Optional deduplicating cache layout. Bytes live once under .objects/<ab>/<sha256>;
+// each series/type/filename key is a small ref file under .refs holding the hash.
+// An object is deleted when the last key that references it is released.
+@Component
+public class ContentAddressedStore {
+    private static final Logger logger = LoggerFactory.getLogger(ContentAddressedStore.class);
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    @Value("${cdn.cache.path}")
+    private String cdnCacheDir;
+
+    @Value("${cdn.cache.content-addressed:false}")
+    private boolean enabled;
+
+    // Guarded by 'this'; both maps are rebuilt from the ref files on startup
+    private final Map<String, String> keyToHash = new HashMap<>();
+    private final Map<String, Integer> refCounts = new HashMap<>();
+    private final CdnMetrics metrics;
+    private long storedBytes;
+
+    private Path objectsDir;
+    private Path refsDir;
+
+    public ContentAddressedStore(CdnMetrics metrics) {
+        this.metrics = metrics;
+        metrics.occupancy(CdnMetrics.TIER_CONTENT_STORE, this::storedBytes);
+        metrics.gauge("cdn.cache.objects", "Distinct objects in the content-addressed store", this::objectCount);
+    }
+
+    @PostConstruct
+    void loadIndex() throws IOException {
+        objectsDir = Paths.get(cdnCacheDir, ".objects");
+        refsDir = Paths.get(cdnCacheDir, ".refs");
+        if (!enabled || !Files.isDirectory(refsDir)) {
+            return;
+        }
+        try (Stream<Path> refs = Files.walk(refsDir)) {
+            refs.filter(Files::isRegularFile).forEach(ref -> {
+                try {
+                    String hash = Files.readString(ref, StandardCharsets.UTF_8).trim();
+                    String key = refsDir.relativize(ref).toString().replace('\\', '/');
+                    synchronized (this) {
+                        keyToHash.put(key, hash);
+                        refCounts.merge(hash, 1, Integer::sum);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable cache ref {}: {}", ref, e.getMessage());
+                }
+            });
+        }
+        synchronized (this) {
+            for (String hash : refCounts.keySet()) {
+                storedBytes += objectPath(hash).toFile().length();
+            }
+        }
+        logger.info("Loaded {} content-addressed keys over {} objects", keyToHash.size(), refCounts.size());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Extracts a content hash from an origin ETag, or null if it is not a SHA-256
+    public static String hashFromEtag(String etag) {
+        if (etag == null) {
+            return null;
+        }
+        String value = etag.startsWith("W/") ? etag.substring(2) : etag;
+        value = value.replace("\"", "").toLowerCase();
+        return SHA256_HEX.matcher(value).matches() ? value : null;
+    }
+
+    // Object file for a key, or null if the key is unknown or its object is gone
+    public Path lookup(String key) {
+        String hash;
+        synchronized (this) {
+            hash = keyToHash.get(key);
+        }
+        return hash == null ? null : lookupByHash(hash);
+    }
+
+    // Hash of the content a key points at, or null
+    public synchronized String hashOf(String key) {
+        return keyToHash.get(key);
+    }
+
+    public Path lookupByHash(String hash) {
+        Path object = objectPath(hash);
+        return Files.isRegularFile(object) ? object : null;
+    }
+
+    // Stores the bytes (once per distinct content) and points the key at them
+    public Path store(String key, String expectedHash, byte[] data) throws IOException {
+        return store(key, expectedHash, data, sha256(data));
+    }
+
+    // As above, for bytes already hashed while they were read
+    public Path store(String key, String expectedHash, byte[] data, String hash) throws IOException {
+        if (expectedHash != null && !expectedHash.equals(hash)) {
+            throw new ChecksumMismatchException(key, expectedHash, hash);
+        }
+        Path object = objectPath(hash);
+        if (!Files.isRegularFile(object)) {
+            Files.createDirectories(object.getParent());
+            Path temp = Files.createTempFile(object.getParent(), hash, ".tmp");
+            Files.write(temp, data);
+            Files.move(temp, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                storedBytes += data.length;
+            }
+        }
+        link(key, hash);
+        return object;
+    }
+
+    // Points the key at an object already in the store
+    public synchronized void link(String key, String hash) throws IOException {
+        String previous = keyToHash.get(key);
+        Path ref = refsDir.resolve(key);
+        if (hash.equals(previous)) {
+            // Refilled with the same content; the ref's mtime still records when it was checked
+            Files.setLastModifiedTime(ref, FileTime.fromMillis(System.currentTimeMillis()));
+            return;
+        }
+        Files.createDirectories(ref.getParent());
+        Files.writeString(ref, hash, StandardCharsets.UTF_8);
+        keyToHash.put(key, hash);
+        refCounts.merge(hash, 1, Integer::sum);
+        if (previous != null) {
+            dereference(previous);
+        }
+    }
+
+    // When the key was last filled, from its ref file; -1 when unknown
+    public long linkedAt(String key) {
+        try {
+            return Files.getLastModifiedTime(refsDir.resolve(key)).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public synchronized Set<String> keys() {
+        return Set.copyOf(keyToHash.keySet());
+    }
+
+    // Drops the key; the object goes with it once nothing else references it
+    public synchronized boolean release(String key) throws IOException {
+        String hash = keyToHash.remove(key);
+        if (hash == null) {
+            return false;
+        }
+        Files.deleteIfExists(refsDir.resolve(key));
+        dereference(hash);
+        return true;
+    }
+
+    private void dereference(String hash) throws IOException {
+        Integer remaining = refCounts.merge(hash, -1, Integer::sum);
+        if (remaining == null || remaining <= 0) {
+            refCounts.remove(hash);
+            Path object = objectPath(hash);
+            long size = object.toFile().length();
+            if (Files.deleteIfExists(object)) {
+                storedBytes -= size;
+                metrics.eviction(CdnMetrics.TIER_CONTENT_STORE);
+            }
+            logger.info("Evicted unreferenced object {}", hash);
+        }
+    }
+
+    private synchronized long storedBytes() {
+        return storedBytes;
+    }
+
+    private synchronized int objectCount() {
+        return refCounts.size();
+    }
+
+    private Path objectPath(String hash) {
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
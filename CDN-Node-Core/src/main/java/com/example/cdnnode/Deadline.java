@@ -0,0 +1,38 @@
+package com.example.cdnnode;
+
+// Time budget for a single request, carried between Client, CDN node and Origin
+// in the X-Request-Timeout-Ms header as the number of milliseconds left.
+public final class Deadline {
+    public static final String HEADER = "X-Request-Timeout-Ms";
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline afterMillis(long millis) {
+        return new Deadline(System.nanoTime() + millis * 1_000_000L);
+    }
+
+    // Use the caller's budget when present, capped by our own default
+    public static Deadline fromHeader(String headerValue, long defaultMillis) {
+        if (headerValue != null && !headerValue.isBlank()) {
+            try {
+                long requested = Long.parseLong(headerValue.trim());
+                return afterMillis(Math.max(0, Math.min(requested, defaultMillis)));
+            } catch (NumberFormatException ignored) {
+                // fall through to the default budget
+            }
+        }
+        return afterMillis(defaultMillis);
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000L);
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() >= expiresAtNanos;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.cdnnode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Periodically sizes the whole-file disk tier on all volumes (everything outside the
+// dot-directories used by the content-addressed and segmented stores) for the occupancy gauge.
+@Component
+public class DiskCacheMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(DiskCacheMonitor.class);
+
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final CacheVolumes volumes;
+
+    public DiskCacheMonitor(CdnMetrics metrics, CacheVolumes volumes) {
+        this.volumes = volumes;
+        metrics.occupancy(CdnMetrics.TIER_DISK, diskBytes::get);
+    }
+
+    @Scheduled(fixedDelayString = "${cdn.metrics.disk-scan-interval-ms:60000}")
+    public void scan() {
+        long total = 0;
+        for (Path root : volumes.roots()) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (Stream<Path> entries = Files.list(root)) {
+                total += entries
+                        .filter(entry -> !entry.getFileName().toString().startsWith("."))
+                        .mapToLong(DiskCacheMonitor::sizeOf)
+                        .sum();
+            } catch (IOException | UncheckedIOException e) {
+                logger.warn("Failed to size disk cache {}: {}", root, e.getMessage());
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    private static long sizeOf(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.cdnnode;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// GET /actuator/egress shows the current limits; POST with any of the fields in a JSON body
+// changes them at runtime, e.g. {"globalBps": 800000000, "perClientBps": 50000000}. Anyone who
+// can reach it can lift the limits, so it is excluded from web exposure by default; expose it
+// only on a management port that clients cannot reach (management.server.port/address).
+@Component
+@Endpoint(id = "egress")
+public class EgressEndpoint {
+    private final EgressScheduler scheduler;
+
+    public EgressEndpoint(EgressScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @ReadOperation
+    public Map<String, Object> limits() {
+        return scheduler.limits();
+    }
+
+    @WriteOperation
+    public Map<String, Object> update(@Nullable Long globalBps, @Nullable Long perClientBps,
+                                      @Nullable Long smallObjectKb, @Nullable Long perClientRequestsPerSecond) {
+        scheduler.update(globalBps, perClientBps, smallObjectKb, perClientRequestsPerSecond);
+        return scheduler.limits();
+    }
+}
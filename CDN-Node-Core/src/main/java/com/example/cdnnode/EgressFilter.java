@@ -0,0 +1,210 @@
+package com.example.cdnnode;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Applies EgressScheduler to CDN responses: downloads past the per-client request rate get
+// 429, and every response body is written through a shaping stream. Catalog calls
+// (/cdn/list-*) are never rate limited. Clients are told apart by remote address; the
+// client header is believed only when the request comes from a trusted proxy, since anyone
+// else could pick a fresh identity per request.
+@Component
+public class EgressFilter extends OncePerRequestFilter {
+    private static final int SHAPING_QUANTUM = 64 * 1024;
+
+    // An address, or a range of them in CIDR notation
+    private record Subnet(byte[] address, int prefixLength) {
+        static Subnet parse(String spec) {
+            int slash = spec.indexOf('/');
+            try {
+                byte[] address = InetAddress.getByName(slash < 0 ? spec : spec.substring(0, slash)).getAddress();
+                int prefixLength = slash < 0 ? address.length * 8 : Integer.parseInt(spec.substring(slash + 1));
+                if (prefixLength < 0 || prefixLength > address.length * 8) {
+                    throw new IllegalArgumentException("Bad prefix length in trusted proxy " + spec);
+                }
+                return new Subnet(address, prefixLength);
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Bad trusted proxy address " + spec, e);
+            }
+        }
+
+        boolean contains(byte[] candidate) {
+            if (candidate.length != address.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (candidate[i] != address[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = prefixLength % 8;
+            if (remainingBits == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - remainingBits);
+            return (candidate[fullBytes] & mask) == (address[fullBytes] & mask);
+        }
+    }
+
+    private final EgressScheduler scheduler;
+    private final List<Subnet> trustedProxies;
+
+    // Identifies a client by this header when a trusted proxy sent it, otherwise by remote address
+    @Value("${cdn.egress.client-header:X-Client-Id}")
+    private String clientHeader;
+
+    public EgressFilter(EgressScheduler scheduler,
+                        @Value("${cdn.egress.trusted-proxies:127.0.0.1,::1}") String[] trustedProxies) {
+        this.scheduler = scheduler;
+        this.trustedProxies = Arrays.stream(trustedProxies)
+                .map(String::trim)
+                .filter(spec -> !spec.isEmpty())
+                .map(Subnet::parse)
+                .toList();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/cdn/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String client = clientOf(request);
+        if (!request.getRequestURI().startsWith("/cdn/list-")) {
+            long waitNanos = scheduler.admitRequest(client);
+            if (waitNanos > 0) {
+                response.setHeader(HttpHeaders.RETRY_AFTER,
+                        String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1)));
+                response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Request rate limit exceeded");
+                return;
+            }
+        }
+        chain.doFilter(request, new ShapedResponse(response, client));
+    }
+
+    private String clientOf(HttpServletRequest request) {
+        String remoteAddress = request.getRemoteAddr();
+        String header = request.getHeader(clientHeader);
+        if (header == null || header.isBlank() || !isTrustedProxy(remoteAddress)) {
+            return remoteAddress;
+        }
+        return header;
+    }
+
+    private boolean isTrustedProxy(String remoteAddress) {
+        if (trustedProxies.isEmpty()) {
+            return false;
+        }
+        byte[] address;
+        try {
+            // The servlet container gives a literal address, so this does not resolve anything
+            address = InetAddress.getByName(remoteAddress).getAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        for (Subnet subnet : trustedProxies) {
+            if (subnet.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class ShapedResponse extends HttpServletResponseWrapper {
+        private final String client;
+        private ShapedOutputStream outputStream;
+
+        private ShapedResponse(HttpServletResponse response, String client) {
+            super(response);
+            this.client = client;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new ShapedOutputStream(super.getOutputStream(), client);
+            }
+            return outputStream;
+        }
+    }
+
+    private final class ShapedOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final String client;
+        private long written;
+
+        private ShapedOutputStream(ServletOutputStream delegate, String client) {
+            this.delegate = delegate;
+            this.client = client;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            pace(1);
+            delegate.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int quantum = Math.min(len, SHAPING_QUANTUM);
+                pace(quantum);
+                delegate.write(b, off, quantum);
+                off += quantum;
+                len -= quantum;
+            }
+        }
+
+        // Unshaped up to the small-object threshold, shaped after it
+        private void pace(int bytes) throws IOException {
+            long unshaped = Math.max(0, Math.min(bytes, scheduler.smallObjectBytes() - written));
+            if (unshaped > 0) {
+                scheduler.sendUnshaped(unshaped);
+            }
+            if (bytes > unshaped) {
+                scheduler.sendShaped(client, bytes - unshaped);
+            }
+            written += bytes;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
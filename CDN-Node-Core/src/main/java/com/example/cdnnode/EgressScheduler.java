@@ -0,0 +1,112 @@
+package com.example.cdnnode;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Shares the node's uplink between clients. The first small-object-kb of every response go
+// out unshaped, so catalog calls and small files never wait behind bulk transfers; bytes past
+// that are paced by a per-client token bucket and then by the global egress bucket. Small
+// responses still draw on the global bucket, so large transfers yield to them. Limits can be
+// changed at runtime through the "egress" actuator endpoint.
+@Component
+public class EgressScheduler {
+    private final Map<String, TokenBucket> clientBandwidth = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> clientRequests = new ConcurrentHashMap<>();
+    private final TokenBucket globalBandwidth;
+    private final CdnMetrics metrics;
+
+    private volatile long globalBytesPerSecond;
+    private volatile long clientBytesPerSecond;
+    private volatile long smallObjectBytes;
+    private volatile long clientRequestsPerSecond;
+
+    public EgressScheduler(CdnMetrics metrics,
+                           @Value("${cdn.egress.global-bps:0}") long globalBitsPerSecond,
+                           @Value("${cdn.egress.per-client-bps:0}") long clientBitsPerSecond,
+                           @Value("${cdn.egress.small-object-kb:512}") long smallObjectKb,
+                           @Value("${cdn.egress.per-client-requests-per-second:0}") long clientRequestsPerSecond) {
+        this.metrics = metrics;
+        this.globalBytesPerSecond = globalBitsPerSecond / 8;
+        this.clientBytesPerSecond = clientBitsPerSecond / 8;
+        this.smallObjectBytes = smallObjectKb * 1024;
+        this.clientRequestsPerSecond = clientRequestsPerSecond;
+        this.globalBandwidth = new TokenBucket(globalBytesPerSecond);
+        metrics.gauge("cdn.egress.clients", "Clients with an active egress or request bucket",
+                clientBandwidth::size);
+    }
+
+    long smallObjectBytes() {
+        return smallObjectBytes;
+    }
+
+    // 0 if the client may start another download, otherwise nanoseconds until it may
+    long admitRequest(String client) {
+        long rate = clientRequestsPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+        long waitNanos = clientRequests.computeIfAbsent(client, key -> new TokenBucket(rate)).tryAcquire();
+        if (waitNanos > 0) {
+            metrics.rateLimited();
+        }
+        return waitNanos;
+    }
+
+    // Unshaped bytes of a small response or of the head of a large one
+    void sendUnshaped(long bytes) {
+        globalBandwidth.consume(bytes);
+    }
+
+    // Blocks until the client and the node may send these bytes
+    void sendShaped(String client, long bytes) throws InterruptedIOException {
+        long rate = clientBytesPerSecond;
+        if (rate > 0) {
+            clientBandwidth.computeIfAbsent(client, key -> new TokenBucket(rate)).acquire(bytes);
+        }
+        globalBandwidth.acquire(bytes);
+    }
+
+    public Map<String, Object> limits() {
+        Map<String, Object> limits = new LinkedHashMap<>();
+        limits.put("globalBps", globalBytesPerSecond * 8);
+        limits.put("perClientBps", clientBytesPerSecond * 8);
+        limits.put("smallObjectKb", smallObjectBytes / 1024);
+        limits.put("perClientRequestsPerSecond", clientRequestsPerSecond);
+        limits.put("activeClients", clientBandwidth.size());
+        return limits;
+    }
+
+    // Null arguments keep the current value; 0 removes a limit
+    public void update(Long globalBps, Long perClientBps, Long smallObjectKb, Long perClientRequestsPerSecond) {
+        if (globalBps != null) {
+            globalBytesPerSecond = globalBps / 8;
+            globalBandwidth.setRate(globalBytesPerSecond);
+        }
+        if (perClientBps != null) {
+            clientBytesPerSecond = perClientBps / 8;
+            clientBandwidth.values().forEach(bucket -> bucket.setRate(clientBytesPerSecond));
+        }
+        if (smallObjectKb != null) {
+            smallObjectBytes = smallObjectKb * 1024;
+        }
+        if (perClientRequestsPerSecond != null) {
+            clientRequestsPerSecond = perClientRequestsPerSecond;
+            clientRequests.values().forEach(bucket -> bucket.setRate(clientRequestsPerSecond));
+        }
+    }
+
+    // Forgets clients that have been idle for a while
+    @Scheduled(fixedDelayString = "${cdn.egress.idle-cleanup-ms:60000}")
+    public void removeIdleClients() {
+        long idleSince = System.nanoTime() - TimeUnit.MINUTES.toNanos(5);
+        clientBandwidth.values().removeIf(bucket -> bucket.lastUsedAt() < idleSince);
+        clientRequests.values().removeIf(bucket -> bucket.lastUsedAt() < idleSince);
+    }
+}
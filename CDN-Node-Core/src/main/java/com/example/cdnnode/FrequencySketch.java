@@ -0,0 +1,63 @@
+package com.example.cdnnode;
+
+// Count-min sketch of 4-bit counters, sixteen to a long, estimating how often each key was
+// requested recently. The table has one long per expected entry, and every counter is halved
+// after ten increments per long, so old popularity fades (TinyLFU's reset). Keys are 64-bit
+// hashes; not thread-safe. Used for memory-tier admission and by the cache simulator.
+public final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    public FrequencySketch(long expectedEntries) {
+        int length = Integer.highestOneBit((int) Math.min(1 << 28, Math.max(64, expectedEntries)) - 1) << 1;
+        table = new long[length];
+        mask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+    public int frequency(long key) {
+        int min = 15;
+        for (int depth = 0; depth < 4; depth++) {
+            min = Math.min(min, (int) ((table[indexOf(key, depth)] >>> offsetOf(key, depth)) & 0xF));
+        }
+        return min;
+    }
+
+    public void increment(long key) {
+        boolean added = false;
+        for (int depth = 0; depth < 4; depth++) {
+            int index = indexOf(key, depth);
+            int offset = offsetOf(key, depth);
+            if (((table[index] >>> offset) & 0xF) != 0xF) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long key, int depth) {
+        long hash = (key + SEEDS[depth]) * SEEDS[depth];
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // Which of the long's sixteen counters this row uses for the key
+    private static int offsetOf(long key, int depth) {
+        return (int) ((key >>> (depth << 3)) & 0xF) << 2;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.cdnnode;
+
+import java.util.Arrays;
+
+// Sliding window of recent upstream latencies, used to derive the hedge delay
+public class LatencyTracker {
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyTracker(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    // Returns the given percentile (0..1) of the window, or the fallback if still empty
+    public long percentile(double p, long fallback) {
+        long[] copy;
+        synchronized (this) {
+            if (count == 0) {
+                return fallback;
+            }
+            copy = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(copy);
+        int index = (int) Math.ceil(p * copy.length) - 1;
+        return copy[Math.max(0, Math.min(index, copy.length - 1))];
+    }
+}
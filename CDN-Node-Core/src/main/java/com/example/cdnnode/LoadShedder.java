@@ -0,0 +1,88 @@
+package com.example.cdnnode;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+// Separate adaptive concurrency budgets for cache hits and misses, so that slow misses
+// (origin fetch plus disk write) are shed first and never crowd out cheap hits. Listings and
+// bulk archives, which go to the origin, use the miss budget. A permit is held until the
+// response body has been written. A node that shed a request recently reports itself as
+// overloaded.
+@Component
+public class LoadShedder {
+    public static final String HITS = "hits";
+    public static final String MISSES = "misses";
+
+    private final ConcurrencyLimiter hits;
+    private final ConcurrencyLimiter misses;
+    private final CdnMetrics metrics;
+    private final long overloadWindowNanos;
+    private volatile long lastShedAt;
+
+    @Value("${cdn.shed.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cdn.shed.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    public LoadShedder(CdnMetrics metrics,
+                       @Value("${cdn.shed.hits.initial-limit:200}") int hitsInitial,
+                       @Value("${cdn.shed.hits.min-limit:20}") int hitsMin,
+                       @Value("${cdn.shed.hits.max-limit:1000}") int hitsMax,
+                       @Value("${cdn.shed.misses.initial-limit:20}") int missesInitial,
+                       @Value("${cdn.shed.misses.min-limit:4}") int missesMin,
+                       @Value("${cdn.shed.misses.max-limit:200}") int missesMax,
+                       @Value("${cdn.shed.overload-window-ms:10000}") long overloadWindowMs) {
+        this.metrics = metrics;
+        this.hits = new ConcurrencyLimiter(hitsInitial, hitsMin, hitsMax);
+        this.misses = new ConcurrencyLimiter(missesInitial, missesMin, missesMax);
+        this.overloadWindowNanos = TimeUnit.MILLISECONDS.toNanos(overloadWindowMs);
+        this.lastShedAt = System.nanoTime() - overloadWindowNanos;
+        metrics.concurrency(HITS, hits::getLimit, hits::getInFlight);
+        metrics.concurrency(MISSES, misses::getLimit, misses::getInFlight);
+    }
+
+    // A permit for the budget, or null if the request should be rejected
+    public Permit tryAcquire(String budget) {
+        ConcurrencyLimiter limiter = MISSES.equals(budget) ? misses : hits;
+        if (!enabled) {
+            return new Permit(null);
+        }
+        if (!limiter.tryAcquire()) {
+            lastShedAt = System.nanoTime();
+            metrics.shed(budget);
+            return null;
+        }
+        return new Permit(limiter);
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public boolean isOverloaded() {
+        return System.nanoTime() - lastShedAt < overloadWindowNanos;
+    }
+
+    public int getLimit(String budget) {
+        return (MISSES.equals(budget) ? misses : hits).getLimit();
+    }
+
+    // Held for the duration of one response; release() records its latency
+    public static final class Permit {
+        private final ConcurrencyLimiter limiter;
+        private final long startedAt = System.nanoTime();
+
+        private Permit(ConcurrencyLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        public void release() {
+            if (limiter != null) {
+                limiter.release(System.nanoTime() - startedAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.cdnnode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Keeps the most requested cached files memory-mapped so hits are served from the page cache
+// without a read into the heap. A file is mapped once it has been requested min-hits times
+// within a decay interval; mappings are evicted in LRU order and unmapped as soon as the last
+// response streaming from them has finished.
+@Component
+public class MappedFileCache {
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileCache.class);
+    private static final long MB = 1024L * 1024L;
+
+    // Explicit unmapping; without it an evicted mapping is released by the garbage collector
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Explicit unmapping unavailable, evicted mappings are left to GC: {}", e.getMessage());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    // A mapped file; holds one reference for the cache and one per response streaming from it
+    public static final class Mapping {
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Mapping(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        // Independent read position over the whole file
+        public ByteBuffer slice() {
+            return buffer.duplicate();
+        }
+
+        public long size() {
+            return buffer.capacity();
+        }
+
+        private boolean retain() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                unmap(buffer);
+            }
+        }
+    }
+
+    private final CdnMetrics metrics;
+    private final Map<Path, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    // Access-ordered; guarded by 'this'
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes;
+
+    @Value("${cdn.mmap.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cdn.mmap.max-entries:256}")
+    private int maxEntries;
+
+    @Value("${cdn.mmap.capacity-mb:1024}")
+    private long capacityMb;
+
+    @Value("${cdn.mmap.min-hits:3}")
+    private int minHits;
+
+    @Value("${cdn.mmap.min-file-kb:16}")
+    private long minFileKb;
+
+    @Value("${cdn.mmap.max-file-mb:64}")
+    private long maxFileMb;
+
+    public MappedFileCache(CdnMetrics metrics) {
+        this.metrics = metrics;
+        metrics.occupancy(CdnMetrics.TIER_MAPPED, this::mappedBytes);
+    }
+
+    // A retained mapping of the file if it is hot enough to be mapped, otherwise null.
+    // The caller must release it once the response has been written.
+    public Mapping acquire(Path path, long size) {
+        if (!enabled || size < minFileKb * 1024 || size > maxFileMb * MB || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        synchronized (this) {
+            Mapping mapping = mappings.get(path);
+            if (mapping != null && mapping.size() == size && mapping.retain()) {
+                return mapping;
+            }
+        }
+        int requests = requestCounts.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+        if (requests < minHits) {
+            return null;
+        }
+        return map(path, size);
+    }
+
+    // Drops the mapping of a file that is about to be replaced or deleted
+    public void evict(Path path) {
+        requestCounts.remove(path);
+        Mapping mapping;
+        synchronized (this) {
+            mapping = mappings.remove(path);
+            if (mapping != null) {
+                mappedBytes -= mapping.size();
+            }
+        }
+        if (mapping != null) {
+            mapping.release();
+        }
+    }
+
+    // Drops every mapping of a file under 'root', e.g. of a volume whose contents were discarded
+    public void evictUnder(Path root) {
+        requestCounts.keySet().removeIf(path -> path.startsWith(root));
+        List<Mapping> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<Path, Mapping>> entries = mappings.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Path, Mapping> entry = entries.next();
+                if (entry.getKey().startsWith(root)) {
+                    entries.remove();
+                    mappedBytes -= entry.getValue().size();
+                    evicted.add(entry.getValue());
+                }
+            }
+        }
+        evicted.forEach(Mapping::release);
+    }
+
+    // Halves request counts so that popularity reflects recent traffic
+    @Scheduled(fixedDelayString = "${cdn.mmap.decay-interval-ms:60000}")
+    public void decay() {
+        requestCounts.values().removeIf(count -> count.updateAndGet(value -> value / 2) == 0);
+    }
+
+    private Mapping map(Path path, long size) {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            logger.warn("Failed to map {}: {}", path, e.getMessage());
+            return null;
+        }
+        // Fault the pages in now rather than on the first reader
+        buffer.load();
+        Mapping mapping = new Mapping(buffer);
+        mapping.retain();
+        Mapping replaced;
+        synchronized (this) {
+            replaced = mappings.put(path, mapping);
+            mappedBytes += size - (replaced != null ? replaced.size() : 0);
+            evictOverCapacity(path);
+        }
+        if (replaced != null) {
+            replaced.release();
+        }
+        logger.debug("Mapped hot file {} ({} bytes)", path, size);
+        return mapping;
+    }
+
+    private void evictOverCapacity(Path keep) {
+        long capacity = capacityMb * MB;
+        Iterator<Map.Entry<Path, Mapping>> eldest = mappings.entrySet().iterator();
+        while ((mappings.size() > maxEntries || mappedBytes > capacity) && eldest.hasNext()) {
+            Map.Entry<Path, Mapping> entry = eldest.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            eldest.remove();
+            mappedBytes -= entry.getValue().size();
+            entry.getValue().release();
+            metrics.eviction(CdnMetrics.TIER_MAPPED);
+        }
+    }
+
+    private synchronized long mappedBytes() {
+        return mappedBytes;
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Failed to unmap buffer: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.cdnnode;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Running load figures for this node, published to Eureka by NodeMetadataPublisher
+@Component
+public class NodeLoadTracker {
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    public void beginDownload() {
+        activeDownloads.incrementAndGet();
+    }
+
+    public void endDownload() {
+        activeDownloads.decrementAndGet();
+    }
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public void recordBytesServed(long bytes) {
+        bytesServed.addAndGet(bytes);
+    }
+
+    public int getActiveDownloads() {
+        return activeDownloads.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.cdnnode;
+
+import com.netflix.appinfo.ApplicationInfoManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Publishes this node's load into its Eureka instance metadata so that clients
+// can prefer lightly loaded nodes. Keys must match the Client's LeastLoadedLoadBalancer.
+// Does nothing when Eureka is disabled (e.g. static discovery in the load-test harness).
+// Metadata only leaves the node with the next instance-info replication and then waits on the
+// server's response cache and the client's registry and load-balancer caches, so publishing
+// more often than eureka.client.instance-info-replication-interval-seconds buys nothing.
+@Component
+public class NodeMetadataPublisher {
+    static final String ACTIVE_DOWNLOADS = "cdn.active-downloads";
+    static final String HIT_RATIO = "cdn.hit-ratio";
+    static final String FREE_BANDWIDTH = "cdn.free-bandwidth-bps";
+    static final String OVERLOADED = "cdn.overloaded";
+
+    private final ObjectProvider<ApplicationInfoManager> applicationInfoManager;
+    private final NodeLoadTracker loadTracker;
+    private final LoadShedder loadShedder;
+
+    @Value("${cdn.node.uplink-bps:1000000000}")
+    private long uplinkBitsPerSecond;
+
+    private long lastBytesServed;
+    private long lastPublishedAt = System.nanoTime();
+
+    public NodeMetadataPublisher(ObjectProvider<ApplicationInfoManager> applicationInfoManager,
+                                 NodeLoadTracker loadTracker, LoadShedder loadShedder) {
+        this.applicationInfoManager = applicationInfoManager;
+        this.loadTracker = loadTracker;
+        this.loadShedder = loadShedder;
+    }
+
+    @Scheduled(fixedDelayString = "${cdn.node.metadata-publish-interval-ms:10000}")
+    public void publish() {
+        ApplicationInfoManager infoManager = applicationInfoManager.getIfAvailable();
+        if (infoManager == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long bytesServed = loadTracker.getBytesServed();
+        double seconds = Math.max(0.001, (now - lastPublishedAt) / 1_000_000_000.0);
+        long egressBitsPerSecond = (long) ((bytesServed - lastBytesServed) * 8 / seconds);
+        lastBytesServed = bytesServed;
+        lastPublishedAt = now;
+
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(ACTIVE_DOWNLOADS, String.valueOf(loadTracker.getActiveDownloads()));
+        metadata.put(HIT_RATIO, String.format(Locale.ROOT, "%.3f", loadTracker.getHitRatio()));
+        metadata.put(FREE_BANDWIDTH, String.valueOf(Math.max(0, uplinkBitsPerSecond - egressBitsPerSecond)));
+        metadata.put(OVERLOADED, String.valueOf(loadShedder.isOverloaded()));
+        infoManager.registerAppMetadata(metadata);
+    }
+}
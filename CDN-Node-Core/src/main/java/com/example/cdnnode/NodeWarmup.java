@@ -0,0 +1,102 @@
+package com.example.cdnnode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Runs before the application reports ready, and so before ReadinessRegistration marks the
+// node UP in Eureka: sizes the disk cache, opens the origin connection, and reads already
+// cached files through the volumes' reader path so it is JIT-compiled and the files are in the
+// page cache before real clients arrive. The reads bypass the controller, so warmup shows up in
+// no hit/miss or egress metrics, access log, trace, memory-tier admission or mmap hit count.
+@Component
+public class NodeWarmup implements ApplicationRunner {
+    private static final Logger logger = LoggerFactory.getLogger(NodeWarmup.class);
+
+    private final DiskCacheMonitor diskCacheMonitor;
+    private final CacheVolumes volumes;
+    private final OriginClient originClient;
+
+    @Value("${cdn.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cdn.warmup.requests:200}")
+    private int requests;
+
+    @Value("${cdn.warmup.max-files:20}")
+    private int maxFiles;
+
+    @Value("${cdn.warmup.max-ms:20000}")
+    private long maxMillis;
+
+    public NodeWarmup(DiskCacheMonitor diskCacheMonitor, CacheVolumes volumes, OriginClient originClient) {
+        this.diskCacheMonitor = diskCacheMonitor;
+        this.volumes = volumes;
+        this.originClient = originClient;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        Deadline deadline = Deadline.afterMillis(maxMillis);
+        diskCacheMonitor.scan();
+        try {
+            originClient.get("/series", String[].class, deadline);
+        } catch (RuntimeException e) {
+            logger.warn("Origin not reachable during warmup: {}", e.getMessage());
+        }
+        List<Path> files = cachedFiles();
+        int reads = files.isEmpty() ? 0 : replay(files, deadline);
+        logger.info("Warmup finished in {} ms ({} reads over {} cached files)",
+                (System.nanoTime() - start) / 1_000_000, reads, files.size());
+    }
+
+    // Up to maxFiles whole files in the disk tier, across all volumes
+    private List<Path> cachedFiles() {
+        List<Path> paths = new ArrayList<>();
+        for (Path root : volumes.roots()) {
+            if (!Files.isDirectory(root) || paths.size() >= maxFiles) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(root, 3)) {
+                files.filter(file -> root.relativize(file).getNameCount() == 3)
+                        .filter(file -> !root.relativize(file).getName(0).toString().startsWith("."))
+                        .filter(Files::isRegularFile)
+                        .limit(maxFiles - paths.size())
+                        .forEach(paths::add);
+            } catch (IOException e) {
+                logger.warn("Failed to list cached files on {} for warmup: {}", root, e.getMessage());
+            }
+        }
+        return paths;
+    }
+
+    // Reads the files round-robin, the way a large cached file is streamed to a client
+    private int replay(List<Path> files, Deadline deadline) {
+        int reads = 0;
+        while (reads < requests && !deadline.isExpired()) {
+            Path file = files.get(reads % files.size());
+            try (CacheVolumes.Reader reader = volumes.open(file)) {
+                reader.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                logger.debug("Warmup read of {} failed: {}", file, e.getMessage());
+            }
+            reads++;
+        }
+        return reads;
+    }
+}
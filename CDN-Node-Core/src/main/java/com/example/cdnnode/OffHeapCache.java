@@ -0,0 +1,375 @@
+package com.example.cdnnode;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Memory tier in front of the disk cache, kept outside the Java heap. Memory is reserved in
+// direct ByteBuffer slabs; each slab is carved into chunks of one size class, and an object
+// is stored as a run of chunks picked largest-class-first. When a class runs out, the least
+// recently used object holding a chunk of that class is evicted; when the class holds nothing
+// to evict, every object in the least recently used slab of another class is, so that the slab
+// can be reassigned. A slab whose chunks are all free goes back to the pool for any size
+// class. Eviction is subject to TinyLFU admission: a frequency sketch of lookups must rate the
+// newcomer above each victim, so a one-off request cannot push out a popular object.
+// Reads write chunk slices straight to the response. Capacity is bounded by
+// -XX:MaxDirectMemorySize, not by the heap.
+@Component
+public class OffHeapCache {
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapCache.class);
+    private static final long KB = 1024L;
+    private static final long MB = 1024L * 1024L;
+
+    private record Chunk(Slab slab, int offset, int length) {
+        ByteBuffer slice(int limit) {
+            return slab.memory.duplicate().position(offset).limit(offset + limit);
+        }
+    }
+
+    private static final class Slab {
+        private final ByteBuffer memory;
+        private int sizeClass = -1;
+        private int usedChunks;
+
+        private Slab(ByteBuffer memory) {
+            this.memory = memory;
+        }
+    }
+
+    // A stored object; holds one reference for the cache and one per response reading it
+    public final class Entry {
+        private final List<Chunk> chunks;
+        private final long size;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Entry(List<Chunk> chunks, long size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public void writeTo(OutputStream outputStream) throws IOException {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long remaining = size;
+            for (Chunk chunk : chunks) {
+                ByteBuffer slice = chunk.slice((int) Math.min(chunk.length(), remaining));
+                remaining -= slice.remaining();
+                while (slice.hasRemaining()) {
+                    target.write(slice);
+                }
+            }
+        }
+
+        private boolean holds(int sizeClass) {
+            for (Chunk chunk : chunks) {
+                if (chunk.slab().sizeClass == sizeClass) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean uses(Slab slab) {
+            for (Chunk chunk : chunks) {
+                if (chunk.slab() == slab) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean retain() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                free(chunks);
+            }
+        }
+    }
+
+    private final CdnMetrics metrics;
+    // All guarded by 'this'
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<Slab> slabs = new ArrayList<>();
+    private final ArrayDeque<Slab> emptySlabs = new ArrayDeque<>();
+    private List<ArrayDeque<Chunk>> freeChunks;
+    private FrequencySketch sketch;
+    private long storedBytes;
+
+    @Value("${cdn.memory.enabled:false}")
+    private boolean enabled;
+
+    @Value("${cdn.memory.capacity-mb:1024}")
+    private long capacityMb;
+
+    @Value("${cdn.memory.slab-size-mb:64}")
+    private int slabSizeMb;
+
+    // Ascending chunk sizes; each must divide the slab size
+    @Value("${cdn.memory.size-classes-kb:64,256,1024,4096}")
+    private int[] sizeClassesKb;
+
+    @Value("${cdn.memory.max-object-mb:256}")
+    private long maxObjectMb;
+
+    public OffHeapCache(CdnMetrics metrics) {
+        this.metrics = metrics;
+        metrics.occupancy(CdnMetrics.TIER_MEMORY, this::storedBytes);
+    }
+
+    @PostConstruct
+    void validate() {
+        // A slab is one direct ByteBuffer, whose capacity is an int
+        if (slabSizeMb < 1 || slabSizeMb * MB > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Slab size must be between 1 and 2047 MB, not " + slabSizeMb);
+        }
+        if (capacityMb < slabSizeMb) {
+            throw new IllegalStateException("Capacity of " + capacityMb + " MB holds no " + slabSizeMb + " MB slab");
+        }
+        Arrays.sort(sizeClassesKb);
+        freeChunks = new ArrayList<>();
+        for (int sizeKb : sizeClassesKb) {
+            if (sizeKb < 1 || (slabSizeMb * MB) % (sizeKb * KB) != 0) {
+                throw new IllegalStateException("Size class " + sizeKb + " KB does not divide the "
+                        + slabSizeMb + " MB slab size");
+            }
+            freeChunks.add(new ArrayDeque<>());
+        }
+        // One counter per smallest chunk the tier can hold, at least
+        sketch = new FrequencySketch(capacityMb * MB / (sizeClassesKb[0] * KB));
+        if (enabled) {
+            logger.info("Off-heap memory tier: {} MB in {} MB slabs, size classes {} KB",
+                    capacityMb, slabSizeMb, Arrays.toString(sizeClassesKb));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // A retained entry for the key, or null; the caller must release it after writing it out.
+    // Every lookup counts towards the key's frequency.
+    public Entry acquire(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (this) {
+            sketch.increment(AccessTrace.keyHash(key));
+            Entry entry = entries.get(key);
+            return entry != null && entry.retain() ? entry : null;
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return enabled && entries.containsKey(key);
+    }
+
+    // Copies a cached file into the tier; does nothing if it is too large, or if room could
+    // only be made by evicting objects requested at least as often
+    public void admit(String key, Path file, long size) {
+        if (!enabled || size <= 0 || size > maxObjectMb * MB) {
+            return;
+        }
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        List<Chunk> chunks = allocate(key, size);
+        if (chunks == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long remaining = size;
+            for (Chunk chunk : chunks) {
+                ByteBuffer slice = chunk.slice((int) Math.min(chunk.length(), remaining));
+                remaining -= slice.remaining();
+                while (slice.hasRemaining()) {
+                    if (channel.read(slice) < 0) {
+                        throw new IOException("File shorter than expected: " + file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to load {} into memory: {}", key, e.getMessage());
+            free(chunks);
+            return;
+        }
+        Entry entry = new Entry(chunks, size);
+        Entry replaced;
+        synchronized (this) {
+            replaced = entries.put(key, entry);
+            storedBytes += size - (replaced != null ? replaced.size() : 0);
+        }
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
+
+    // Keys of everything held, e.g. to revalidate them against the origin
+    public synchronized Set<String> keys() {
+        return Set.copyOf(entries.keySet());
+    }
+
+    public void invalidate(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(key);
+            if (entry != null) {
+                storedBytes -= entry.size();
+            }
+        }
+        if (entry != null) {
+            entry.release();
+        }
+    }
+
+    // Chunks covering 'size' bytes, largest class first; evicts to make room
+    private synchronized List<Chunk> allocate(String key, long size) {
+        int frequency = sketch.frequency(AccessTrace.keyHash(key));
+        List<Chunk> chunks = new ArrayList<>();
+        long remaining = size;
+        while (remaining > 0) {
+            int sizeClass = classFor(remaining);
+            Chunk chunk = takeChunk(sizeClass);
+            while (chunk == null && makeRoom(sizeClass, frequency)) {
+                chunk = takeChunk(sizeClass);
+            }
+            if (chunk == null) {
+                free(chunks);
+                return null;
+            }
+            chunks.add(chunk);
+            remaining -= chunk.length();
+        }
+        return chunks;
+    }
+
+    // Largest class not bigger than the remainder, or the smallest class for the tail
+    private int classFor(long remaining) {
+        for (int i = sizeClassesKb.length - 1; i > 0; i--) {
+            if (sizeClassesKb[i] * KB <= remaining) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private Chunk takeChunk(int sizeClass) {
+        ArrayDeque<Chunk> free = freeChunks.get(sizeClass);
+        if (free.isEmpty()) {
+            Slab slab = emptySlabs.poll();
+            if (slab == null) {
+                if ((long) (slabs.size() + 1) * slabSizeMb > capacityMb) {
+                    return null;
+                }
+                slab = new Slab(ByteBuffer.allocateDirect((int) (slabSizeMb * MB)));
+                slabs.add(slab);
+            }
+            int chunkSize = (int) (sizeClassesKb[sizeClass] * KB);
+            slab.sizeClass = sizeClass;
+            for (int offset = 0; offset < slab.memory.capacity(); offset += chunkSize) {
+                free.add(new Chunk(slab, offset, chunkSize));
+            }
+        }
+        Chunk chunk = free.poll();
+        chunk.slab().usedChunks++;
+        return chunk;
+    }
+
+    private synchronized void free(List<Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            Slab slab = chunk.slab();
+            ArrayDeque<Chunk> free = freeChunks.get(slab.sizeClass);
+            free.add(chunk);
+            if (--slab.usedChunks == 0) {
+                // Whole slab is free again; let any size class take it
+                free.removeIf(candidate -> candidate.slab() == slab);
+                slab.sizeClass = -1;
+                emptySlabs.add(slab);
+            }
+        }
+    }
+
+    // Evicts towards a free chunk of the class for a newcomer seen 'frequency' times: the least
+    // recently used object holding one, or else all objects in the slab of the least recently
+    // used one. False when nothing can be evicted or a victim is requested as often.
+    private boolean makeRoom(int sizeClass, int frequency) {
+        if (entries.isEmpty()) {
+            return false;
+        }
+        String victim = null;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().holds(sizeClass)) {
+                victim = entry.getKey();
+                break;
+            }
+        }
+        if (victim != null) {
+            if (!admits(frequency, victim)) {
+                return false;
+            }
+            evict(victim);
+            return true;
+        }
+        Map.Entry<String, Entry> eldest = entries.entrySet().iterator().next();
+        Slab slab = eldest.getValue().chunks.get(0).slab();
+        List<String> sharing = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().uses(slab)) {
+                if (!admits(frequency, entry.getKey())) {
+                    return false;
+                }
+                sharing.add(entry.getKey());
+            }
+        }
+        sharing.forEach(this::evict);
+        return true;
+    }
+
+    private boolean admits(int frequency, String victim) {
+        return frequency > sketch.frequency(AccessTrace.keyHash(victim));
+    }
+
+    private void evict(String key) {
+        Entry entry = entries.remove(key);
+        storedBytes -= entry.size();
+        metrics.eviction(CdnMetrics.TIER_MEMORY);
+        entry.release();
+    }
+
+    private synchronized long storedBytes() {
+        return storedBytes;
+    }
+}
@@ -0,0 +1,499 @@
+package com.example.cdnnode;
+
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fetches from the Origin Server replicas registered in Eureka. Each replica has its
+// own circuit breaker; a small request that has not answered within the observed p95 is
+// hedged to a second replica, and the whole call is bounded by the request deadline, up to
+// the headers of a streamed body (see getObject).
+@Component
+public class OriginClient {
+    private static final Logger logger = LoggerFactory.getLogger(OriginClient.class);
+    private static final String WANT_DIGEST = "Want-Digest";
+    private static final ContextSnapshotFactory snapshots = ContextSnapshotFactory.builder().build();
+    private static final ScheduledThreadPoolExecutor stallTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "origin-stall-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // Nearly every guard is cancelled well before it fires
+        stallTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    private final DiscoveryClient discoveryClient;
+    private final RestTemplate restTemplate;
+    // For streamed bodies: Spring's read timeout caps the headers and the whole body together,
+    // so this one has none and each read is guarded by StallGuardedStream instead
+    private final RestTemplate streamingTemplate;
+    private final long readTimeoutMs;
+    private final CdnMetrics metrics;
+    private final ObservationRegistry observationRegistry;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final LatencyTracker latency = new LatencyTracker(256);
+    private final AtomicInteger rotation = new AtomicInteger();
+    private volatile String pollUpstream;
+    // Attempts run on their own threads but stay in the caller's trace
+    private final ExecutorService executor = ContextExecutorService.wrap(Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "origin-fetch");
+        thread.setDaemon(true);
+        return thread;
+    }), () -> snapshots.captureAll());
+
+    @Value("${cdn.origin.service-id:Origin-Server}")
+    private String serviceId;
+
+    @Value("${cdn.origin.base-url}")
+    private String fallbackBaseUrl;
+
+    @Value("${cdn.origin.context-path:/origin}")
+    private String contextPath;
+
+    @Value("${cdn.origin.timeout-ms:10000}")
+    private long defaultTimeoutMs;
+
+    @Value("${cdn.origin.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${cdn.origin.hedge.min-delay-ms:50}")
+    private long hedgeMinDelayMs;
+
+    // Ranges above this are not hedged: a second copy of a large body costs more origin
+    // egress than the tail latency it saves
+    @Value("${cdn.origin.hedge.max-bytes:4194304}")
+    private long hedgeMaxBytes;
+
+    @Value("${cdn.origin.breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${cdn.origin.breaker.open-ms:10000}")
+    private long breakerOpenMs;
+
+    public OriginClient(DiscoveryClient discoveryClient, CdnMetrics metrics, ObservationRegistry observationRegistry,
+                        RestTemplateBuilder restTemplateBuilder,
+                        @Value("${cdn.origin.connect-timeout-ms:2000}") int connectTimeoutMs,
+                        @Value("${cdn.origin.read-timeout-ms:30000}") int readTimeoutMs) {
+        this.discoveryClient = discoveryClient;
+        this.metrics = metrics;
+        this.observationRegistry = observationRegistry;
+        // HTTP/2 over cleartext: the first request to an origin upgrades its connection (h2c) and
+        // later ones, hedges and range fills included, are multiplexed over it as separate streams
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        // Built from the Boot builder so that each attempt is traced and carries the trace headers
+        this.restTemplate = restTemplateBuilder.requestFactory(() -> requestFactory).build();
+        JdkClientHttpRequestFactory streamingFactory = new JdkClientHttpRequestFactory(httpClient);
+        this.streamingTemplate = restTemplateBuilder.requestFactory(() -> streamingFactory).build();
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public Deadline deadline(String timeoutHeader) {
+        return Deadline.fromHeader(timeoutHeader, defaultTimeoutMs);
+    }
+
+    // Reads a response body once the status and headers are in. It may leave the body unread,
+    // e.g. when the headers show it is not worth transferring; the stream is closed either way.
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(HttpStatusCode status, HttpHeaders headers, InputStream body) throws IOException;
+    }
+
+    // One request to one replica; a streamed exchange runs 'onHeaders' once the status and
+    // headers are in, before it reads the body
+    @FunctionalInterface
+    private interface Exchange<T> {
+        ResponseEntity<T> call(URI uri, HttpHeaders headers, Runnable onHeaders);
+    }
+
+    // Origin path of a file. The origin URL-decodes each name once more after Spring has, so the
+    // names are form-encoded first, and then encoded whole so that no character in a name can
+    // change the path's structure. Paths given to this client must already be encoded; they are
+    // sent as they are.
+    public static String filePath(String series, String type, String filename) {
+        return UriComponentsBuilder.fromPath("/{series}/{type}/{filename}").encode()
+                .buildAndExpand(formEncoded(series), formEncoded(type), formEncoded(filename)).toUriString();
+    }
+
+    private static String formEncoded(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+
+    // GET a small origin resource such as "/series" or a file listing
+    public <T> ResponseEntity<T> get(String path, Class<T> responseType, Deadline deadline) {
+        return execute(HttpMethod.GET, path, null, exchange(HttpMethod.GET, responseType), deadline, true);
+    }
+
+    // GET a whole file, "/{series}/{type}/{filename}", handing the body to the reader as it
+    // streams in. Its size is unknown up front, so it is never hedged, only failed over when
+    // a replica errors. The deadline bounds the wait for the headers; the body may then take
+    // as long as it needs, as long as no single read waits longer than cdn.origin.read-timeout-ms.
+    public <T> ResponseEntity<T> getObject(String path, Deadline deadline, BodyReader<T> reader) {
+        return execute(HttpMethod.GET, path, null, reading(reader), deadline, false);
+    }
+
+    // GET bytes [start, endInclusive] of an origin file, provided it still matches the
+    // validator (If-Range: an ETag or HTTP date, may be null). A 200 instead of a 206 means the
+    // file changed or the origin ignored the range; its body is left unread and returned as null.
+    public ResponseEntity<byte[]> getRange(String path, long start, long endInclusive, String ifRange,
+                                           Deadline deadline) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=" + start + "-" + endInclusive);
+        if (ifRange != null) {
+            headers.set(HttpHeaders.IF_RANGE, ifRange);
+        }
+        BodyReader<byte[]> reader = (status, responseHeaders, body) ->
+                status.value() == HttpStatus.PARTIAL_CONTENT.value() ? body.readAllBytes() : null;
+        return execute(HttpMethod.GET, path, headers, reading(reader), deadline,
+                endInclusive - start + 1 <= hedgeMaxBytes);
+    }
+
+    // HEAD an origin path, e.g. to read a file's ETag without transferring it
+    public ResponseEntity<Void> head(String path, Deadline deadline) {
+        return execute(HttpMethod.HEAD, path, null, exchange(HttpMethod.HEAD, Void.class), deadline, true);
+    }
+
+    // HEAD that asks for the SHA-256 as the ETag even if the origin has not hashed the file
+    // yet; for callers that key on content. Not hedged, since the origin may hash meanwhile.
+    public ResponseEntity<Void> headWithDigest(String path, Deadline deadline) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(WANT_DIGEST, "sha-256");
+        return execute(HttpMethod.HEAD, path, headers, exchange(HttpMethod.HEAD, Void.class), deadline, false);
+    }
+
+    private <T> Exchange<T> exchange(HttpMethod method, Class<T> responseType) {
+        return (uri, headers, onHeaders) -> restTemplate.exchange(uri, method, new HttpEntity<>(headers),
+                responseType);
+    }
+
+    private <T> Exchange<T> reading(BodyReader<T> reader) {
+        return (uri, headers, onHeaders) -> streamingTemplate.execute(uri, HttpMethod.GET,
+                request -> request.getHeaders().addAll(headers),
+                response -> {
+                    onHeaders.run();
+                    return ResponseEntity.status(response.getStatusCode())
+                            .headers(response.getHeaders())
+                            .body(reader.read(response.getStatusCode(), response.getHeaders(),
+                                    new StallGuardedStream(response.getBody())));
+                });
+    }
+
+    // Long-poll GET, e.g. of the change feed: one attempt, never hedged and kept out of the
+    // latency percentiles since it waits on purpose. Sticks to one replica while it stays
+    // available, because resume offsets are only meaningful to the replica that issued them.
+    public <T> ResponseEntity<T> longPoll(String path, Class<T> responseType) {
+        List<String> upstreams = resolveUpstreams();
+        String baseUrl = upstreams.contains(pollUpstream) && breaker(pollUpstream).isAvailable()
+                ? pollUpstream : upstreams.get(0);
+        pollUpstream = baseUrl;
+        try {
+            return restTemplate.getForEntity(URI.create(baseUrl + contextPath + path), responseType);
+        } catch (HttpClientErrorException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            pollUpstream = null;
+            throw new UpstreamUnavailableException("Origin " + baseUrl + " failed for " + path, e);
+        }
+    }
+
+    // One span for the whole call; hedged and failed-over attempts appear as its children
+    private <T> ResponseEntity<T> execute(HttpMethod method, String path, HttpHeaders requestHeaders,
+                                          Exchange<T> exchange, Deadline deadline, boolean hedge) {
+        // A malformed path is the caller's bug, not a replica failure for the breakers to count
+        URI.create(path);
+        Observation observation = Observation.createNotStarted("cdn.origin.request", observationRegistry)
+                .lowCardinalityKeyValue("method", method.name())
+                .highCardinalityKeyValue("path", path)
+                .start();
+        long start = System.nanoTime();
+        try (Observation.Scope scope = observation.openScope()) {
+            return dispatch(method, path, requestHeaders, exchange, deadline, hedge);
+        } catch (RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            ServerTiming.recordOrigin(System.nanoTime() - start);
+            observation.stop();
+        }
+    }
+
+    private <T> ResponseEntity<T> dispatch(HttpMethod method, String path, HttpHeaders requestHeaders,
+                                           Exchange<T> exchange, Deadline deadline, boolean hedge) {
+        List<String> upstreams = resolveUpstreams();
+        ExecutorCompletionService<ResponseEntity<T>> completion = new ExecutorCompletionService<>(executor);
+        List<Attempt<T>> attempts = new ArrayList<>();
+        RuntimeException lastFailure = null;
+        int nextUpstream = submitNext(upstreams, 0, method, path, requestHeaders, exchange, deadline,
+                completion, attempts);
+        int pending = attempts.size();
+        boolean hedged = false;
+
+        if (pending == 0) {
+            throw new UpstreamUnavailableException("All origin circuits are open", false);
+        }
+
+        long hedgeDelay = Math.max(hedgeMinDelayMs, latency.percentile(0.95, defaultTimeoutMs));
+        try {
+            while (pending > 0) {
+                // Once a body is streaming, only the read timeout bounds it: a large file may take
+                // far longer to transfer than the deadline allows for the response to start
+                boolean streaming = attempts.stream().anyMatch(Attempt::isStreaming);
+                long remaining = deadline.remainingMillis();
+                if (remaining <= 0 && !streaming) {
+                    throw new UpstreamUnavailableException("Origin deadline exceeded for " + path, true);
+                }
+                boolean canHedge = hedge && hedgeEnabled && !hedged && !streaming && pending == 1
+                        && nextUpstream < upstreams.size();
+                Future<ResponseEntity<T>> done = streaming ? completion.take()
+                        : completion.poll(canHedge ? Math.min(hedgeDelay, remaining) : remaining, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (canHedge) {
+                        hedged = true;
+                        int before = attempts.size();
+                        nextUpstream = submitNext(upstreams, nextUpstream, method, path, requestHeaders, exchange,
+                                deadline, completion, attempts);
+                        pending += attempts.size() - before;
+                        metrics.hedge();
+                        logger.info("Hedging origin request {} after {} ms", path, hedgeDelay);
+                    }
+                    continue;
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof HttpClientErrorException clientError) {
+                        throw clientError;
+                    }
+                    lastFailure = e.getCause() instanceof RuntimeException runtime
+                            ? runtime : new IllegalStateException(e.getCause());
+                    if (pending == 0) {
+                        // Fail over straight away instead of waiting out the deadline
+                        int before = attempts.size();
+                        nextUpstream = submitNext(upstreams, nextUpstream, method, path, requestHeaders, exchange,
+                                deadline, completion, attempts);
+                        pending += attempts.size() - before;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UpstreamUnavailableException("Interrupted while fetching " + path, e);
+        } finally {
+            attempts.forEach(Attempt::cancel);
+        }
+        throw new UpstreamUnavailableException("All origin replicas failed for " + path, lastFailure);
+    }
+
+    // Replicas from Eureka, rotated for spread, with open circuits moved to the back
+    private List<String> resolveUpstreams() {
+        List<String> upstreams = new ArrayList<>();
+        for (ServiceInstance instance : discoveryClient.getInstances(serviceId)) {
+            upstreams.add(instance.getUri().toString());
+        }
+        if (upstreams.isEmpty()) {
+            upstreams.add(fallbackBaseUrl);
+        }
+        Collections.rotate(upstreams, -Math.floorMod(rotation.getAndIncrement(), upstreams.size()));
+        upstreams.sort(Comparator.comparingInt(url -> breaker(url).isAvailable() ? 0 : 1));
+        return upstreams;
+    }
+
+    private CircuitBreaker breaker(String baseUrl) {
+        return breakers.computeIfAbsent(baseUrl, url -> new CircuitBreaker(url, failureThreshold, breakerOpenMs));
+    }
+
+    // Submits to the first upstream from 'from' whose breaker admits a request; returns the next index
+    private <T> int submitNext(List<String> upstreams, int from, HttpMethod method, String path,
+                               HttpHeaders requestHeaders, Exchange<T> exchange, Deadline deadline,
+                               ExecutorCompletionService<ResponseEntity<T>> completion,
+                               List<Attempt<T>> attempts) {
+        for (int i = from; i < upstreams.size(); i++) {
+            String baseUrl = upstreams.get(i);
+            CircuitBreaker breaker = breaker(baseUrl);
+            if (breaker.tryAcquire()) {
+                AtomicBoolean settled = new AtomicBoolean();
+                AtomicLong headersAt = new AtomicLong();
+                Future<ResponseEntity<T>> future = completion.submit(() -> attempt(baseUrl, breaker, settled,
+                        headersAt, method, path, requestHeaders, exchange, deadline));
+                attempts.add(new Attempt<>(future, breaker, settled, headersAt));
+                return i + 1;
+            }
+        }
+        return upstreams.size();
+    }
+
+    // An attempt reports its outcome to the breaker exactly once: either the attempt itself
+    // does when it finishes, or the dispatcher does when it abandons the attempt first.
+    // 'headersAt' is when a streamed response's headers came in, 0 until then.
+    private record Attempt<T>(Future<ResponseEntity<T>> future, CircuitBreaker breaker, AtomicBoolean settled,
+                              AtomicLong headersAt) {
+        boolean isStreaming() {
+            return headersAt.get() != 0 && !future.isDone();
+        }
+
+        void cancel() {
+            if (future.isDone()) {
+                return;
+            }
+            // Losing a hedge or running out of time says nothing about the replica's health,
+            // and a half-open trial that never ran must not hold the breaker shut
+            if (settled.compareAndSet(false, true)) {
+                breaker.onCancelled();
+            }
+            future.cancel(true);
+        }
+    }
+
+    private <T> ResponseEntity<T> attempt(String baseUrl, CircuitBreaker breaker, AtomicBoolean settled,
+                                          AtomicLong headersAt, HttpMethod method, String path,
+                                          HttpHeaders requestHeaders, Exchange<T> exchange, Deadline deadline) {
+        HttpHeaders headers = new HttpHeaders();
+        if (requestHeaders != null) {
+            headers.addAll(requestHeaders);
+        }
+        headers.set(Deadline.HEADER, String.valueOf(deadline.remainingMillis()));
+        long start = System.nanoTime();
+        try {
+            ResponseEntity<T> response = exchange.call(URI.create(baseUrl + contextPath + path), headers,
+                    () -> headersAt.set(System.nanoTime()));
+            long elapsed = System.nanoTime() - start;
+            // Time to the headers for streamed bodies, which would otherwise stretch the hedge delay
+            long firstByte = headersAt.get() != 0 ? headersAt.get() - start : elapsed;
+            latency.record(TimeUnit.NANOSECONDS.toMillis(firstByte));
+            metrics.originFetch(method.name(), "success", elapsed);
+            if (response.getBody() instanceof byte[] body) {
+                metrics.originBytes(body.length);
+            } else if (response.getBody() instanceof ByteArrayResource body) {
+                metrics.originBytes(body.contentLength());
+            }
+            if (settled.compareAndSet(false, true)) {
+                breaker.onSuccess();
+            }
+            return response;
+        } catch (HttpClientErrorException e) {
+            // The replica answered; only the request was bad
+            metrics.originFetch(method.name(), "client-error", System.nanoTime() - start);
+            if (settled.compareAndSet(false, true)) {
+                breaker.onSuccess();
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            // Cancelled by the dispatcher, which settles the breaker itself; the interrupted
+            // client's exception is not the replica's fault
+            boolean abandoned = !settled.compareAndSet(false, true);
+            if (abandoned || Thread.currentThread().isInterrupted()) {
+                metrics.originFetch(method.name(), "cancelled", System.nanoTime() - start);
+                if (!abandoned) {
+                    breaker.onCancelled();
+                }
+                throw e;
+            }
+            metrics.originFetch(method.name(), "failure", System.nanoTime() - start);
+            breaker.onFailure();
+            logger.warn("Origin {} failed for {}: {}", baseUrl, path, e.getMessage());
+            throw e;
+        }
+    }
+
+    // Closes the body when a single read waits longer than the read timeout, so a stalled
+    // origin fails the transfer while a slow but steady one is given the time it needs
+    private final class StallGuardedStream extends FilterInputStream {
+        private volatile boolean stalled;
+
+        private StallGuardedStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            ScheduledFuture<?> guard = arm();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw stalled ? stallFailure() : e;
+            } finally {
+                guard.cancel(false);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            ScheduledFuture<?> guard = arm();
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw stalled ? stallFailure() : e;
+            } finally {
+                guard.cancel(false);
+            }
+        }
+
+        private ScheduledFuture<?> arm() {
+            return stallTimer.schedule(() -> {
+                stalled = true;
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // the pending read fails either way
+                }
+            }, readTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        private IOException stallFailure() {
+            return new SocketTimeoutException("No data from the origin for " + readTimeoutMs + " ms");
+        }
+    }
+}
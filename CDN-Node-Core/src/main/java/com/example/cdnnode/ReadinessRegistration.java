@@ -0,0 +1,31 @@
+package com.example.cdnnode;
+
+import com.netflix.appinfo.ApplicationInfoManager;
+import com.netflix.appinfo.InstanceInfo.InstanceStatus;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+// The node registers with Eureka as STARTING (eureka.instance.initial-status) and follows the
+// application's readiness from then on: UP once it accepts traffic, which is after NodeWarmup,
+// and OUT_OF_SERVICE when it stops, so clients stop routing to it before deregistration.
+@Component
+public class ReadinessRegistration {
+    private final ObjectProvider<ApplicationInfoManager> applicationInfoManager;
+
+    public ReadinessRegistration(ObjectProvider<ApplicationInfoManager> applicationInfoManager) {
+        this.applicationInfoManager = applicationInfoManager;
+    }
+
+    @EventListener
+    public void onReadiness(AvailabilityChangeEvent<ReadinessState> event) {
+        ApplicationInfoManager infoManager = applicationInfoManager.getIfAvailable();
+        if (infoManager == null) {
+            return;
+        }
+        infoManager.setInstanceStatus(event.getState() == ReadinessState.ACCEPTING_TRAFFIC
+                ? InstanceStatus.UP : InstanceStatus.OUT_OF_SERVICE);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.cdnnode;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A response body that holds something until it has been written, such as a pinned cache
+// buffer. The release runs exactly once: after the body is written, or on discard() when
+// the body is dropped unwritten (e.g. by an aborted bulk archive).
+final class ReleasableBody implements StreamingResponseBody {
+    private final StreamingResponseBody content;
+    private final Runnable release;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    ReleasableBody(StreamingResponseBody content, Runnable release) {
+        this.content = content;
+        this.release = release;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        try {
+            content.writeTo(outputStream);
+        } finally {
+            discard();
+        }
+    }
+
+    void discard() {
+        if (released.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+}
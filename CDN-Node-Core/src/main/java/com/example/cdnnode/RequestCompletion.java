@@ -0,0 +1,92 @@
+package com.example.cdnnode;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs callbacks once the current request's response is complete: after the body has been
+// written, including bodies streamed after the handler returned, or once the request failed
+// or timed out. Lets the controller hold a load-shedding permit for the whole transfer.
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestCompletion extends OncePerRequestFilter {
+    private static final String CALLBACKS_ATTRIBUTE = RequestCompletion.class.getName() + ".callbacks";
+
+    // Outside a request handled by this filter (e.g. a controller called directly) the callback
+    // runs at once
+    @SuppressWarnings("unchecked")
+    public static void whenComplete(Runnable callback) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        List<Runnable> callbacks = attributes == null ? null
+                : (List<Runnable>) attributes.getAttribute(CALLBACKS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (callbacks == null) {
+            callback.run();
+        } else {
+            callbacks.add(callback);
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        List<Runnable> callbacks = new ArrayList<>();
+        request.setAttribute(CALLBACKS_ATTRIBUTE, callbacks);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CompletionListener(callbacks));
+            } else {
+                callbacks.forEach(Runnable::run);
+            }
+        }
+    }
+
+    private static final class CompletionListener implements AsyncListener {
+        private final List<Runnable> callbacks;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        CompletionListener(List<Runnable> callbacks) {
+            this.callbacks = callbacks;
+        }
+
+        private void run() {
+            if (done.compareAndSet(false, true)) {
+                callbacks.forEach(Runnable::run);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.cdnnode;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Caches large files as fixed-size segments under .segments/<series>/<type>/<filename>/.
+// Segments are filled from the origin with range requests only when a reader needs
+// them, and are evicted independently in LRU order once the segment capacity is exceeded.
+// Every fill is conditional on the validator recorded with the object (If-Range), so a
+// file that changed at the origin has all of its segments discarded instead of mixed.
+@Component
+public class SegmentedCache {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedCache.class);
+    private static final long MB = 1024L * 1024L;
+    private static final String META_FILE = "meta.properties";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // lastModified is the origin's HTTP date, used as the validator while the ETag is weak
+    public record Metadata(long size, String contentType, String etag, String lastModified) {
+        String validator() {
+            return etag != null && !etag.startsWith("W/") ? etag : lastModified;
+        }
+    }
+
+    private final OriginClient originClient;
+    private final CdnMetrics metrics;
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    // Access-ordered segment sizes; guarded by 'this'
+    private final LinkedHashMap<Path, Long> segments = new LinkedHashMap<>(16, 0.75f, true);
+    private long storedBytes;
+
+    @Value("${cdn.cache.path}")
+    private String cdnCacheDir;
+
+    @Value("${cdn.cache.segmented:false}")
+    private boolean enabled;
+
+    @Value("${cdn.cache.segment-size-mb:4}")
+    private long segmentSizeMb;
+
+    @Value("${cdn.cache.segmented-min-size-mb:32}")
+    private long minSizeMb;
+
+    @Value("${cdn.cache.segment-capacity-mb:10240}")
+    private long capacityMb;
+
+    private Path segmentsDir;
+
+    public SegmentedCache(OriginClient originClient, CdnMetrics metrics) {
+        this.originClient = originClient;
+        this.metrics = metrics;
+        metrics.occupancy(CdnMetrics.TIER_SEGMENT, this::storedBytes);
+    }
+
+    @PostConstruct
+    void loadIndex() throws IOException {
+        segmentsDir = Paths.get(cdnCacheDir, ".segments");
+        if (!enabled || !Files.isDirectory(segmentsDir)) {
+            return;
+        }
+        // Oldest first, so that insertion order approximates recency after a restart
+        try (Stream<Path> paths = Files.walk(segmentsDir)) {
+            paths.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparingLong(SegmentedCache::lastModified))
+                    .forEach(path -> register(path, path.toFile().length()));
+        }
+        logger.info("Loaded {} cached segments ({} MB)", segments.size(), storedBytes / MB);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isSegmentable(long size) {
+        return size >= minSizeMb * MB;
+    }
+
+    // Size, type and validators of an object already segmented here, or null. Nothing is asked
+    // of the origin: a miss learns them from the headers of its own GET (see remember()).
+    public Metadata metadata(String key) throws IOException {
+        Path metaFile = objectDir(key).resolve(META_FILE);
+        if (!Files.isRegularFile(metaFile)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(metaFile)) {
+            properties.load(in);
+        }
+        return new Metadata(Long.parseLong(properties.getProperty("size")), properties.getProperty("content-type"),
+                properties.getProperty("etag"), properties.getProperty("last-modified"));
+    }
+
+    // Records a large object from the headers of a whole-file GET whose body was left unread;
+    // null if the headers do not say how large it is
+    public Metadata remember(String key, HttpHeaders headers) throws IOException {
+        if (headers.getContentLength() < 0) {
+            return null;
+        }
+        MediaType contentType = headers.getContentType();
+        Metadata metadata = new Metadata(headers.getContentLength(),
+                contentType != null ? contentType.toString() : "application/octet-stream", headers.getETag(),
+                headers.getFirst(HttpHeaders.LAST_MODIFIED));
+        Properties properties = new Properties();
+        properties.setProperty("size", String.valueOf(metadata.size()));
+        properties.setProperty("content-type", metadata.contentType());
+        if (metadata.etag() != null) {
+            properties.setProperty("etag", metadata.etag());
+        }
+        if (metadata.lastModified() != null) {
+            properties.setProperty("last-modified", metadata.lastModified());
+        }
+        Path metaFile = objectDir(key).resolve(META_FILE);
+        Files.createDirectories(metaFile.getParent());
+        Path temp = Files.createTempFile(metaFile.getParent(), META_FILE, ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, key);
+        }
+        Files.move(temp, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return metadata;
+    }
+
+    // Writes bytes [start, end] of the object, filling missing segments from the origin on the way
+    public void write(String key, String originPath, Metadata metadata, long start, long end, Deadline deadline,
+                      OutputStream outputStream) throws IOException {
+        long segmentSize = segmentSizeMb * MB;
+        String series = CdnMetrics.seriesOf(key);
+        WritableByteChannel target = Channels.newChannel(outputStream);
+        for (long index = start / segmentSize; index <= end / segmentSize; index++) {
+            long segmentStart = index * segmentSize;
+            long from = Math.max(start, segmentStart) - segmentStart;
+            long to = Math.min(end, segmentStart + segmentSize - 1) - segmentStart;
+            // The first segment is bounded by the caller's deadline, later ones get a fresh budget
+            Deadline segmentDeadline = index == start / segmentSize ? deadline : originClient.deadline(null);
+            String source = touch(objectDir(key).resolve(index + SEGMENT_SUFFIX))
+                    ? CdnMetrics.SOURCE_CACHE : CdnMetrics.SOURCE_ORIGIN;
+            try {
+                transfer(segment(key, originPath, metadata, index, segmentDeadline), from, to - from + 1, target);
+            } catch (NoSuchFileException e) {
+                // Evicted between lookup and open; fetch it again
+                transfer(segment(key, originPath, metadata, index, segmentDeadline), from, to - from + 1, target);
+            }
+            metrics.bytesServed(source, series, to - from + 1);
+        }
+    }
+
+    // Keys of every object with recorded metadata
+    public Set<String> keys() throws IOException {
+        if (!Files.isDirectory(segmentsDir)) {
+            return Set.of();
+        }
+        try (Stream<Path> paths = Files.walk(segmentsDir)) {
+            return paths.filter(path -> path.getFileName().toString().equals(META_FILE))
+                    .map(path -> segmentsDir.relativize(path.getParent()).toString().replace(File.separatorChar, '/'))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    // Drops every segment of the object; false if nothing was cached
+    public synchronized boolean invalidate(String key) throws IOException {
+        Path dir = objectDir(key);
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Long size = segments.remove(path);
+                if (size != null) {
+                    storedBytes -= size;
+                }
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(dir);
+        return true;
+    }
+
+    private void transfer(Path segment, long position, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            while (count > 0) {
+                long written = channel.transferTo(position, count, target);
+                if (written <= 0) {
+                    throw new IOException("Segment shorter than expected: " + segment);
+                }
+                position += written;
+                count -= written;
+            }
+        }
+    }
+
+    // Local segment file, fetched from the origin once even under concurrent readers
+    private Path segment(String key, String originPath, Metadata metadata, long index, Deadline deadline)
+            throws IOException {
+        Path path = objectDir(key).resolve(index + SEGMENT_SUFFIX);
+        String series = CdnMetrics.seriesOf(key);
+        if (touch(path)) {
+            metrics.hit(CdnMetrics.TIER_SEGMENT, series);
+            return path;
+        }
+        CompletableFuture<Path> fill = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(path.toString(), fill);
+        if (existing != null) {
+            metrics.coalesced(CdnMetrics.TIER_SEGMENT, series);
+            return await(existing);
+        }
+        metrics.miss(CdnMetrics.TIER_SEGMENT, series);
+        long fillStart = System.nanoTime();
+        try {
+            long segmentSize = segmentSizeMb * MB;
+            long start = index * segmentSize;
+            long end = Math.min(metadata.size(), start + segmentSize) - 1;
+            ResponseEntity<byte[]> response = originClient.getRange(originPath, start, end, metadata.validator(),
+                    deadline);
+            byte[] data = response.getBody();
+            if (data == null) {
+                // The origin answered with the whole file: the object changed since it was segmented
+                // (or cannot be validated), so none of its segments can be trusted any more
+                invalidate(key);
+                throw new IOException("Object changed at the origin, segments of " + key + " discarded");
+            }
+            if (data.length != end - start + 1) {
+                throw new IOException("Origin returned an incomplete segment " + index + " of " + key);
+            }
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(), index + "-", ".tmp");
+            Files.write(temp, data);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            register(path, data.length);
+            metrics.cacheFill(CdnMetrics.TIER_SEGMENT, System.nanoTime() - fillStart);
+            fill.complete(path);
+            return path;
+        } catch (IOException | RuntimeException e) {
+            fill.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(path.toString(), fill);
+        }
+    }
+
+    private Path await(CompletableFuture<Path> fill) throws IOException {
+        try {
+            return fill.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segment");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Segment fill failed", e.getCause());
+        }
+    }
+
+    private synchronized long storedBytes() {
+        return storedBytes;
+    }
+
+    private synchronized boolean touch(Path path) {
+        return segments.get(path) != null && Files.isRegularFile(path);
+    }
+
+    private synchronized void register(Path path, long size) {
+        Long previous = segments.put(path, size);
+        storedBytes += size - (previous != null ? previous : 0);
+        long capacity = capacityMb * MB;
+        Iterator<Map.Entry<Path, Long>> eldest = segments.entrySet().iterator();
+        while (storedBytes > capacity && eldest.hasNext()) {
+            Map.Entry<Path, Long> entry = eldest.next();
+            if (entry.getKey().equals(path)) {
+                continue;
+            }
+            eldest.remove();
+            storedBytes -= entry.getValue();
+            metrics.eviction(CdnMetrics.TIER_SEGMENT);
+            try {
+                Files.deleteIfExists(entry.getKey());
+            } catch (IOException e) {
+                logger.warn("Failed to evict segment {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private Path objectDir(String key) {
+        return segmentsDir.resolve(key);
+    }
+
+    private static long lastModified(Path path) {
+        return path.toFile().lastModified();
+    }
+}
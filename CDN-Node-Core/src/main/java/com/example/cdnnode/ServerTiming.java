@@ -0,0 +1,61 @@
+package com.example.cdnnode;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+// Per-request split of where the time went, reported in the Server-Timing response header.
+// Origin and fill time are accumulated on the request thread; everything else counts as cache.
+final class ServerTiming {
+    static final String HEADER = "Server-Timing";
+    private static final String ATTRIBUTE = ServerTiming.class.getName();
+
+    private long originNanos;
+    private long fillNanos;
+
+    private ServerTiming() {
+    }
+
+    static void recordOrigin(long nanos) {
+        ServerTiming timing = current();
+        if (timing != null) {
+            timing.originNanos += nanos;
+        }
+    }
+
+    static void recordFill(long nanos) {
+        ServerTiming timing = current();
+        if (timing != null) {
+            timing.fillNanos += nanos;
+        }
+    }
+
+    // e.g. "cache;dur=0.4, origin;dur=31.2, fill;dur=1.9, total;dur=33.5"
+    static String header(long totalNanos) {
+        ServerTiming timing = current();
+        long origin = timing != null ? timing.originNanos : 0;
+        long fill = timing != null ? timing.fillNanos : 0;
+        StringBuilder header = new StringBuilder(64);
+        append(header, "cache", Math.max(0, totalNanos - origin - fill)).append(", ");
+        append(header, "origin", origin).append(", ");
+        append(header, "fill", fill).append(", ");
+        return append(header, "total", totalNanos).toString();
+    }
+
+    private static StringBuilder append(StringBuilder header, String name, long nanos) {
+        long tenthsOfMillis = nanos / 100_000;
+        return header.append(name).append(";dur=").append(tenthsOfMillis / 10).append('.').append(tenthsOfMillis % 10);
+    }
+
+    private static ServerTiming current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Object timing = attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (timing == null) {
+            timing = new ServerTiming();
+            attributes.setAttribute(ATTRIBUTE, timing, RequestAttributes.SCOPE_REQUEST);
+        }
+        return (ServerTiming) timing;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.cdnnode;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+// Token bucket refilled continuously at 'rate' tokens per second, holding at most one
+// second's worth. acquire() reserves tokens ahead of time and sleeps off the debt, so
+// waiters are served in arrival order. A rate of 0 means unlimited.
+final class TokenBucket {
+    private long rate;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private volatile long lastUsedAt = System.nanoTime();
+
+    TokenBucket(long rate) {
+        this.rate = rate;
+        this.tokens = rate;
+    }
+
+    synchronized void setRate(long rate) {
+        refill();
+        this.rate = rate;
+        tokens = Math.min(tokens, rate);
+    }
+
+    // Takes the tokens, waiting for as long as the bucket is in debt
+    void acquire(long amount) throws InterruptedIOException {
+        long waitNanos = reserve(amount);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while shaping egress");
+            }
+        }
+    }
+
+    // Takes the tokens without waiting; later acquirers pay for the debt
+    void consume(long amount) {
+        reserve(amount);
+    }
+
+    // Takes one token if available; otherwise returns how long until one is, leaving the bucket as is
+    synchronized long tryAcquire() {
+        lastUsedAt = System.nanoTime();
+        if (rate <= 0) {
+            return 0;
+        }
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    long lastUsedAt() {
+        return lastUsedAt;
+    }
+
+    private synchronized long reserve(long amount) {
+        lastUsedAt = System.nanoTime();
+        if (rate <= 0) {
+            return 0;
+        }
+        refill();
+        tokens -= amount;
+        return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - refilledAt) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+    }
+}
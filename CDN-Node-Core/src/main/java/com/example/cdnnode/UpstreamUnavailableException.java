@@ -0,0 +1,20 @@
+package com.example.cdnnode;
+
+// Thrown when no origin replica can serve a request before its deadline
+public class UpstreamUnavailableException extends RuntimeException {
+    private final boolean timedOut;
+
+    public UpstreamUnavailableException(String message, boolean timedOut) {
+        super(message);
+        this.timedOut = timedOut;
+    }
+
+    public UpstreamUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+        this.timedOut = false;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
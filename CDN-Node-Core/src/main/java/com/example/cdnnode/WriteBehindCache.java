@@ -0,0 +1,321 @@
+package com.example.cdnnode;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Persists disk-tier fills off the response path. A miss is answered from the bytes fetched
+// from the origin and the fill is queued here; writer threads take queued fills in batches,
+// stage each in a temp file on its volume, sync according to cdn.write-behind.fsync and only
+// then rename it into place, so readers see either no file or the whole file. Until then the
+// bytes are served from the pending map. Queued bytes are capped: a fill that finds no room
+// within enqueue-timeout-ms is not cached, so a slow disk cannot grow the heap without bound.
+@Component
+public class WriteBehindCache {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindCache.class);
+
+    // none: rename without syncing; batch: sync a batch's files together, then rename them and
+    // sync their directories once; always: sync, rename and sync the directory per file
+    public static final String FSYNC_NONE = "none";
+    public static final String FSYNC_BATCH = "batch";
+    public static final String FSYNC_ALWAYS = "always";
+
+    private static final String OUTCOME_WRITTEN = "written";
+    private static final String OUTCOME_FAILED = "failed";
+    private static final String OUTCOME_DROPPED = "dropped";
+    private static final String OUTCOME_CANCELLED = "cancelled";
+
+    private static final class Fill {
+        private final String cacheKey;
+        private final Path target;
+        private final byte[] data;
+        private final String sha256;
+        private final int kilobytes;
+        private CacheIntegrity.Staged staged;
+
+        private Fill(String cacheKey, Path target, byte[] data, String sha256, int kilobytes) {
+            this.cacheKey = cacheKey;
+            this.target = target;
+            this.data = data;
+            this.sha256 = sha256;
+            this.kilobytes = kilobytes;
+        }
+    }
+
+    private final CacheVolumes volumes;
+    private final CacheIntegrity integrity;
+    private final MappedFileCache mappedFiles;
+    private final CdnMetrics metrics;
+    private final ObservationRegistry observationRegistry;
+    private final BlockingQueue<Fill> queue = new LinkedBlockingQueue<>();
+    // Latest queued fill per key; a fill that is no longer here was cancelled or superseded
+    private final Map<String, Fill> pending = new ConcurrentHashMap<>();
+    private final int maxPendingKb;
+    // Room left in the queue, in KB
+    private final Semaphore room;
+    private final List<Thread> writers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    @Value("${cdn.write-behind.threads:2}")
+    private int threads;
+
+    @Value("${cdn.write-behind.fsync:batch}")
+    private String fsync;
+
+    @Value("${cdn.write-behind.batch-max-files:64}")
+    private int batchMaxFiles;
+
+    @Value("${cdn.write-behind.batch-max-kb:8192}")
+    private long batchMaxKb;
+
+    @Value("${cdn.write-behind.enqueue-timeout-ms:50}")
+    private long enqueueTimeoutMs;
+
+    @Value("${cdn.write-behind.shutdown-flush-ms:10000}")
+    private long shutdownFlushMs;
+
+    public WriteBehindCache(CacheVolumes volumes, CacheIntegrity integrity, MappedFileCache mappedFiles,
+                            CdnMetrics metrics, ObservationRegistry observationRegistry,
+                            @Value("${cdn.write-behind.max-pending-mb:256}") long maxPendingMb) {
+        this.volumes = volumes;
+        this.integrity = integrity;
+        this.mappedFiles = mappedFiles;
+        this.metrics = metrics;
+        this.observationRegistry = observationRegistry;
+        this.maxPendingKb = (int) Math.min(Integer.MAX_VALUE, maxPendingMb * 1024);
+        this.room = new Semaphore(maxPendingKb);
+        metrics.gauge("cdn.cache.write-behind.pending", "Bytes of fills waiting to be written (KB granularity)",
+                () -> (long) (maxPendingKb - room.availablePermits()) * 1024);
+    }
+
+    @PostConstruct
+    void start() {
+        for (int i = 0; i < threads; i++) {
+            Thread writer = new Thread(this::drain, "write-behind-" + (i + 1));
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+    }
+
+    // Queues a fill whose bytes were already checked against 'sha256'. Waits up to
+    // enqueue-timeout-ms for room; false means the fill was dropped and will not be cached.
+    // A fill larger than the whole queue needs the queue to itself.
+    public boolean submit(String cacheKey, Path target, byte[] data, String sha256) {
+        Fill fill = new Fill(cacheKey, target, data, sha256, Math.min(kilobytes(data.length), maxPendingKb));
+        boolean admitted = false;
+        try {
+            admitted = room.tryAcquire(fill.kilobytes, enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!admitted) {
+            metrics.writeBehind(OUTCOME_DROPPED);
+            return false;
+        }
+        pending.put(cacheKey, fill);
+        queue.add(fill);
+        return true;
+    }
+
+    // Bytes of a fill not yet on disk, or null
+    public byte[] pending(String cacheKey) {
+        Fill fill = pending.get(cacheKey);
+        return fill == null ? null : fill.data;
+    }
+
+    // Stops a queued fill from being published. Returns once a publish already under way has
+    // finished, so a caller deleting the file afterwards cannot be overtaken by it.
+    public boolean cancel(String cacheKey) {
+        Fill fill = pending.remove(cacheKey);
+        if (fill == null) {
+            return false;
+        }
+        synchronized (fill) {
+            return true;
+        }
+    }
+
+    // Waits until everything queued so far is written or dropped, or the timeout passes
+    public void flush(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (room.availablePermits() < maxPendingKb && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void drain() {
+        List<Fill> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Fill first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long batchKb = first.kilobytes;
+                Fill next;
+                while (batch.size() < batchMaxFiles && batchKb < batchMaxKb && (next = queue.poll()) != null) {
+                    batch.add(next);
+                    batchKb += next.kilobytes;
+                }
+                // The same span as a synchronous fill (see CdnController.fill), one per batch
+                Observation.createNotStarted("cdn.cache.write", observationRegistry)
+                        .lowCardinalityKeyValue("tier", CdnMetrics.TIER_DISK)
+                        .highCardinalityKeyValue("files", String.valueOf(batch.size()))
+                        .observe(() -> write(batch));
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            } finally {
+                for (Fill fill : batch) {
+                    pending.remove(fill.cacheKey, fill);
+                    room.release(fill.kilobytes);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    // Stages every fill of the batch before any of them is renamed, so with fsync=batch the
+    // syncs run back to back and each directory is synced once after the renames
+    private void write(List<Fill> batch) {
+        List<Fill> staged = new ArrayList<>();
+        for (Fill fill : batch) {
+            if (pending.get(fill.cacheKey) != fill) {
+                metrics.writeBehind(OUTCOME_CANCELLED);
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                fill.staged = volumes.write(fill.target, fill.data.length, () -> {
+                    CacheIntegrity.Staged written = integrity.stage(fill.target,
+                            new ByteArrayInputStream(fill.data), fill.cacheKey, fill.sha256);
+                    if (FSYNC_ALWAYS.equals(fsync)) {
+                        force(written.temp());
+                    }
+                    return written;
+                });
+                metrics.cacheFill(CdnMetrics.TIER_DISK, System.nanoTime() - start);
+                if (FSYNC_ALWAYS.equals(fsync)) {
+                    publish(fill);
+                    syncDirectory(fill.target.getParent());
+                } else {
+                    staged.add(fill);
+                }
+            } catch (IOException e) {
+                failed(fill, e);
+            }
+        }
+        if (FSYNC_BATCH.equals(fsync)) {
+            for (Fill fill : new ArrayList<>(staged)) {
+                try {
+                    volumes.run(fill.target, () -> {
+                        force(fill.staged.temp());
+                        return null;
+                    });
+                } catch (IOException e) {
+                    staged.remove(fill);
+                    failed(fill, e);
+                }
+            }
+        }
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Fill fill : staged) {
+            try {
+                publish(fill);
+                directories.add(fill.target.getParent());
+            } catch (IOException e) {
+                failed(fill, e);
+            }
+        }
+        if (FSYNC_BATCH.equals(fsync)) {
+            directories.forEach(this::syncDirectory);
+        }
+    }
+
+    // Renames the staged file into place unless the fill was cancelled in the meantime
+    private void publish(Fill fill) throws IOException {
+        synchronized (fill) {
+            if (pending.get(fill.cacheKey) != fill) {
+                integrity.discard(fill.staged);
+                metrics.writeBehind(OUTCOME_CANCELLED);
+                return;
+            }
+            volumes.run(fill.target, () -> {
+                mappedFiles.evict(fill.target);
+                return integrity.publish(fill.staged);
+            });
+        }
+        metrics.writeBehind(OUTCOME_WRITTEN);
+    }
+
+    private void failed(Fill fill, IOException e) {
+        metrics.writeBehind(OUTCOME_FAILED);
+        logger.warn("Write-behind of {} failed: {}", fill.cacheKey, e.getMessage());
+        if (fill.staged != null) {
+            try {
+                integrity.discard(fill.staged);
+            } catch (IOException discardFailure) {
+                logger.debug("Could not remove {}: {}", fill.staged.temp(), discardFailure.getMessage());
+            }
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // Makes the renames durable; not every platform can open a directory (Windows cannot)
+    private void syncDirectory(Path directory) {
+        try {
+            volumes.run(directory, () -> {
+                try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                    channel.force(true);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            logger.debug("Could not sync directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static int kilobytes(long bytes) {
+        return (int) Math.max(1, (bytes + 1023) / 1024);
+    }
+
+    // Writes what is still queued, for at most shutdown-flush-ms
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownFlushMs;
+        for (Thread writer : writers) {
+            writer.join(Math.max(1, deadline - System.currentTimeMillis()));
+            writer.interrupt();
+        }
+    }
+}
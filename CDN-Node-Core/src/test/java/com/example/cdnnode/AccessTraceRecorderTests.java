@@ -0,0 +1,61 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccessTraceRecorderTests {
+    @TempDir
+    Path root;
+
+    private AccessTraceRecorder recorder(long flushMs) {
+        AccessTraceRecorder recorder = new AccessTraceRecorder(new CdnMetrics(new SimpleMeterRegistry()), 65536);
+        ReflectionTestUtils.setField(recorder, "enabled", true);
+        ReflectionTestUtils.setField(recorder, "dir", root.toString());
+        ReflectionTestUtils.setField(recorder, "sampleRate", 1.0);
+        ReflectionTestUtils.setField(recorder, "maxFileMb", 256L);
+        ReflectionTestUtils.setField(recorder, "flushMs", flushMs);
+        recorder.start();
+        return recorder;
+    }
+
+    private long recordsWritten() throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.mapToLong(file -> (file.toFile().length() - AccessTrace.HEADER_BYTES)
+                    / AccessTrace.RECORD_BYTES).sum();
+        }
+    }
+
+    @Test
+    void stopWritesEveryQueuedRecord() throws Exception {
+        AccessTraceRecorder recorder = recorder(1000);
+        for (int i = 0; i < 50_000; i++) {
+            recorder.record("s/t/f" + i, 1024, i % 2 == 0);
+        }
+
+        recorder.stop();
+
+        assertThat(recordsWritten()).isEqualTo(50_000);
+    }
+
+    @Test
+    void stopDoesNotWaitOutTheFlushInterval() throws Exception {
+        AccessTraceRecorder recorder = recorder(60_000);
+        recorder.record("s/t/f", 1024, true);
+        Thread.sleep(100);
+
+        long started = System.nanoTime();
+        recorder.stop();
+
+        assertThat((System.nanoTime() - started) / 1_000_000).isLessThan(5000);
+        assertThat(recordsWritten()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.cdnnode;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BulkArchiveStreamerTests {
+
+    @Test
+    void writesEntriesInRequestOrderAndListsMissingKeys() throws IOException {
+        BulkArchiveStreamer streamer = new BulkArchiveStreamer(4, 1);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        streamer.write(List.of("s/t/a", "s/t/gone", "s/t/b", "s/../secret"),
+                key -> key.endsWith("gone") ? null : bytes(key), archive);
+
+        List<String> names = new ArrayList<>();
+        String missing = null;
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                names.add(entry.getName());
+                String content = new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+                if (entry.getName().equals(BulkArchiveStreamer.MISSING_ENTRY)) {
+                    missing = content;
+                } else {
+                    assertThat(content).isEqualTo(entry.getName());
+                }
+            }
+        }
+        assertThat(names).containsExactly("s/t/a", "s/t/b", BulkArchiveStreamer.MISSING_ENTRY);
+        assertThat(missing).isEqualTo("s/t/gone\ns/../secret");
+    }
+
+    @Test
+    void refusesKeysOutsideTheirDirectory() {
+        assertThat(BulkArchiveStreamer.split("s/t/f.mp4")).containsExactly("s", "t", "f.mp4");
+        assertThat(BulkArchiveStreamer.split("../t/f")).isNull();
+        assertThat(BulkArchiveStreamer.split("s/./f")).isNull();
+        assertThat(BulkArchiveStreamer.split("s//f")).isNull();
+        assertThat(BulkArchiveStreamer.split("s/t/a\\..\\f")).isNull();
+        assertThat(BulkArchiveStreamer.split("s/t/f/g")).isNull();
+    }
+
+    @Test
+    void releasesLoadedEntriesWhenTheClientGoesAway() throws InterruptedException {
+        BulkArchiveStreamer streamer = new BulkArchiveStreamer(4, 64);
+        AtomicInteger pinned = new AtomicInteger();
+        List<String> keys = List.of("s/t/0", "s/t/1", "s/t/2", "s/t/3", "s/t/4");
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        assertThatThrownBy(() -> streamer.write(keys, key -> {
+            pinned.incrementAndGet();
+            return new BulkArchiveStreamer.Content(
+                    new ReleasableBody(out -> out.write(new byte[1024]), pinned::decrementAndGet), 1024);
+        }, disconnected)).isInstanceOf(IOException.class);
+
+        // Loads still running when the writer gave up discard their entries as they finish
+        for (int i = 0; i < 100 && pinned.get() != 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(pinned.get()).isEqualTo(0);
+    }
+
+    @Test
+    void stopsLoadingAheadOnceTheWindowIsFull() throws IOException {
+        BulkArchiveStreamer streamer = new BulkArchiveStreamer(8, 1);
+        AtomicInteger loaded = new AtomicInteger();
+        AtomicInteger mostAhead = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add("s/t/" + i);
+        }
+        streamer.write(keys, key -> {
+            loaded.incrementAndGet();
+            return new BulkArchiveStreamer.Content(out -> {
+                mostAhead.accumulateAndGet(loaded.get() - written.get(), Math::max);
+                written.incrementAndGet();
+                out.write(1);
+            }, 1024 * 1024);
+        }, new ByteArrayOutputStream());
+
+        // Each entry fills the 1 MB window, so at most the in-flight loads run past it
+        assertThat(written.get()).isEqualTo(20);
+        assertThat(mostAhead.get()).isLessThanOrEqualTo(8);
+    }
+
+    private static BulkArchiveStreamer.Content bytes(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        return new BulkArchiveStreamer.Content(out -> out.write(data), data.length);
+    }
+}
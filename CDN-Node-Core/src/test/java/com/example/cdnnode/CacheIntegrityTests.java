@@ -0,0 +1,102 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CacheIntegrityTests {
+    private static final byte[] CONTENT = "hello, cache".getBytes(StandardCharsets.UTF_8);
+    private static final String CONTENT_SHA256 = ContentAddressedStore.sha256(CONTENT);
+
+    @TempDir
+    Path root;
+
+    private CacheIntegrity integrity;
+
+    @BeforeEach
+    void setUp() {
+        CdnMetrics metrics = new CdnMetrics(new SimpleMeterRegistry());
+        MappedFileCache mappedFiles = new MappedFileCache(metrics);
+        integrity = new CacheIntegrity(new CacheVolumes(metrics, mappedFiles), metrics, mappedFiles,
+                new OffHeapCache(metrics), Long.MAX_VALUE);
+        ReflectionTestUtils.setField(integrity, "cdnCacheDir", root.toString());
+    }
+
+    @Test
+    void stagedFillIsInvisibleUntilPublished() throws IOException {
+        Path target = root.resolve("s/t/a.bin");
+        CacheIntegrity.Staged staged = integrity.stage(target, new ByteArrayInputStream(CONTENT), "s/t/a.bin",
+                CONTENT_SHA256);
+        assertThat(target).doesNotExist();
+        assertThat(staged.sha256()).isEqualTo(CONTENT_SHA256);
+
+        CacheIntegrity.Checksum checksum = integrity.publish(staged);
+        assertThat(Files.readAllBytes(target)).isEqualTo(CONTENT);
+        assertThat(staged.temp()).doesNotExist();
+        assertThat(checksum.size()).isEqualTo((long) CONTENT.length);
+        assertThat(integrity.recorded(target).sha256()).isEqualTo(CONTENT_SHA256);
+    }
+
+    @Test
+    void rejectsAFillThatDoesNotMatchTheExpectedDigest() throws IOException {
+        Path target = root.resolve("s/t/a.bin");
+        assertThatThrownBy(() -> integrity.write(target, new ByteArrayInputStream(CONTENT), "s/t/a.bin",
+                "0".repeat(64))).isInstanceOf(ChecksumMismatchException.class);
+        assertThat(target).doesNotExist();
+        try (Stream<Path> temps = Files.list(root.resolve(".tmp"))) {
+            assertThat(temps.toList()).isEmpty();
+        }
+    }
+
+    @Test
+    void sidecarSurvivesARestartAndLeavesNoTempFiles() throws IOException {
+        Path target = root.resolve("s/t/a.bin");
+        integrity.write(target, new ByteArrayInputStream(CONTENT), "s/t/a.bin", null);
+
+        Path sidecar = root.resolve(".checksums/s/t/a.bin.sha256");
+        assertThat(sidecar).exists();
+        try (Stream<Path> files = Files.list(sidecar.getParent())) {
+            assertThat(files.toList()).containsExactly(sidecar);
+        }
+
+        setUp();
+        assertThat(integrity.recorded(target).sha256()).isEqualTo(CONTENT_SHA256);
+        assertThat(integrity.verifyOnHit(target)).isTrue();
+    }
+
+    @Test
+    void quarantinesAHitWhoseFileChangedUnderneath() throws IOException {
+        Path target = root.resolve("s/t/a.bin");
+        integrity.write(target, new ByteArrayInputStream(CONTENT), "s/t/a.bin", null);
+        Files.write(target, "tampered".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(target, FileTime.fromMillis(0));
+
+        assertThat(integrity.verifyOnHit(target)).isFalse();
+        assertThat(target).doesNotExist();
+        assertThat(integrity.recorded(target)).isNull();
+        try (Stream<Path> quarantined = Files.walk(root.resolve(".quarantine"))) {
+            assertThat(quarantined.filter(Files::isRegularFile).toList()).hasSize(1);
+        }
+    }
+
+    @Test
+    void fileWithoutARecordPassesTheHitCheck() throws IOException {
+        Path target = root.resolve("s/t/legacy.bin");
+        Files.createDirectories(target.getParent());
+        Files.write(target, CONTENT);
+        assertThat(integrity.verifyOnHit(target)).isTrue();
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CacheVolumesTests {
+    @TempDir
+    Path root;
+
+    private final List<CacheVolumes> started = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        started.forEach(CacheVolumes::shutdown);
+    }
+
+    @Test
+    void spreadsKeysInProportionToWeight() throws IOException {
+        CacheVolumes volumes = start(1, "a=1", "b=1", "c=2");
+        Map<Path, Integer> owned = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            owned.merge(volumes.rootOf(volumes.placement("s", "t", "file-" + i)), 1, Integer::sum);
+        }
+        assertThat(owned.get(root.resolve("a"))).isBetween(4400, 5600);
+        assertThat(owned.get(root.resolve("b"))).isBetween(4400, 5600);
+        assertThat(owned.get(root.resolve("c"))).isBetween(9000, 11000);
+    }
+
+    @Test
+    void removingAVolumeOnlyMovesTheKeysItOwned() throws IOException {
+        CacheVolumes three = start(1, "a=1", "b=1", "c=1");
+        CacheVolumes two = start(1, "a=1", "b=1");
+        int moved = 0;
+        for (int i = 0; i < 5000; i++) {
+            Path before = three.rootOf(three.placement("s", "t", "file-" + i));
+            Path after = two.rootOf(two.placement("s", "t", "file-" + i));
+            if (!before.equals(root.resolve("c"))) {
+                assertThat(after).isEqualTo(before);
+            } else {
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(1400, 1950);
+    }
+
+    @Test
+    void limitsOpenReadersPerVolume() throws IOException {
+        CacheVolumes volumes = start(1, "a=1");
+        Path file = Files.createDirectories(root.resolve("a/s/t")).resolve("f");
+        Files.writeString(file, "content");
+
+        CacheVolumes.Reader first = volumes.open(file);
+        assertThat(first.size()).isEqualTo(7L);
+        assertThatThrownBy(() -> volumes.open(file)).isInstanceOf(CacheVolumeBusyException.class);
+        first.close();
+        first.close();
+        try (CacheVolumes.Reader second = volumes.open(file)) {
+            assertThat(new String(second.readAll())).isEqualTo("content");
+        }
+    }
+
+    @Test
+    void discardsWhatAVolumeHeldWhenItComesBackOnline() throws Exception {
+        CacheVolumes volumes = start(1, "a=1", "b=1");
+        Path file = volumes.placement("s", "t", "f");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "possibly invalidated while offline");
+        Path volumeRoot = volumes.rootOf(file);
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> volumes.run(file, () -> {
+                throw new IOException("disk error");
+            })).isInstanceOf(IOException.class);
+        }
+        assertThat(volumes.rootOf(volumes.placement("s", "t", "f"))).isNotEqualTo(volumeRoot);
+        assertThat(volumes.locate("s", "t", "f")).isNull();
+
+        volumes.probeOffline();
+        assertThat(volumes.placement("s", "t", "f")).isEqualTo(file);
+        assertThat(volumes.locate("s", "t", "f")).isNull();
+        assertThat(awaitEmpty(volumeRoot)).isTrue();
+    }
+
+    // The moved-aside contents are deleted in the background
+    private static boolean awaitEmpty(Path dir) throws Exception {
+        for (int i = 0; i < 250; i++) {
+            try (Stream<Path> children = Files.list(dir)) {
+                if (children.findAny().isEmpty()) {
+                    return true;
+                }
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private CacheVolumes start(int readersPerVolume, String... specs) throws IOException {
+        CdnMetrics metrics = new CdnMetrics(new SimpleMeterRegistry());
+        CacheVolumes volumes = new CacheVolumes(metrics, new MappedFileCache(metrics));
+        String[] resolved = new String[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            resolved[i] = root.resolve(specs[i].substring(0, specs[i].indexOf('='))) + specs[i].substring(specs[i].indexOf('='));
+        }
+        ReflectionTestUtils.setField(volumes, "cdnCacheDir", root.toString());
+        ReflectionTestUtils.setField(volumes, "volumeSpecs", resolved);
+        ReflectionTestUtils.setField(volumes, "ioThreads", 2);
+        ReflectionTestUtils.setField(volumes, "ioQueueSize", 16);
+        ReflectionTestUtils.setField(volumes, "ioTimeoutMs", 2000L);
+        ReflectionTestUtils.setField(volumes, "readersPerVolume", readersPerVolume);
+        ReflectionTestUtils.setField(volumes, "minReadMbPerSecond", 20L);
+        ReflectionTestUtils.setField(volumes, "minWriteMbPerSecond", 20L);
+        ReflectionTestUtils.setField(volumes, "failureThreshold", 2);
+        volumes.init();
+        started.add(volumes);
+        return volumes;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeFeedSubscriberTests {
+    private static final String HASH = "a".repeat(64);
+    private static final String OTHER_HASH = "b".repeat(64);
+
+    @TempDir
+    Path root;
+
+    @Test
+    void keepsACopyWithTheOriginsHash() {
+        assertThat(isCurrent(HASH, 1_000, HASH, 9_000)).isTrue();
+        assertThat(isCurrent(HASH, 9_000, OTHER_HASH, 1_000)).isFalse();
+    }
+
+    @Test
+    void fallsBackToModificationTimesWithoutAHash() {
+        assertThat(isCurrent(null, 5_000, HASH, 4_000)).isTrue();
+        assertThat(isCurrent(HASH, 5_000, null, 5_999)).isTrue();
+        assertThat(isCurrent(null, 5_000, HASH, 6_000)).isFalse();
+        assertThat(isCurrent(null, -1, HASH, 0)).isFalse();
+    }
+
+    @Test
+    void dropsWhatTheOriginNoLongerLists() {
+        assertThat(ChangeFeedSubscriber.isCurrent(new CdnController.CachedVersion(HASH, 1_000), null)).isFalse();
+    }
+
+    @Test
+    void keepsAContentStoreEntryTheOriginSendsNoHashFor() throws Exception {
+        ContentAddressedStore store = new ContentAddressedStore(new CdnMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "cdnCacheDir", root.toString());
+        store.loadIndex();
+        byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+        store.store("s/t/f", null, content);
+        Files.setLastModifiedTime(root.resolve(".refs/s/t/f"), FileTime.fromMillis(10_000));
+
+        CdnController.CachedVersion cached = new CdnController.CachedVersion(store.hashOf("s/t/f"),
+                store.linkedAt("s/t/f"));
+        assertThat(ChangeFeedSubscriber.isCurrent(cached, listed(null, 9_000))).isTrue();
+        assertThat(ChangeFeedSubscriber.isCurrent(cached, listed(null, 11_000))).isFalse();
+
+        // A refill with the same content records when it happened
+        store.store("s/t/f", null, content);
+        assertThat(store.linkedAt("s/t/f")).isGreaterThan(11_000L);
+    }
+
+    private static ChangeFeedSubscriber.Entry listed(String sha256, long lastModified) {
+        return new ChangeFeedSubscriber.Entry("f", 1, lastModified, "video/mp4", sha256);
+    }
+
+    private static boolean isCurrent(String cachedHash, long cachedAt, String originHash, long originModified) {
+        return ChangeFeedSubscriber.isCurrent(new CdnController.CachedVersion(cachedHash, cachedAt),
+                listed(originHash, originModified));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.cdnnode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTests {
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("origin", 3, 60000);
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.isAvailable()).isFalse();
+    }
+
+    @Test
+    void successResetsTheFailureRun() {
+        CircuitBreaker breaker = new CircuitBreaker("origin", 2, 60000);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void admitsOneTrialOnceTheOpenPeriodHasElapsed() {
+        CircuitBreaker breaker = new CircuitBreaker("origin", 1, 0);
+        breaker.onFailure();
+        assertThat(breaker.isAvailable()).isTrue();
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.isAvailable()).isFalse();
+    }
+
+    @Test
+    void trialSuccessClosesAndTrialFailureReopens() {
+        CircuitBreaker breaker = new CircuitBreaker("origin", 1, 0);
+        breaker.onFailure();
+        breaker.tryAcquire();
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        CircuitBreaker failing = new CircuitBreaker("origin", 5, 0);
+        for (int i = 0; i < 5; i++) {
+            failing.onFailure();
+        }
+        failing.tryAcquire();
+        failing.onFailure();
+        assertThat(failing.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void cancelledTrialHandsTheSlotBack() {
+        CircuitBreaker breaker = new CircuitBreaker("origin", 1, 0);
+        breaker.onFailure();
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.onCancelled();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.isAvailable()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void cancellationIsNotCountedAsAFailure() {
+        CircuitBreaker breaker = new CircuitBreaker("origin", 2, 60000);
+        breaker.onFailure();
+        breaker.onCancelled();
+        breaker.onCancelled();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.cdnnode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrencyLimiterTests {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void rejectsOnceTheLimitIsInFlight() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+
+        limiter.release(10 * MS);
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void growsWhileLatencyHoldsSteady() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100);
+        for (int i = 0; i < 50; i++) {
+            saturate(limiter, 10 * MS);
+        }
+        assertThat(limiter.getLimit()).isGreaterThan(10);
+        assertThat(limiter.getLimit()).isLessThanOrEqualTo(100);
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 5, 100);
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, 10 * MS);
+        }
+        int steady = limiter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter, 200 * MS);
+        }
+        assertThat(limiter.getLimit()).isLessThan(steady);
+        assertThat(limiter.getLimit()).isGreaterThanOrEqualTo(5);
+    }
+
+    @Test
+    void learnsNothingFarBelowTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(i % 2 == 0 ? MS : 500 * MS);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(20);
+    }
+
+    // Fills the limit, then releases every permit with the given latency
+    private static void saturate(ConcurrencyLimiter limiter, long rttNanos) {
+        int acquired = 0;
+        while (limiter.tryAcquire()) {
+            acquired++;
+        }
+        for (int i = 0; i < acquired; i++) {
+            limiter.release(rttNanos);
+        }
+    }
+}
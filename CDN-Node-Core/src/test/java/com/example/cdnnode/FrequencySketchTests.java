@@ -0,0 +1,48 @@
+package com.example.cdnnode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FrequencySketchTests {
+
+    @Test
+    void countsEachKeySeparately() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(key(1));
+        }
+        sketch.increment(key(2));
+
+        assertThat(sketch.frequency(key(1))).isEqualTo(5);
+        assertThat(sketch.frequency(key(2))).isEqualTo(1);
+        assertThat(sketch.frequency(key(3))).isZero();
+    }
+
+    @Test
+    void saturatesAtFifteen() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(key(1));
+        }
+        assertThat(sketch.frequency(key(1))).isEqualTo(15);
+    }
+
+    @Test
+    void halvesEveryCountAfterTenIncrementsPerCounterWord() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment(key(1));
+        }
+        // 64 words, so the reset comes with the 640th increment that changed a counter
+        for (int i = 0; i < 640 - 15; i++) {
+            sketch.increment(key(100 + i));
+        }
+        assertThat(sketch.frequency(key(1))).isBetween(7, 8);
+    }
+
+    // Callers pass well-mixed 64-bit hashes
+    private static long key(int i) {
+        return i * 0x9E3779B97F4A7C15L;
+    }
+}
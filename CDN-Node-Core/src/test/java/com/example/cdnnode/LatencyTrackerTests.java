@@ -0,0 +1,37 @@
+package com.example.cdnnode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyTrackerTests {
+
+    @Test
+    void returnsTheFallbackUntilSampled() {
+        assertThat(new LatencyTracker(8).percentile(0.95, 123)).isEqualTo(123);
+    }
+
+    @Test
+    void computesPercentilesOverTheSamples() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        for (int millis = 100; millis >= 1; millis--) {
+            tracker.record(millis);
+        }
+        assertThat(tracker.percentile(0.5, 0)).isEqualTo(50);
+        assertThat(tracker.percentile(0.95, 0)).isEqualTo(95);
+        assertThat(tracker.percentile(1.0, 0)).isEqualTo(100);
+        assertThat(tracker.percentile(0.0, 0)).isEqualTo(1);
+    }
+
+    @Test
+    void keepsOnlyTheMostRecentWindow() {
+        LatencyTracker tracker = new LatencyTracker(4);
+        for (int i = 0; i < 4; i++) {
+            tracker.record(1000);
+        }
+        for (int i = 0; i < 4; i++) {
+            tracker.record(10);
+        }
+        assertThat(tracker.percentile(1.0, 0)).isEqualTo(10);
+    }
+}
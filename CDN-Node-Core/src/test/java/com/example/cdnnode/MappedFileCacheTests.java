@@ -0,0 +1,168 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// A mapping's reference count reaching zero is what unmaps it, so tests check the count
+// instead of touching memory that may already be unmapped
+class MappedFileCacheTests {
+    private static final int KB = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mapsAFileOnceItIsHot() throws IOException {
+        MappedFileCache cache = cache(16, 64);
+        byte[] content = content(32, 1);
+        Path file = file("f", content);
+
+        assertThat(cache.acquire(file, content.length)).isNull();
+        assertThat(cache.acquire(file, content.length)).isNull();
+        MappedFileCache.Mapping mapping = cache.acquire(file, content.length);
+        assertThat(mapping).isNotNull();
+        assertThat(bytes(mapping)).isEqualTo(content);
+        mapping.release();
+
+        assertThat(cache.acquire(file, content.length)).isSameAs(mapping);
+        mapping.release();
+    }
+
+    @Test
+    void keepsAnEvictedMappingUntilTheLastReaderReleasesIt() throws IOException {
+        MappedFileCache cache = cache(16, 64);
+        byte[] content = content(32, 2);
+        Path file = file("f", content);
+        MappedFileCache.Mapping reader = hot(cache, file);
+        MappedFileCache.Mapping second = cache.acquire(file, content.length);
+        assertThat(references(reader)).isEqualTo(3);
+
+        cache.evict(file);
+        assertThat(references(reader)).isEqualTo(2);
+        second.release();
+        assertThat(references(reader)).isEqualTo(1);
+        assertThat(bytes(reader)).isEqualTo(content);
+
+        reader.release();
+        assertThat(references(reader)).isZero();
+        // Eviction also forgets how hot the file was
+        assertThat(cache.acquire(file, content.length)).isNull();
+    }
+
+    @Test
+    void evictUnderDropsOnlyMappingsBelowTheRoot() throws IOException {
+        MappedFileCache cache = cache(16, 64);
+        Path inside = file("a/f", content(32, 3));
+        Path outside = file("b/f", content(32, 4));
+        MappedFileCache.Mapping evicted = hot(cache, inside);
+        MappedFileCache.Mapping kept = hot(cache, outside);
+        evicted.release();
+        kept.release();
+
+        cache.evictUnder(dir.resolve("a"));
+
+        assertThat(references(evicted)).isZero();
+        assertThat(references(kept)).isEqualTo(1);
+        assertThat(cache.acquire(inside, 32 * KB)).isNull();
+        assertThat(cache.acquire(outside, 32 * KB)).isSameAs(kept);
+        kept.release();
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedOverMaxEntries() throws IOException {
+        MappedFileCache cache = cache(2, 64);
+        MappedFileCache.Mapping first = hot(cache, file("1", content(32, 1)));
+        MappedFileCache.Mapping second = hot(cache, file("2", content(32, 2)));
+        first.release();
+        second.release();
+        cache.acquire(dir.resolve("1"), 32 * KB).release();
+
+        MappedFileCache.Mapping third = hot(cache, file("3", content(32, 3)));
+        third.release();
+
+        assertThat(references(first)).isEqualTo(1);
+        assertThat(references(second)).isZero();
+        assertThat(references(third)).isEqualTo(1);
+    }
+
+    @Test
+    void evictsOverCapacityButKeepsTheFileJustMapped() throws IOException {
+        MappedFileCache cache = cache(16, 1);
+        MappedFileCache.Mapping first = hot(cache, file("1", content(400, 1)));
+        MappedFileCache.Mapping second = hot(cache, file("2", content(400, 2)));
+        first.release();
+        second.release();
+
+        MappedFileCache.Mapping third = hot(cache, file("3", content(400, 3)));
+        assertThat(references(first)).isZero();
+        assertThat(references(second)).isEqualTo(1);
+        assertThat(references(third)).isEqualTo(2);
+        third.release();
+
+        // A file larger than the whole capacity still stays mapped while it is the newest
+        ReflectionTestUtils.setField(cache, "maxFileMb", 2L);
+        byte[] large = content(1200, 5);
+        MappedFileCache.Mapping big = hot(cache, file("big", large));
+        assertThat(references(second)).isZero();
+        assertThat(references(third)).isZero();
+        assertThat(bytes(big)).isEqualTo(large);
+        big.release();
+        assertThat(references(big)).isEqualTo(1);
+    }
+
+    private MappedFileCache cache(int maxEntries, long capacityMb) {
+        MappedFileCache cache = new MappedFileCache(new CdnMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", maxEntries);
+        ReflectionTestUtils.setField(cache, "capacityMb", capacityMb);
+        ReflectionTestUtils.setField(cache, "minHits", 3);
+        ReflectionTestUtils.setField(cache, "minFileKb", 16L);
+        ReflectionTestUtils.setField(cache, "maxFileMb", 1L);
+        return cache;
+    }
+
+    // Requests the file until it is mapped; the caller holds one reference
+    private static MappedFileCache.Mapping hot(MappedFileCache cache, Path file) throws IOException {
+        long size = Files.size(file);
+        MappedFileCache.Mapping mapping = null;
+        for (int i = 0; i < 3 && mapping == null; i++) {
+            mapping = cache.acquire(file, size);
+        }
+        assertThat(mapping).isNotNull();
+        return mapping;
+    }
+
+    private static int references(MappedFileCache.Mapping mapping) {
+        return ((AtomicInteger) ReflectionTestUtils.getField(mapping, "references")).get();
+    }
+
+    private static byte[] bytes(MappedFileCache.Mapping mapping) {
+        ByteBuffer slice = mapping.slice();
+        byte[] bytes = new byte[slice.remaining()];
+        slice.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] content(int kb, int value) {
+        byte[] content = new byte[kb * KB];
+        Arrays.fill(content, (byte) value);
+        return content;
+    }
+
+    private Path file(String name, byte[] content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OffHeapCacheTests {
+    private static final int KB = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void servesWhatWasAdmitted() throws IOException {
+        OffHeapCache cache = cache(4, 1, 64, 512);
+        byte[] content = new byte[600 * KB];
+        Arrays.fill(content, (byte) 7);
+        content[content.length - 1] = 9;
+        cache.admit("s/t/f", file("f", content), content.length);
+
+        OffHeapCache.Entry entry = cache.acquire("s/t/f");
+        assertThat(entry).isNotNull();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.writeTo(out);
+        entry.release();
+        assertThat(out.toByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void evictsWithinTheSizeClassThatRanOut() throws IOException {
+        OffHeapCache cache = cache(2, 1, 64, 512);
+        admit(cache, "big-1", 512);
+        admit(cache, "big-2", 512);
+        for (int i = 0; i < 16; i++) {
+            admit(cache, "small-" + i, 64);
+        }
+        lookUp(cache, "small-new", 3);
+        admit(cache, "small-new", 64);
+
+        assertThat(cache.contains("small-new")).isTrue();
+        assertThat(cache.contains("small-0")).isFalse();
+        assertThat(cache.contains("small-1")).isTrue();
+        assertThat(cache.contains("big-1")).isTrue();
+        assertThat(cache.contains("big-2")).isTrue();
+    }
+
+    @Test
+    void reassignsASlabWhenTheClassHoldsNothing() throws IOException {
+        OffHeapCache cache = cache(2, 1, 64, 512);
+        for (int i = 0; i < 32; i++) {
+            admit(cache, "small-" + i, 64);
+        }
+        lookUp(cache, "big", 3);
+        admit(cache, "big", 512);
+
+        assertThat(cache.contains("big")).isTrue();
+        for (int i = 0; i < 16; i++) {
+            assertThat(cache.contains("small-" + i)).isFalse();
+        }
+        for (int i = 16; i < 32; i++) {
+            assertThat(cache.contains("small-" + i)).isTrue();
+        }
+    }
+
+    @Test
+    void refusesANewcomerRequestedLessOftenThanItsVictim() throws IOException {
+        OffHeapCache cache = cache(1, 1, 64);
+        for (int i = 0; i < 16; i++) {
+            admit(cache, "popular-" + i, 64);
+            lookUp(cache, "popular-" + i, 2);
+        }
+        admit(cache, "one-off", 64);
+
+        assertThat(cache.contains("one-off")).isFalse();
+        for (int i = 0; i < 16; i++) {
+            assertThat(cache.contains("popular-" + i)).isTrue();
+        }
+    }
+
+    @Test
+    void rejectsSlabsTooLargeForOneBuffer() {
+        assertThatThrownBy(() -> cache(4096, 2048, 64)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> cache(1, 2, 64)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> cache(4, 1, 96)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private OffHeapCache cache(long capacityMb, int slabSizeMb, int... sizeClassesKb) {
+        OffHeapCache cache = new OffHeapCache(new CdnMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "capacityMb", capacityMb);
+        ReflectionTestUtils.setField(cache, "slabSizeMb", slabSizeMb);
+        ReflectionTestUtils.setField(cache, "sizeClassesKb", sizeClassesKb);
+        ReflectionTestUtils.setField(cache, "maxObjectMb", 256L);
+        cache.validate();
+        return cache;
+    }
+
+    private void admit(OffHeapCache cache, String key, int sizeKb) throws IOException {
+        byte[] content = new byte[sizeKb * KB];
+        cache.admit(key, file(key, content), content.length);
+    }
+
+    private static void lookUp(OffHeapCache cache, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            OffHeapCache.Entry entry = cache.acquire(key);
+            if (entry != null) {
+                entry.release();
+            }
+        }
+    }
+
+    private Path file(String name, byte[] content) throws IOException {
+        return Files.write(dir.resolve(name), content);
+    }
+}
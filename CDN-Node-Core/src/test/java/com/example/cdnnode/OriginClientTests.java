@@ -0,0 +1,122 @@
+package com.example.cdnnode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Against a local server that writes its body in chunks with pauses in between
+class OriginClientTests {
+    private static final int CHUNKS = 5;
+    private static final int CHUNK_BYTES = 1024;
+
+    private HttpServer server;
+    private OriginClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/steady", exchange -> respond(exchange, 0, 400));
+        server.createContext("/stalled", exchange -> respond(exchange, 0, 4000));
+        server.createContext("/late", exchange -> respond(exchange, 2500, 0));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        client = new OriginClient(new NoInstances(), new CdnMetrics(new SimpleMeterRegistry()),
+                ObservationRegistry.NOOP, new RestTemplateBuilder(), 1000, 1000);
+        ReflectionTestUtils.setField(client, "serviceId", "Origin-Server");
+        ReflectionTestUtils.setField(client, "fallbackBaseUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(client, "contextPath", "");
+        ReflectionTestUtils.setField(client, "defaultTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(client, "hedgeEnabled", false);
+        ReflectionTestUtils.setField(client, "hedgeMinDelayMs", 50L);
+        ReflectionTestUtils.setField(client, "hedgeMaxBytes", 4L * 1024 * 1024);
+        ReflectionTestUtils.setField(client, "failureThreshold", 5);
+        ReflectionTestUtils.setField(client, "breakerOpenMs", 10000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void bodyMayTakeLongerThanTheDeadline() {
+        ResponseEntity<byte[]> response = client.getObject("/steady", Deadline.afterMillis(1000),
+                (status, headers, body) -> body.readAllBytes());
+        assertThat(response.getBody()).hasSize(CHUNKS * CHUNK_BYTES);
+    }
+
+    @Test
+    void stalledBodyFailsAfterTheReadTimeout() {
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> client.getObject("/stalled", Deadline.afterMillis(1000),
+                (status, headers, body) -> body.readAllBytes()))
+                .isInstanceOf(UpstreamUnavailableException.class);
+        assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(3000L);
+    }
+
+    @Test
+    void headersLaterThanTheDeadlineTimeOut() {
+        assertThatThrownBy(() -> client.getObject("/late", Deadline.afterMillis(1000),
+                (status, headers, body) -> body.readAllBytes()))
+                .isInstanceOf(UpstreamUnavailableException.class)
+                .hasMessageContaining("deadline");
+    }
+
+    private static void respond(HttpExchange exchange, long headerDelayMs, long chunkDelayMs) {
+        try (OutputStream out = exchange.getResponseBody()) {
+            pause(headerDelayMs);
+            exchange.sendResponseHeaders(200, (long) CHUNKS * CHUNK_BYTES);
+            for (int i = 0; i < CHUNKS; i++) {
+                out.write(new byte[CHUNK_BYTES]);
+                out.flush();
+                pause(chunkDelayMs);
+            }
+        } catch (IOException e) {
+            // the client gave up
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class NoInstances implements DiscoveryClient {
+        @Override
+        public String description() {
+            return "none";
+        }
+
+        @Override
+        public List<ServiceInstance> getInstances(String serviceId) {
+            return List.of();
+        }
+
+        @Override
+        public List<String> getServices() {
+            return List.of();
+        }
+    }
+}
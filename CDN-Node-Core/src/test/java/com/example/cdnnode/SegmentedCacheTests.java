@@ -0,0 +1,190 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Segments are 1 MB; the fake origin serves ranges of CONTENT while If-Range matches its ETag
+class SegmentedCacheTests {
+    private static final String KEY = "s/t/f.mp4";
+    private static final long MB = 1024L * 1024L;
+    private static final byte[] CONTENT = new byte[(int) (3 * MB + 100)];
+
+    static {
+        for (int i = 0; i < CONTENT.length; i++) {
+            CONTENT[i] = (byte) (i % 251);
+        }
+    }
+
+    @TempDir
+    Path root;
+
+    private FakeOrigin origin;
+    private SegmentedCache cache;
+    private SegmentedCache.Metadata metadata;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        origin = new FakeOrigin();
+        cache = new SegmentedCache(origin, new CdnMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(cache, "cdnCacheDir", root.toString());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "segmentSizeMb", 1L);
+        ReflectionTestUtils.setField(cache, "minSizeMb", 1L);
+        ReflectionTestUtils.setField(cache, "capacityMb", 16L);
+        cache.loadIndex();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentLength(CONTENT.length);
+        headers.setContentType(MediaType.parseMediaType("video/mp4"));
+        headers.setETag("\"v1\"");
+        metadata = cache.remember(KEY, headers);
+    }
+
+    @Test
+    void servesRangesAcrossSegmentsAndFillsEachOnce() throws IOException {
+        long start = MB - 10;
+        long end = 2 * MB + 10;
+
+        assertThat(read(start, end)).isEqualTo(Arrays.copyOfRange(CONTENT, (int) start, (int) end + 1));
+        assertThat(origin.requested).containsExactly(0L, MB, 2 * MB);
+
+        assertThat(read(start, end)).isEqualTo(Arrays.copyOfRange(CONTENT, (int) start, (int) end + 1));
+        assertThat(origin.requested).hasSize(3);
+        assertThat(read(3 * MB, CONTENT.length - 1))
+                .isEqualTo(Arrays.copyOfRange(CONTENT, (int) (3 * MB), CONTENT.length));
+        assertThat(origin.requested).containsExactly(0L, MB, 2 * MB, 3 * MB);
+    }
+
+    @Test
+    void wholeFileAnswerDiscardsEverySegment() throws IOException {
+        read(0, 2 * MB - 1);
+        assertThat(segment(0)).exists();
+        assertThat(segment(1)).exists();
+
+        // The file changed at the origin, so If-Range no longer matches and it answers 200
+        origin.etag = "\"v2\"";
+        assertThatThrownBy(() -> read(2 * MB, 2 * MB + 10))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("changed");
+
+        assertThat(segment(0)).doesNotExist();
+        assertThat(segment(1)).doesNotExist();
+        assertThat(segment(2)).doesNotExist();
+        assertThat(cache.metadata(KEY)).isNull();
+        assertThat(cache.keys()).isEmpty();
+    }
+
+    @Test
+    void incompleteSegmentIsNotKept() throws IOException {
+        origin.truncate = true;
+        assertThatThrownBy(() -> read(0, 10))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("incomplete");
+        assertThat(segment(0)).doesNotExist();
+
+        origin.truncate = false;
+        assertThat(read(0, 10)).isEqualTo(Arrays.copyOfRange(CONTENT, 0, 11));
+        assertThat(origin.requested).containsExactly(0L, 0L);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedSegment() throws IOException {
+        ReflectionTestUtils.setField(cache, "capacityMb", 2L);
+        read(0, 10);
+        read(MB, MB + 10);
+        read(0, 10);
+        read(2 * MB, 2 * MB + 10);
+
+        assertThat(segment(0)).exists();
+        assertThat(segment(1)).doesNotExist();
+        assertThat(segment(2)).exists();
+        assertThat(origin.requested).containsExactly(0L, MB, 2 * MB);
+    }
+
+    @Test
+    void keepsTheSegmentJustFilledEvenOverCapacity() throws IOException {
+        ReflectionTestUtils.setField(cache, "capacityMb", 0L);
+        read(0, 10);
+
+        assertThat(read(MB, MB + 10)).isEqualTo(Arrays.copyOfRange(CONTENT, (int) MB, (int) MB + 11));
+        assertThat(segment(0)).doesNotExist();
+        assertThat(segment(1)).exists();
+    }
+
+    private byte[] read(long start, long end) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write(KEY, "/" + KEY, metadata, start, end, Deadline.afterMillis(5000), out);
+        return out.toByteArray();
+    }
+
+    private Path segment(long index) {
+        return root.resolve(".segments").resolve(KEY).resolve(index + ".seg");
+    }
+
+    private static final class FakeOrigin extends OriginClient {
+        private final List<Long> requested = new ArrayList<>();
+        private volatile String etag = "\"v1\"";
+        private volatile boolean truncate;
+
+        FakeOrigin() {
+            super(new NoInstances(), new CdnMetrics(new SimpleMeterRegistry()), ObservationRegistry.NOOP,
+                    new RestTemplateBuilder(), 1000, 1000);
+        }
+
+        @Override
+        public Deadline deadline(String timeoutHeader) {
+            return Deadline.afterMillis(5000);
+        }
+
+        @Override
+        public synchronized ResponseEntity<byte[]> getRange(String path, long start, long endInclusive,
+                                                            String ifRange, Deadline deadline) {
+            requested.add(start);
+            if (!etag.equals(ifRange)) {
+                return ResponseEntity.ok().build();
+            }
+            int end = truncate ? (int) endInclusive : (int) endInclusive + 1;
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .body(Arrays.copyOfRange(CONTENT, (int) start, end));
+        }
+    }
+
+    private static final class NoInstances implements DiscoveryClient {
+        @Override
+        public String description() {
+            return "none";
+        }
+
+        @Override
+        public List<ServiceInstance> getInstances(String serviceId) {
+            return List.of();
+        }
+
+        @Override
+        public List<String> getServices() {
+            return List.of();
+        }
+    }
+}
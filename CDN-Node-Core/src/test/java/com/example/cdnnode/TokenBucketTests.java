@@ -0,0 +1,76 @@
+package com.example.cdnnode;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenBucketTests {
+
+    @Test
+    void startsFullAndThenAsksToWait() {
+        TokenBucket bucket = new TokenBucket(10);
+        for (int i = 0; i < 10; i++) {
+            assertThat(bucket.tryAcquire()).isZero();
+        }
+        long waitNanos = bucket.tryAcquire();
+        assertThat(waitNanos).isGreaterThan(0);
+        assertThat(waitNanos).isLessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void refusalLeavesTheBucketAsItWas() {
+        TokenBucket bucket = new TokenBucket(1);
+        assertThat(bucket.tryAcquire()).isZero();
+        long first = bucket.tryAcquire();
+        long second = bucket.tryAcquire();
+        assertThat(second).isLessThanOrEqualTo(first);
+    }
+
+    @Test
+    void zeroRateIsUnlimited() throws InterruptedIOException {
+        TokenBucket bucket = new TokenBucket(0);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(bucket.tryAcquire()).isZero();
+        }
+        long start = System.nanoTime();
+        bucket.acquire(Long.MAX_VALUE / 2);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void debtIsPaidByTheNextAcquirer() throws InterruptedIOException {
+        TokenBucket bucket = new TokenBucket(1000);
+        bucket.consume(1100);
+        long start = System.nanoTime();
+        bucket.acquire(1);
+        long waited = System.nanoTime() - start;
+        assertThat(waited).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(80));
+        assertThat(waited).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void loweringTheRateCapsWhatIsStored() {
+        TokenBucket bucket = new TokenBucket(100);
+        bucket.setRate(2);
+        assertThat(bucket.tryAcquire()).isZero();
+        assertThat(bucket.tryAcquire()).isZero();
+        assertThat(bucket.tryAcquire()).isGreaterThan(0);
+    }
+
+    @Test
+    void interruptedWaitIsReportedAsInterruptedIo() {
+        TokenBucket bucket = new TokenBucket(1);
+        bucket.consume(10);
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> bucket.acquire(1)).isInstanceOf(InterruptedIOException.class);
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
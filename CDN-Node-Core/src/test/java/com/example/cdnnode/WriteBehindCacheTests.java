@@ -0,0 +1,150 @@
+package com.example.cdnnode;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Writer threads are only started once the fills under test are queued, so what a test
+// submits stays pending until it calls drain()
+class WriteBehindCacheTests {
+    private static final String KEY = "s/t/f";
+    private static final byte[] FIRST = "first version".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SECOND = "second version".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path root;
+
+    private final List<Observation.Context> observed = new CopyOnWriteArrayList<>();
+    private CacheVolumes volumes;
+    private WriteBehindCache writeBehind;
+    private Path target;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        CdnMetrics metrics = new CdnMetrics(new SimpleMeterRegistry());
+        MappedFileCache mappedFiles = new MappedFileCache(metrics);
+        volumes = new CacheVolumes(metrics, mappedFiles);
+        ReflectionTestUtils.setField(volumes, "cdnCacheDir", root.toString());
+        ReflectionTestUtils.setField(volumes, "volumeSpecs", new String[] {root.resolve("a") + "=1"});
+        ReflectionTestUtils.setField(volumes, "ioThreads", 1);
+        ReflectionTestUtils.setField(volumes, "ioQueueSize", 16);
+        ReflectionTestUtils.setField(volumes, "ioTimeoutMs", 2000L);
+        ReflectionTestUtils.setField(volumes, "readersPerVolume", 4);
+        ReflectionTestUtils.setField(volumes, "minReadMbPerSecond", 20L);
+        ReflectionTestUtils.setField(volumes, "minWriteMbPerSecond", 20L);
+        ReflectionTestUtils.setField(volumes, "failureThreshold", 2);
+        volumes.init();
+
+        CacheIntegrity integrity = new CacheIntegrity(volumes, metrics, mappedFiles, new OffHeapCache(metrics),
+                Long.MAX_VALUE);
+        ReflectionTestUtils.setField(integrity, "cdnCacheDir", root.toString());
+
+        ObservationRegistry observations = ObservationRegistry.create();
+        observations.observationConfig().observationHandler(new ObservationHandler<>() {
+            @Override
+            public void onStop(Observation.Context context) {
+                observed.add(context);
+            }
+
+            @Override
+            public boolean supportsContext(Observation.Context context) {
+                return true;
+            }
+        });
+        writeBehind = new WriteBehindCache(volumes, integrity, mappedFiles, metrics, observations, 1);
+        ReflectionTestUtils.setField(writeBehind, "threads", 1);
+        ReflectionTestUtils.setField(writeBehind, "fsync", WriteBehindCache.FSYNC_NONE);
+        ReflectionTestUtils.setField(writeBehind, "batchMaxFiles", 64);
+        ReflectionTestUtils.setField(writeBehind, "batchMaxKb", 8192L);
+        ReflectionTestUtils.setField(writeBehind, "enqueueTimeoutMs", 10L);
+        ReflectionTestUtils.setField(writeBehind, "shutdownFlushMs", 1000L);
+        target = volumes.placement("s", "t", "f");
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        writeBehind.stop();
+        volumes.shutdown();
+    }
+
+    @Test
+    void servesPendingBytesUntilTheFillIsWritten() throws Exception {
+        assertThat(submit(FIRST)).isTrue();
+        assertThat(writeBehind.pending(KEY)).isEqualTo(FIRST);
+        assertThat(target).doesNotExist();
+
+        drain();
+        assertThat(Files.readAllBytes(target)).isEqualTo(FIRST);
+        assertThat(writeBehind.pending(KEY)).isNull();
+    }
+
+    @Test
+    void tracesEachBatchAsACacheWrite() throws Exception {
+        submit(FIRST);
+        writeBehind.submit("s/t/g", volumes.placement("s", "t", "g"), SECOND, null);
+
+        drain();
+        assertThat(observed).hasSize(1);
+        Observation.Context context = observed.get(0);
+        assertThat(context.getName()).isEqualTo("cdn.cache.write");
+        assertThat(context.getLowCardinalityKeyValue("tier").getValue()).isEqualTo(CdnMetrics.TIER_DISK);
+        assertThat(context.getHighCardinalityKeyValue("files").getValue()).isEqualTo("2");
+    }
+
+    @Test
+    void cancelledFillIsNeverPublished() throws Exception {
+        submit(FIRST);
+        assertThat(writeBehind.cancel(KEY)).isTrue();
+        assertThat(writeBehind.pending(KEY)).isNull();
+
+        drain();
+        assertThat(target).doesNotExist();
+        assertThat(writeBehind.cancel(KEY)).isFalse();
+    }
+
+    @Test
+    void laterFillForTheSameKeySupersedesTheQueuedOne() throws Exception {
+        submit(FIRST);
+        submit(SECOND);
+        assertThat(writeBehind.pending(KEY)).isEqualTo(SECOND);
+
+        drain();
+        assertThat(Files.readAllBytes(target)).isEqualTo(SECOND);
+        assertThat(writeBehind.pending(KEY)).isNull();
+    }
+
+    @Test
+    void dropsAFillThatFindsNoRoomInTheQueue() throws Exception {
+        assertThat(writeBehind.submit("s/t/big", volumes.placement("s", "t", "big"), new byte[1024 * 1024],
+                null)).isTrue();
+        assertThat(submit(FIRST)).isFalse();
+        assertThat(writeBehind.pending(KEY)).isNull();
+
+        drain();
+        assertThat(submit(FIRST)).isTrue();
+    }
+
+    private boolean submit(byte[] content) {
+        return writeBehind.submit(KEY, target, content, ContentAddressedStore.sha256(content));
+    }
+
+    private void drain() throws InterruptedException {
+        writeBehind.start();
+        writeBehind.flush(5000);
+    }
+}
@@ -1,37 +1,70 @@
 package com.example.client;
 
+import com.example.client.loadbalancer.CdnNodeLoadBalancerConfiguration;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClient;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
-import org.springframework.core.io.Resource;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.Arrays;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 @SpringBootApplication
 @EnableDiscoveryClient
+@LoadBalancerClient(name = "cdn-node", configuration = CdnNodeLoadBalancerConfiguration.class)
 public class ClientApplication {
 
+    // Trailing archive entry in which the CDN node lists files it could not serve
+    private static final String MISSING_ENTRY = "MISSING.txt";
+
     @Bean
     @LoadBalanced
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder,
+                                     @Value("${client.request.timeout-ms:30000}") long requestTimeoutMs) {
+        // Built from the Boot builder so requests carry the trace context to the CDN node.
+        // HTTP/2 (h2c) lets catalog calls and downloads to a node share one multiplexed connection.
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        return restTemplateBuilder
+                .requestFactory(() -> new JdkClientHttpRequestFactory(httpClient))
+                // Propagate our time budget so the CDN node can bound its origin fetches
+                .additionalInterceptors((request, body, execution) -> {
+                    request.getHeaders().set("X-Request-Timeout-Ms", String.valueOf(requestTimeoutMs));
+                    return execution.execute(request, body);
+                })
+                .build();
     }
 
     private static ConfigurableApplicationContext context;
+    private static ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+    private static ClientCache clientCache;
+    private static int listPageSize = 50;
 
     public static void main(String[] args) {
-        var context = SpringApplication.run(ClientApplication.class, args);
+        // Kept so that shutdown closes the context and flushes pending spans
+        context = SpringApplication.run(ClientApplication.class, args);
+        observationRegistry = context.getBean(ObservationRegistry.class);
+        clientCache = context.getBean(ClientCache.class);
+        listPageSize = context.getEnvironment().getProperty("client.list.page-size", Integer.class, listPageSize);
 
         RestTemplate restTemplate = context.getBean(RestTemplate.class);
 
@@ -76,18 +109,27 @@ public class ClientApplication {
         }
     }
 
+    // A CDN URL from a path template. Values are encoded whole when expanded, so no character in
+    // a name or cursor can add a path segment or query parameter; the result is sent as is.
+    private static UriComponentsBuilder cdnUrl(String pathTemplate) {
+        return UriComponentsBuilder.fromUriString("http://cdn-node/cdn" + pathTemplate).encode();
+    }
+
+    // The CDN and the origin URL-decode path segments once more after Spring has, so names go
+    // into a path form-encoded; a '+' or '%' in a name then survives both decodes
+    private static String formEncoded(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+
     private static String fetchSeries(RestTemplate restTemplate, Scanner scanner) {
         String seriesUrl = "http://cdn-node/cdn/list-series";
         try {
-            ResponseEntity<String[]> response = restTemplate.getForEntity(seriesUrl, String[].class);
-
-            response.getBody();
-            if (response.getBody().length == 0) {
+            List<String> seriesList = clientCache.catalog(restTemplate, seriesUrl);
+            if (seriesList.isEmpty()) {
                 System.out.println("No series available.");
                 return null;
             }
 
-            List<String> seriesList = Arrays.asList(response.getBody());
             System.out.println("Available series:");
             for (int i = 0; i < seriesList.size(); i++) {
                 System.out.println((i + 1) + ". " + seriesList.get(i));
@@ -103,17 +145,14 @@ public class ClientApplication {
 
 
     private static String fetchTypes(RestTemplate restTemplate, Scanner scanner, String series) {
-        String typesUrl = "http://cdn-node/cdn/list-types/" + series;
+        String typesUrl = cdnUrl("/list-types/{series}").buildAndExpand(formEncoded(series)).toUriString();
         try {
-            ResponseEntity<String[]> response = restTemplate.getForEntity(typesUrl, String[].class);
-
-            response.getBody();
-            if (response.getBody().length == 0) {
+            List<String> typesList = clientCache.catalog(restTemplate, typesUrl);
+            if (typesList.isEmpty()) {
                 System.out.println("No types available for the selected series.");
                 return null;
             }
 
-            List<String> typesList = Arrays.asList(response.getBody());
             System.out.println("Available types:");
             for (int i = 0; i < typesList.size(); i++) {
                 System.out.println((i + 1) + ". " + typesList.get(i));
@@ -128,32 +167,52 @@ public class ClientApplication {
     }
 
     private static void fetchFiles(RestTemplate restTemplate, Scanner scanner, String series, String type) {
-        String encodedSeries = java.net.URLEncoder.encode(series, java.nio.charset.StandardCharsets.UTF_8);
-        String encodedType = java.net.URLEncoder.encode(type, java.nio.charset.StandardCharsets.UTF_8);
-        String listUrl = "http://cdn-node/cdn/list-files/" + encodedSeries + "/" + encodedType;
+        String encodedSeries = formEncoded(series);
+        String encodedType = formEncoded(type);
         try {
-            ResponseEntity<String[]> response = restTemplate.getForEntity(listUrl, String[].class);
-
-            response.getBody();
-            if (response.getBody().length == 0) {
-                System.out.println("No files available.");
-                return;
-            }
-
-            List<String> files = Arrays.asList(response.getBody());
-            System.out.println("Files available:");
-            for (int i = 0; i < files.size(); i++) {
-                System.out.println((i + 1) + ". " + files.get(i));
-            }
-
-            System.out.println("Enter the number of the file you want to download:");
-            int fileIndex = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
-
-            if (fileIndex > 0 && fileIndex <= files.size()) {
+            // Pages are fetched only as the user asks for more
+            List<String> files = new ArrayList<>();
+            String cursor = null;
+            int fileIndex;
+            do {
+                UriComponentsBuilder pageUrl = cdnUrl("/list-files/{series}/{type}").queryParam("limit", listPageSize);
+                if (cursor != null) {
+                    pageUrl.queryParam("cursor", "{cursor}");
+                }
+                ClientCache.Page page = clientCache.catalogPage(restTemplate,
+                        pageUrl.buildAndExpand(encodedSeries, encodedType, cursor).toUriString());
+                if (files.isEmpty() && page.names().isEmpty()) {
+                    System.out.println("No files available.");
+                    return;
+                }
+                if (files.isEmpty()) {
+                    System.out.println("Files available:");
+                }
+                for (String name : page.names()) {
+                    files.add(name);
+                    System.out.println(files.size() + ". " + name);
+                }
+                cursor = page.nextCursor();
+
+                System.out.println("0. Download all files");
+                if (cursor != null) {
+                    System.out.println("-1. Show more files");
+                }
+
+                System.out.println("Enter the number of the file you want to download:");
+                fileIndex = scanner.nextInt();
+                scanner.nextLine(); // Consume newline
+            } while (fileIndex == -1 && cursor != null);
+
+            if (fileIndex == 0) {
+                String bulkUrl = cdnUrl("/bulk/{series}/{type}")
+                        .buildAndExpand(encodedSeries, encodedType).toUriString();
+                fetchAndSaveAll(restTemplate, bulkUrl, series, type);
+            } else if (fileIndex > 0 && fileIndex <= files.size()) {
                 String filename = files.get(fileIndex - 1);
-                String cdnUrl = "http://cdn-node/cdn/" + series + "/" + type + "/" + filename;
-                fetchAndSaveFile(restTemplate, cdnUrl, filename);
+                String cdnUrl = cdnUrl("/{series}/{type}/{filename}")
+                        .buildAndExpand(encodedSeries, encodedType, formEncoded(filename)).toUriString();
+                fetchAndSaveFile(restTemplate, cdnUrl, series + "/" + type + "/" + filename, filename);
             } else {
                 System.out.println("Invalid selection.");
             }
@@ -162,32 +221,82 @@ public class ClientApplication {
         }
     }
 
-    private static void fetchAndSaveFile(RestTemplate restTemplate, String url, String filename) {
-        try {
-            ResponseEntity<Resource> response = restTemplate.getForEntity(url, Resource.class);
-
-            if (response.getStatusCode().is2xxSuccessful()) {
+    // The whole download is one trace: node selection, the CDN request and the local save.
+    // A local copy that is still intact is offered as a validator and kept if it is current.
+    private static void fetchAndSaveFile(RestTemplate restTemplate, String url, String key, String filename) {
+        Observation download = Observation.createNotStarted("client.download", observationRegistry)
+                .highCardinalityKeyValue("file", filename)
+                .start();
+        try (Observation.Scope scope = download.openScope()) {
+            ClientCache.CachedFile cached = clientCache.lookup(key, filename);
+            HttpStatusCode status = restTemplate.execute(URI.create(url), HttpMethod.GET, request -> {
+                if (cached != null) {
+                    request.getHeaders().setIfNoneMatch("\"" + cached.sha256() + "\"");
+                }
+            }, response -> {
+                String serverTiming = response.getHeaders().getFirst("Server-Timing");
+                if (serverTiming != null) {
+                    System.out.println("Server timing: " + serverTiming);
+                }
+                if (response.getStatusCode().is2xxSuccessful()) {
+                    Observation.createNotStarted("client.save", observationRegistry)
+                            .observeChecked(() -> clientCache.store(key, filename, response.getBody()));
+                }
+                return response.getStatusCode();
+            });
+
+            if (status == HttpStatus.NOT_MODIFIED) {
+                System.out.println("File unchanged, using local copy: " + cached.path());
+            } else if (status.is2xxSuccessful()) {
                 System.out.println("File fetched successfully: " + filename);
-                saveFileLocally(response.getBody(), filename);
-                System.out.println("File saved locally in 'downloads/' directory.");
+                System.out.println("File saved locally in '" + clientCache.downloadsDir() + "/' directory.");
             } else {
-                System.out.println("Error fetching file: " + response.getStatusCode());
+                System.out.println("Error fetching file: " + status);
             }
         } catch (Exception e) {
+            download.error(e);
             System.out.println("Failed to fetch file: " + e.getMessage());
+        } finally {
+            download.stop();
         }
 
         // Shutdown the application after the file operation
         shutdownApplication();
     }
 
-    private static void saveFileLocally(Resource resource, String filename) throws IOException {
-        File downloadsDir = new File("downloads/");
-        if (!downloadsDir.exists()) {
-            downloadsDir.mkdirs();
+    // Download every file of a series/type as one archive and unpack it into the client cache
+    private static void fetchAndSaveAll(RestTemplate restTemplate, String url, String series, String type) {
+        Observation download = Observation.createNotStarted("client.download", observationRegistry)
+                .highCardinalityKeyValue("file", url)
+                .start();
+        try (Observation.Scope scope = download.openScope()) {
+            Integer saved = restTemplate.execute(URI.create(url), HttpMethod.GET, null, response -> {
+                int count = 0;
+                try (ZipInputStream zip = new ZipInputStream(response.getBody())) {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        if (entry.getName().equals(MISSING_ENTRY)) {
+                            System.out.println("Files not available:");
+                            System.out.println(new String(zip.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
+                            continue;
+                        }
+                        String filename = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+                        clientCache.store(series + "/" + type + "/" + filename, filename, zip);
+                        System.out.println("File fetched successfully: " + filename);
+                        count++;
+                    }
+                }
+                return count;
+            });
+            System.out.println(saved + " files saved locally in '" + clientCache.downloadsDir() + "/' directory.");
+        } catch (Exception e) {
+            download.error(e);
+            System.out.println("Failed to fetch files: " + e.getMessage());
+        } finally {
+            download.stop();
         }
 
-        File file = new File(downloadsDir, filename);
-        Files.copy(resource.getInputStream(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // Shutdown the application after the file operation
+        shutdownApplication();
     }
 }
\ No newline at end of file
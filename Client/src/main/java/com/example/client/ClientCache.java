@@ -0,0 +1,225 @@
+package com.example.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+
+// Downloads and catalog listings kept across sessions. Every file saved in the downloads
+// directory gets a record under .cache/files (key, SHA-256, size, mtime): the copy is checked
+// against it before reuse, and its hash is the validator sent to the CDN in If-None-Match, so
+// an unchanged file comes back as a bodiless 304. Listings are kept with their ETag under
+// .cache/catalog, reused without a request while younger than catalog-max-age-ms and
+// revalidated after that.
+@Component
+public class ClientCache {
+    private static final Logger logger = LoggerFactory.getLogger(ClientCache.class);
+    private static final String NEXT_CURSOR = "X-Next-Cursor";
+
+    public record CachedFile(Path path, String sha256) {
+    }
+
+    // One page of a listing; nextCursor is null on the last page
+    public record Page(List<String> names, String nextCursor) {
+    }
+
+    @Value("${client.cache.dir:downloads}")
+    private String dir;
+
+    @Value("${client.cache.catalog-max-age-ms:600000}")
+    private long catalogMaxAgeMs;
+
+    // Re-hash every copy before reuse instead of trusting an unchanged size and mtime, which an
+    // in-place edit that restores the mtime would slip past
+    @Value("${client.cache.verify-hash-on-reuse:true}")
+    private boolean verifyHashOnReuse;
+
+    public Path downloadsDir() {
+        return Paths.get(dir);
+    }
+
+    // The local copy of a file if it is still intact, else null. A copy whose size or mtime has
+    // changed since it was recorded is re-hashed and forgotten when its content no longer matches.
+    public CachedFile lookup(String key, String filename) throws IOException {
+        Path file = downloadsDir().resolve(filename);
+        Properties record = load(recordOf(filename));
+        if (record == null || !key.equals(record.getProperty("key")) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        String sha256 = record.getProperty("sha256");
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        boolean unchanged = String.valueOf(attributes.size()).equals(record.getProperty("size"))
+                && String.valueOf(attributes.lastModifiedTime().toMillis()).equals(record.getProperty("modified"));
+        if (unchanged && !verifyHashOnReuse) {
+            return new CachedFile(file, sha256);
+        }
+        String actual;
+        try (InputStream in = Files.newInputStream(file)) {
+            actual = sha256(in, OutputStream.nullOutputStream());
+        }
+        if (!actual.equals(sha256)) {
+            logger.warn("Local copy of {} no longer matches its recorded hash; downloading it again", key);
+            Files.deleteIfExists(recordOf(filename));
+            return null;
+        }
+        if (!unchanged) {
+            record(key, filename, sha256);
+        }
+        return new CachedFile(file, sha256);
+    }
+
+    // Saves a download under the downloads directory through a temp file, hashing on the way, and
+    // records it. The stream is read to its end but not closed, so archive entries can be passed.
+    public Path store(String key, String filename, InputStream in) throws IOException {
+        Path target = Files.createDirectories(downloadsDir()).resolve(filename);
+        Path temp = Files.createTempFile(Files.createDirectories(cacheDir()), "download", ".tmp");
+        try {
+            String sha256;
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                sha256 = sha256(in, out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            record(key, filename, sha256);
+            return target;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public List<String> catalog(RestTemplate restTemplate, String url) throws IOException {
+        return catalogPage(restTemplate, url).names();
+    }
+
+    // A catalog listing or one page of it: reused while fresh, otherwise revalidated with its
+    // ETag. When the CDN cannot be reached a stale copy is better than nothing and is returned.
+    // The URL must already be encoded; it is sent as is.
+    public Page catalogPage(RestTemplate restTemplate, String url) throws IOException {
+        Path file = catalogOf(url);
+        Properties cached = load(file);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - Long.parseLong(cached.getProperty("fetched", "0")) < catalogMaxAgeMs) {
+            return page(cached);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (cached != null && cached.getProperty("etag") != null) {
+            headers.setIfNoneMatch(cached.getProperty("etag"));
+        }
+        ResponseEntity<String[]> response;
+        try {
+            response = restTemplate.exchange(URI.create(url), HttpMethod.GET, new HttpEntity<>(headers),
+                    String[].class);
+        } catch (RestClientException e) {
+            if (cached == null) {
+                throw e;
+            }
+            logger.warn("Using cached listing of {}: {}", url, e.getMessage());
+            return page(cached);
+        }
+        Properties listing = cached;
+        if (cached == null || response.getStatusCode() != HttpStatus.NOT_MODIFIED) {
+            listing = new Properties();
+            String[] body = response.getBody();
+            listing.setProperty("names", String.join("\n", body == null ? new String[0] : body));
+            if (response.getHeaders().getETag() != null) {
+                listing.setProperty("etag", response.getHeaders().getETag());
+            }
+            if (response.getHeaders().getFirst(NEXT_CURSOR) != null) {
+                listing.setProperty("next", response.getHeaders().getFirst(NEXT_CURSOR));
+            }
+        }
+        listing.setProperty("url", url);
+        listing.setProperty("fetched", String.valueOf(now));
+        save(file, listing);
+        return page(listing);
+    }
+
+    private void record(String key, String filename, String sha256) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(downloadsDir().resolve(filename),
+                BasicFileAttributes.class);
+        Properties record = new Properties();
+        record.setProperty("key", key);
+        record.setProperty("sha256", sha256);
+        record.setProperty("size", String.valueOf(attributes.size()));
+        record.setProperty("modified", String.valueOf(attributes.lastModifiedTime().toMillis()));
+        save(recordOf(filename), record);
+    }
+
+    private static Page page(Properties listing) {
+        String names = listing.getProperty("names", "");
+        return new Page(names.isEmpty() ? List.of() : Arrays.asList(names.split("\n")), listing.getProperty("next"));
+    }
+
+    private Path cacheDir() {
+        return downloadsDir().resolve(".cache");
+    }
+
+    private Path recordOf(String filename) {
+        return cacheDir().resolve("files").resolve(filename + ".properties");
+    }
+
+    private Path catalogOf(String url) {
+        byte[] digest = newSha256().digest(url.getBytes(StandardCharsets.UTF_8));
+        return cacheDir().resolve("catalog").resolve(HexFormat.of().formatHex(digest, 0, 8) + ".properties");
+    }
+
+    private static Properties load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+            return properties;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Written next to the target and renamed, so a crash never leaves a half-written record
+    private static void save(Path file, Properties properties) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, null);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sha256(InputStream in, OutputStream out) throws IOException {
+        MessageDigest digest = newSha256();
+        new DigestInputStream(in, digest).transferTo(out);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
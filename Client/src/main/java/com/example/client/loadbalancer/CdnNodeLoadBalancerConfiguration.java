@@ -0,0 +1,24 @@
+package com.example.client.loadbalancer;
+
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+// Registered through @LoadBalancerClient, so intentionally not a @Configuration
+// picked up by component scanning.
+public class CdnNodeLoadBalancerConfiguration {
+
+    @Bean
+    public LeastLoadedLoadBalancer leastLoadedLoadBalancer(Environment environment,
+                                                           LoadBalancerClientFactory loadBalancerClientFactory) {
+        String name = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        return new LeastLoadedLoadBalancer(
+                loadBalancerClientFactory.getLazyProvider(name, ServiceInstanceListSupplier.class),
+                name,
+                environment.getProperty("client.loadbalancer.decay-ms", Long.class, 10000L),
+                environment.getProperty("client.loadbalancer.initial-latency-ms", Double.class, 100.0),
+                environment.getProperty("client.loadbalancer.failure-penalty-ms", Double.class, 5000.0),
+                environment.getProperty("client.loadbalancer.reference-bandwidth-bps", Double.class, 1.0e9));
+    }
+}
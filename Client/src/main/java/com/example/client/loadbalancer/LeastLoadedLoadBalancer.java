@@ -0,0 +1,154 @@
+package com.example.client.loadbalancer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.TimedRequestContext;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Power-of-two-choices over CDN nodes: pick two instances at random and send the
+// request to the cheaper one. Cost combines our own latency EWMA and in-flight count
+// with the load each node publishes in its Eureka metadata (see NodeMetadataPublisher).
+// That metadata is tens of seconds old by the time it arrives; the in-flight count is current.
+public class LeastLoadedLoadBalancer implements ReactorServiceInstanceLoadBalancer,
+        LoadBalancerLifecycle<Object, Object, ServiceInstance> {
+    static final String ACTIVE_DOWNLOADS = "cdn.active-downloads";
+    static final String HIT_RATIO = "cdn.hit-ratio";
+    static final String FREE_BANDWIDTH = "cdn.free-bandwidth-bps";
+    static final String OVERLOADED = "cdn.overloaded";
+
+    private static final Logger logger = LoggerFactory.getLogger(LeastLoadedLoadBalancer.class);
+
+    private final ObjectProvider<ServiceInstanceListSupplier> supplierProvider;
+    private final String serviceId;
+    private final long decayMillis;
+    private final double initialLatencyMillis;
+    private final double failurePenaltyMillis;
+    private final double referenceBandwidth;
+    private final Map<String, NodeStats> stats = new ConcurrentHashMap<>();
+
+    public LeastLoadedLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> supplierProvider, String serviceId,
+                                   long decayMillis, double initialLatencyMillis, double failurePenaltyMillis,
+                                   double referenceBandwidth) {
+        this.supplierProvider = supplierProvider;
+        this.serviceId = serviceId;
+        this.decayMillis = decayMillis;
+        this.initialLatencyMillis = initialLatencyMillis;
+        this.failurePenaltyMillis = failurePenaltyMillis;
+        this.referenceBandwidth = referenceBandwidth;
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = supplierProvider.getIfAvailable(NoopServiceInstanceListSupplier::new);
+        return supplier.get(request).next().map(this::select);
+    }
+
+    private Response<ServiceInstance> select(List<ServiceInstance> instances) {
+        if (instances.isEmpty()) {
+            logger.warn("No servers available for service: {}", serviceId);
+            return new EmptyResponse();
+        }
+        // Back off from nodes that are shedding load, unless every node is
+        List<ServiceInstance> available = instances.stream().filter(instance -> !isOverloaded(instance)).toList();
+        if (!available.isEmpty()) {
+            instances = available;
+        }
+        if (instances.size() == 1) {
+            return new DefaultResponse(instances.get(0));
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(instances.size());
+        int second = random.nextInt(instances.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceInstance a = instances.get(first);
+        ServiceInstance b = instances.get(second);
+        return new DefaultResponse(cost(a) <= cost(b) ? a : b);
+    }
+
+    private static boolean isOverloaded(ServiceInstance instance) {
+        Map<String, String> metadata = instance.getMetadata();
+        return metadata != null && Boolean.parseBoolean(metadata.get(OVERLOADED));
+    }
+
+    private double cost(ServiceInstance instance) {
+        NodeStats nodeStats = stats(instance);
+        Map<String, String> metadata = instance.getMetadata();
+
+        double load = nodeStats.getOutstanding() + 1 + metadataValue(metadata, ACTIVE_DOWNLOADS, 0);
+        // Nodes that miss more often pay an origin round trip on top of their own latency
+        double missFactor = 1.5 - metadataValue(metadata, HIT_RATIO, 0.5) / 2;
+        double freeBandwidth = metadataValue(metadata, FREE_BANDWIDTH, referenceBandwidth);
+        double bandwidthFactor = Math.max(1.0, referenceBandwidth / Math.max(freeBandwidth, referenceBandwidth / 100));
+
+        return nodeStats.getLatencyMillis(initialLatencyMillis) * load * missFactor * bandwidthFactor;
+    }
+
+    private static double metadataValue(Map<String, String> metadata, String key, double fallback) {
+        String value = metadata == null ? null : metadata.get(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private NodeStats stats(ServiceInstance instance) {
+        String key = instance.getInstanceId() != null
+                ? instance.getInstanceId() : instance.getHost() + ":" + instance.getPort();
+        return stats.computeIfAbsent(key, k -> new NodeStats(decayMillis));
+    }
+
+    @Override
+    public void onStart(Request<Object> request) {
+    }
+
+    @Override
+    public void onStartRequest(Request<Object> request, Response<ServiceInstance> lbResponse) {
+        if (request.getContext() instanceof TimedRequestContext) {
+            ((TimedRequestContext) request.getContext()).setRequestStartTime(System.nanoTime());
+        }
+        if (lbResponse.hasServer()) {
+            stats(lbResponse.getServer()).requestStarted();
+        }
+    }
+
+    @Override
+    public void onComplete(CompletionContext<Object, ServiceInstance, Object> completionContext) {
+        Response<ServiceInstance> lbResponse = completionContext.getLoadBalancerResponse();
+        if (completionContext.status() == CompletionContext.Status.DISCARD || lbResponse == null || !lbResponse.hasServer()) {
+            return;
+        }
+        NodeStats nodeStats = stats(lbResponse.getServer());
+        nodeStats.requestFinished();
+
+        Object context = completionContext.getLoadBalancerRequest().getContext();
+        if (context instanceof TimedRequestContext && ((TimedRequestContext) context).getRequestStartTime() > 0) {
+            double millis = (System.nanoTime() - ((TimedRequestContext) context).getRequestStartTime()) / 1_000_000.0;
+            if (completionContext.status() == CompletionContext.Status.FAILED) {
+                millis = Math.max(millis, failurePenaltyMillis);
+            }
+            nodeStats.recordLatency(millis);
+        }
+    }
+}
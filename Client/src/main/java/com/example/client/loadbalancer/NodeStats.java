@@ -0,0 +1,44 @@
+package com.example.client.loadbalancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Client-side view of one CDN node: requests in flight and a peak-sensitive EWMA
+// of response time. A slower sample takes effect immediately, faster samples decay in.
+class NodeStats {
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final long decayNanos;
+
+    private double ewmaMillis = -1;
+    private long lastUpdate;
+
+    NodeStats(long decayMillis) {
+        this.decayNanos = Math.max(1, decayMillis) * 1_000_000L;
+    }
+
+    void requestStarted() {
+        outstanding.incrementAndGet();
+    }
+
+    void requestFinished() {
+        outstanding.decrementAndGet();
+    }
+
+    int getOutstanding() {
+        return Math.max(0, outstanding.get());
+    }
+
+    synchronized void recordLatency(double millis) {
+        long now = System.nanoTime();
+        if (ewmaMillis < 0 || millis > ewmaMillis) {
+            ewmaMillis = millis;
+        } else {
+            double weight = Math.exp(-(now - lastUpdate) / (double) decayNanos);
+            ewmaMillis = ewmaMillis * weight + millis * (1 - weight);
+        }
+        lastUpdate = now;
+    }
+
+    synchronized double getLatencyMillis(double fallback) {
+        return ewmaMillis < 0 ? fallback : ewmaMillis;
+    }
+}
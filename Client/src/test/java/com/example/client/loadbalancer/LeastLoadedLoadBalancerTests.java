@@ -0,0 +1,134 @@
+package com.example.client.loadbalancer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.ServiceInstanceListSuppliers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LeastLoadedLoadBalancerTests {
+    private static final String SERVICE_ID = "CDN-Node";
+    private static final int CHOICES = 300;
+
+    @Test
+    void prefersTheNodeWithFewerRequestsInFlight() {
+        ServiceInstance a = node("a", Map.of());
+        ServiceInstance b = node("b", Map.of());
+        LeastLoadedLoadBalancer balancer = balancer(a, b);
+        start(balancer, a);
+
+        assertThat(choices(balancer)).containsOnlyKeys("b");
+    }
+
+    @Test
+    void finishedRequestsNoLongerCount() {
+        ServiceInstance a = node("a", Map.of());
+        ServiceInstance b = node("b", Map.of());
+        LeastLoadedLoadBalancer balancer = balancer(a, b);
+        complete(balancer, a, start(balancer, a), CompletionContext.Status.SUCCESS);
+        complete(balancer, a, start(balancer, a), CompletionContext.Status.SUCCESS);
+        start(balancer, b);
+
+        assertThat(choices(balancer)).containsOnlyKeys("a");
+    }
+
+    @Test
+    void failedRequestCostsAtLeastThePenalty() {
+        ServiceInstance a = node("a", Map.of());
+        ServiceInstance b = node("b", Map.of());
+        LeastLoadedLoadBalancer balancer = balancer(a, b);
+        Request<Object> request = new DefaultRequest<>(new RequestDataContext());
+        balancer.onStartRequest(request, new DefaultResponse(a));
+        complete(balancer, a, request, CompletionContext.Status.FAILED);
+
+        assertThat(choices(balancer)).containsOnlyKeys("b");
+    }
+
+    @Test
+    void scoresPublishedLoad() {
+        ServiceInstance busy = node("busy", Map.of(LeastLoadedLoadBalancer.ACTIVE_DOWNLOADS, "8"));
+        ServiceInstance idle = node("idle", Map.of(LeastLoadedLoadBalancer.ACTIVE_DOWNLOADS, "0"));
+        assertThat(choices(balancer(busy, idle))).containsOnlyKeys("idle");
+
+        ServiceInstance missing = node("missing", Map.of(LeastLoadedLoadBalancer.HIT_RATIO, "0.1"));
+        ServiceInstance hitting = node("hitting", Map.of(LeastLoadedLoadBalancer.HIT_RATIO, "0.9"));
+        assertThat(choices(balancer(missing, hitting))).containsOnlyKeys("hitting");
+
+        ServiceInstance saturated = node("saturated", Map.of(LeastLoadedLoadBalancer.FREE_BANDWIDTH, "1000"));
+        ServiceInstance free = node("free", Map.of(LeastLoadedLoadBalancer.FREE_BANDWIDTH, "1000000000"));
+        assertThat(choices(balancer(saturated, free))).containsOnlyKeys("free");
+    }
+
+    @Test
+    void neverPicksTheCostliestOfThreeAndFavoursTheCheapest() {
+        ServiceInstance cheap = node("cheap", Map.of(LeastLoadedLoadBalancer.ACTIVE_DOWNLOADS, "0"));
+        ServiceInstance middle = node("middle", Map.of(LeastLoadedLoadBalancer.ACTIVE_DOWNLOADS, "4"));
+        ServiceInstance costly = node("costly", Map.of(LeastLoadedLoadBalancer.ACTIVE_DOWNLOADS, "8"));
+
+        // Two random choices: the cheapest wins whenever it is drawn (2 pairs in 3), the middle otherwise
+        Map<String, Integer> choices = choices(balancer(cheap, middle, costly));
+        assertThat(choices).doesNotContainKey("costly");
+        assertThat(choices.get("cheap")).isGreaterThan(choices.get("middle"));
+    }
+
+    @Test
+    void avoidsOverloadedNodesUnlessAllAre() {
+        ServiceInstance overloaded = node("overloaded", Map.of(LeastLoadedLoadBalancer.OVERLOADED, "true"));
+        ServiceInstance busy = node("busy", Map.of(LeastLoadedLoadBalancer.ACTIVE_DOWNLOADS, "50"));
+        assertThat(choices(balancer(overloaded, busy))).containsOnlyKeys("busy");
+
+        ServiceInstance alsoOverloaded = node("also-overloaded", Map.of(LeastLoadedLoadBalancer.OVERLOADED, "true"));
+        assertThat(choices(balancer(overloaded, alsoOverloaded))).containsKeys("overloaded", "also-overloaded");
+    }
+
+    @Test
+    void noInstancesGivesAnEmptyResponse() {
+        Response<ServiceInstance> response = balancer().choose(new DefaultRequest<>()).block();
+        assertThat(response).isNotNull();
+        assertThat(response.hasServer()).isFalse();
+    }
+
+    private static LeastLoadedLoadBalancer balancer(ServiceInstance... instances) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("supplier", ServiceInstanceListSuppliers.from(SERVICE_ID, instances));
+        return new LeastLoadedLoadBalancer(beans.getBeanProvider(ServiceInstanceListSupplier.class), SERVICE_ID,
+                10_000, 50, 5_000, 100_000_000);
+    }
+
+    private static ServiceInstance node(String id, Map<String, String> metadata) {
+        return new DefaultServiceInstance(id, SERVICE_ID, id + ".example", 8080, false, new HashMap<>(metadata));
+    }
+
+    private static Map<String, Integer> choices(LeastLoadedLoadBalancer balancer) {
+        Map<String, Integer> choices = new HashMap<>();
+        for (int i = 0; i < CHOICES; i++) {
+            Response<ServiceInstance> response = balancer.choose(new DefaultRequest<>()).block();
+            choices.merge(response.getServer().getInstanceId(), 1, Integer::sum);
+        }
+        return choices;
+    }
+
+    // Untimed, so that only the in-flight count changes and latency stays at the initial estimate
+    private static Request<Object> start(LeastLoadedLoadBalancer balancer, ServiceInstance instance) {
+        Request<Object> request = new DefaultRequest<>(new Object());
+        balancer.onStartRequest(request, new DefaultResponse(instance));
+        return request;
+    }
+
+    private static void complete(LeastLoadedLoadBalancer balancer, ServiceInstance instance, Request<Object> request,
+                                 CompletionContext.Status status) {
+        balancer.onComplete(new CompletionContext<>(status, request, new DefaultResponse(instance)));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.client.loadbalancer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class NodeStatsTests {
+
+    @Test
+    void usesTheFallbackUntilTheFirstSample() {
+        NodeStats stats = new NodeStats(10_000);
+        assertThat(stats.getLatencyMillis(50)).isEqualTo(50);
+
+        stats.recordLatency(20);
+        assertThat(stats.getLatencyMillis(50)).isEqualTo(20);
+    }
+
+    @Test
+    void slowerSampleTakesEffectImmediately() {
+        NodeStats stats = new NodeStats(3_600_000);
+        stats.recordLatency(20);
+        stats.recordLatency(400);
+
+        assertThat(stats.getLatencyMillis(50)).isEqualTo(400);
+    }
+
+    @Test
+    void fasterSamplesDecayInOverTheDecayTime() throws InterruptedException {
+        NodeStats slow = new NodeStats(3_600_000);
+        slow.recordLatency(400);
+        slow.recordLatency(10);
+        assertThat(slow.getLatencyMillis(50)).isCloseTo(400, within(1.0));
+
+        NodeStats fast = new NodeStats(1);
+        fast.recordLatency(400);
+        Thread.sleep(50);
+        fast.recordLatency(10);
+        assertThat(fast.getLatencyMillis(50)).isCloseTo(10, within(1.0));
+    }
+
+    @Test
+    void countsRequestsInFlight() {
+        NodeStats stats = new NodeStats(10_000);
+        stats.requestStarted();
+        stats.requestStarted();
+        stats.requestFinished();
+        assertThat(stats.getOutstanding()).isEqualTo(1);
+
+        stats.requestFinished();
+        stats.requestFinished();
+        assertThat(stats.getOutstanding()).isZero();
+    }
+}
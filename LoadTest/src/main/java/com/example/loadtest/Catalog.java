@@ -0,0 +1,72 @@
+package com.example.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic series/type/file tree for the embedded origin. File sizes are log-uniform
+// between the configured bounds; popularity rank is a random permutation of the keys.
+public class Catalog {
+    private final Path baseDir;
+    private final List<String> keysByPopularity;
+    private final long totalBytes;
+
+    private Catalog(Path baseDir, List<String> keysByPopularity, long totalBytes) {
+        this.baseDir = baseDir;
+        this.keysByPopularity = keysByPopularity;
+        this.totalBytes = totalBytes;
+    }
+
+    public static Catalog generate(Path baseDir, LoadTestConfig config, Random random) throws IOException {
+        long minSize = config.getLong("min-file-size");
+        long maxSize = config.getLong("max-file-size");
+        byte[] chunk = new byte[64 * 1024];
+        random.nextBytes(chunk);
+
+        List<String> keys = new ArrayList<>();
+        long totalBytes = 0;
+        for (int s = 1; s <= config.getInt("series"); s++) {
+            for (int t = 1; t <= config.getInt("types-per-series"); t++) {
+                Path dir = Files.createDirectories(baseDir.resolve("series-" + s).resolve("type-" + t));
+                for (int f = 1; f <= config.getInt("files-per-type"); f++) {
+                    long size = (long) Math.exp(Math.log(minSize)
+                            + random.nextDouble() * (Math.log(maxSize) - Math.log(minSize)));
+                    String filename = "file-" + f + ".bin";
+                    writeFile(dir.resolve(filename), size, chunk);
+                    keys.add("series-" + s + "/type-" + t + "/" + filename);
+                    totalBytes += size;
+                }
+            }
+        }
+        Collections.shuffle(keys, random);
+        return new Catalog(baseDir, keys, totalBytes);
+    }
+
+    private static void writeFile(Path file, long size, byte[] chunk) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int length = (int) Math.min(chunk.length, remaining);
+                out.write(chunk, 0, length);
+                remaining -= length;
+            }
+        }
+    }
+
+    public Path getBaseDir() {
+        return baseDir;
+    }
+
+    public List<String> getKeysByPopularity() {
+        return keysByPopularity;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+}
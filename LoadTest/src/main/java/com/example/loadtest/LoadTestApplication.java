@@ -0,0 +1,135 @@
+package com.example.loadtest;
+
+import com.example.cdnnode.CdnNodeApplication;
+import com.example.cdnnode.NodeLoadTracker;
+import com.example.originserver.OriginServerApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// Starts an origin and N CDN nodes in this JVM on loopback ports, wired together with
+// static discovery instead of Eureka, replays the configured workload against the
+// nodes and prints throughput, latency percentiles, hit ratio and origin egress.
+public class LoadTestApplication {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = new LoadTestConfig(args);
+        Path workDir = Files.createTempDirectory("cdn-loadtest");
+        Random random = new Random(config.getLong("seed"));
+
+        System.out.println("Generating catalog in " + workDir);
+        Catalog catalog = Catalog.generate(workDir.resolve("content"), config, random);
+        System.out.printf(Locale.ROOT, "%d files, %.1f MB%n", catalog.getKeysByPopularity().size(),
+                catalog.getTotalBytes() / 1e6);
+
+        List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+        try {
+            ConfigurableApplicationContext origin = startOrigin(catalog.getBaseDir());
+            contexts.add(origin);
+            String originUrl = "http://127.0.0.1:" + port(origin);
+
+            List<String> nodeUrls = new ArrayList<>();
+            List<NodeLoadTracker> trackers = new ArrayList<>();
+            for (int i = 0; i < config.getInt("nodes"); i++) {
+                ConfigurableApplicationContext node = startNode(i, originUrl,
+                        Files.createDirectories(workDir.resolve("cache-" + i)));
+                contexts.add(node);
+                nodeUrls.add("http://127.0.0.1:" + port(node));
+                trackers.add(node.getBean(NodeLoadTracker.class));
+            }
+
+            System.out.println("Running workload against " + nodeUrls);
+            WorkloadDriver driver = new WorkloadDriver(config, nodeUrls, catalog);
+            long start = System.nanoTime();
+            driver.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            report(config, driver, trackers, seconds);
+        } finally {
+            for (int i = contexts.size() - 1; i >= 0; i--) {
+                contexts.get(i).close();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext startOrigin(Path contentDir) {
+        return new SpringApplicationBuilder(OriginServerApplication.class, OriginEgressFilter.class)
+                .run("--spring.config.name=loadtest-origin",
+                        "--spring.application.name=Origin-Server",
+                        "--server.port=0",
+                        "--content.base-dir=" + contentDir,
+                        "--eureka.client.enabled=false",
+                        "--management.tracing.enabled=false",
+                        "--access-log.sample-rate=0.01",
+                        "--spring.mvc.async.request-timeout=-1");
+    }
+
+    private static ConfigurableApplicationContext startNode(int index, String originUrl, Path cacheDir) {
+        return new SpringApplicationBuilder(CdnNodeApplication.class)
+                .run("--spring.config.name=loadtest-cdn-node",
+                        "--spring.application.name=cdn-node",
+                        "--server.port=0",
+                        "--cdn.cache.path=" + cacheDir,
+                        "--cdn.origin.base-url=" + originUrl,
+                        "--spring.cloud.discovery.client.simple.instances.Origin-Server[0].uri=" + originUrl,
+                        "--eureka.client.enabled=false",
+                        "--management.tracing.enabled=false",
+                        "--management.metrics.tags.node=loadtest-node-" + index,
+                        "--spring.mvc.pathmatch.matching-strategy=ant-path-matcher",
+                        "--access-log.sample-rate=0.01",
+                        "--spring.mvc.async.request-timeout=-1");
+    }
+
+    private static int port(ConfigurableApplicationContext context) {
+        return ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    private static void report(LoadTestConfig config, WorkloadDriver driver, List<NodeLoadTracker> trackers,
+                               double seconds) throws IOException {
+        long[] latencies = LatencyRecorder.mergeSorted(driver.getRecorders());
+        long hits = trackers.stream().mapToLong(NodeLoadTracker::getHits).sum();
+        long misses = trackers.stream().mapToLong(NodeLoadTracker::getMisses).sum();
+        double hitRatio = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        long originEgress = OriginEgressFilter.getEgressBytes();
+
+        String json = String.format(Locale.ROOT, "{\"durationSeconds\":%.1f,\"requests\":%d,\"errors\":%d,"
+                        + "\"throughputRps\":%.1f,\"throughputMBps\":%.2f,\"p50Ms\":%.3f,\"p99Ms\":%.3f,"
+                        + "\"p999Ms\":%.3f,\"hitRatio\":%.4f,\"coldMisses\":%d,\"rangeRequests\":%d,"
+                        + "\"bytesServed\":%d,\"originRequests\":%d,\"originEgressBytes\":%d}",
+                seconds, driver.getRequests(), driver.getErrors(),
+                driver.getRequests() / seconds, driver.getBytesReceived() / seconds / 1e6,
+                LatencyRecorder.percentileMillis(latencies, 0.50),
+                LatencyRecorder.percentileMillis(latencies, 0.99),
+                LatencyRecorder.percentileMillis(latencies, 0.999),
+                hitRatio, driver.getColdMisses(), driver.getRangeRequests(), driver.getBytesReceived(),
+                OriginEgressFilter.getRequests(), originEgress);
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Requests:       %d in %.1f s (%d errors)%n",
+                driver.getRequests(), seconds, driver.getErrors());
+        System.out.printf(Locale.ROOT, "Throughput:     %.1f req/s, %.2f MB/s%n",
+                driver.getRequests() / seconds, driver.getBytesReceived() / seconds / 1e6);
+        System.out.printf(Locale.ROOT, "Latency:        p50 %.2f ms, p99 %.2f ms, p999 %.2f ms%n",
+                LatencyRecorder.percentileMillis(latencies, 0.50),
+                LatencyRecorder.percentileMillis(latencies, 0.99),
+                LatencyRecorder.percentileMillis(latencies, 0.999));
+        System.out.printf(Locale.ROOT, "Hit ratio:      %.2f%% (%d hits, %d misses, %d forced cold)%n",
+                hitRatio * 100, hits, misses, driver.getColdMisses());
+        System.out.printf(Locale.ROOT, "Origin egress:  %.1f MB over %d requests%n",
+                originEgress / 1e6, OriginEgressFilter.getRequests());
+
+        Path reportFile = Paths.get(config.getString("report-file"));
+        Files.writeString(reportFile, json + System.lineSeparator(), StandardCharsets.UTF_8);
+        System.out.println("Report written to " + reportFile.toAbsolutePath());
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.loadtest;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Added to the embedded origin's context; counts response bytes by Content-Length.
+// Headers are committed before streamed bodies start, so async responses are counted too.
+public class OriginEgressFilter extends OncePerRequestFilter {
+    private static final AtomicLong egressBytes = new AtomicLong();
+    private static final AtomicLong requests = new AtomicLong();
+
+    public static long getEgressBytes() {
+        return egressBytes.get();
+    }
+
+    public static long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        chain.doFilter(request, response);
+        requests.incrementAndGet();
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength != null && !"HEAD".equals(request.getMethod())) {
+            egressBytes.addAndGet(Long.parseLong(contentLength));
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return true;
+    }
+}
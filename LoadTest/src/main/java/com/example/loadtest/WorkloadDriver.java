@@ -0,0 +1,146 @@
+package com.example.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Closed-loop workers issuing GETs against the CDN nodes. Keys follow a Zipf
+// distribution; some requests are range seeks, and during periodic bursts some keys
+// are invalidated first so the request becomes a cold miss.
+public class WorkloadDriver {
+    private final LoadTestConfig config;
+    private final List<String> nodeUrls;
+    private final List<String> keys;
+    private final ZipfSampler sampler;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final List<LatencyRecorder> recorders = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong coldMisses = new AtomicLong();
+    private final AtomicLong rangeRequests = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    public WorkloadDriver(LoadTestConfig config, List<String> nodeUrls, Catalog catalog) {
+        this.config = config;
+        this.nodeUrls = nodeUrls;
+        this.keys = catalog.getKeysByPopularity();
+        this.sampler = new ZipfSampler(keys.size(), config.getDouble("zipf-exponent"));
+    }
+
+    public void run() throws InterruptedException {
+        int workers = config.getInt("workers");
+        long start = System.nanoTime();
+        long end = start + Duration.ofSeconds(config.getLong("duration-seconds")).toNanos();
+        CountDownLatch done = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders.add(recorder);
+            Random random = new Random(config.getLong("seed") + i);
+            Thread worker = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        issue(random, recorder, start);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "loadtest-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+    }
+
+    private void issue(Random random, LatencyRecorder recorder, long runStart) {
+        String key = keys.get(sampler.next(random));
+        String node = nodeUrls.get(random.nextInt(nodeUrls.size()));
+        try {
+            if (inBurst(runStart) && random.nextDouble() < config.getDouble("burst-miss-ratio")) {
+                httpClient.send(HttpRequest.newBuilder(URI.create(node + "/cdn/invalidate/" + key))
+                        .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+                coldMisses.incrementAndGet();
+            }
+
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + "/cdn/" + key))
+                    .timeout(Duration.ofSeconds(60));
+            if (random.nextDouble() < config.getDouble("range-ratio")) {
+                long offset = (long) (random.nextDouble() * config.getLong("min-file-size"));
+                request.header("Range", "bytes=" + offset + "-" + (offset + config.getLong("range-length") - 1));
+                rangeRequests.incrementAndGet();
+            }
+
+            long start = System.nanoTime();
+            HttpResponse<InputStream> response = httpClient.send(request.build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            long bytes = drain(response.body());
+            recorder.record(System.nanoTime() - start);
+            requests.incrementAndGet();
+            bytesReceived.addAndGet(bytes);
+            if (response.statusCode() >= 400) {
+                errors.incrementAndGet();
+            }
+        } catch (IOException e) {
+            errors.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean inBurst(long runStart) {
+        long interval = config.getLong("burst-interval-seconds");
+        if (interval <= 0) {
+            return false;
+        }
+        long elapsedSeconds = Duration.ofNanos(System.nanoTime() - runStart).toSeconds();
+        return elapsedSeconds % interval < config.getLong("burst-duration-seconds");
+    }
+
+    private static long drain(InputStream body) throws IOException {
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = body) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    public List<LatencyRecorder> getRecorders() {
+        return recorders;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getColdMisses() {
+        return coldMisses.get();
+    }
+
+    public long getRangeRequests() {
+        return rangeRequests.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.originserver;
+
+import com.example.originserver.utils.ArchiveSerializer;
+import com.example.originserver.utils.ChangeFeed;
+import com.example.originserver.utils.ContentDigestCache;
+import com.example.originserver.utils.ContentIndex;
+import com.example.originserver.utils.FileSerializer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.apache.tika.Tika;
+
+@RestController
+@RequestMapping("/origin")
+public class ContentController {
+
+    @Value("${content.base-dir}")
+    private String baseDir;
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentController.class);
+    private static final String TOTAL_COUNT = "X-Total-Count";
+    private static final String NEXT_CURSOR = "X-Next-Cursor";
+    private static final String WANT_DIGEST = "Want-Digest";
+    private final Tika tika = new Tika();
+    private final ContentDigestCache digestCache;
+    private final ContentIndex contentIndex;
+    private final ChangeFeed changeFeed;
+    private final ObservationRegistry observationRegistry;
+    private final ObjectMapper objectMapper;
+
+    @Value("${content.changes.max-wait-ms:60000}")
+    private long maxChangesWaitMs;
+
+    @Value("${content.bulk.max-keys:10000}")
+    private int bulkMaxKeys;
+
+    public ContentController(ContentDigestCache digestCache, ContentIndex contentIndex, ChangeFeed changeFeed,
+                             ObservationRegistry observationRegistry, ObjectMapper objectMapper) {
+        this.digestCache = digestCache;
+        this.contentIndex = contentIndex;
+        this.changeFeed = changeFeed;
+        this.observationRegistry = observationRegistry;
+        this.objectMapper = objectMapper;
+    }
+
+    // Runs one stage of a request inside its own span
+    private <T> T observe(String stage, Observation.CheckedCallable<T, IOException> work) throws IOException {
+        return Observation.createNotStarted(stage, observationRegistry).observeChecked(work);
+    }
+
+    // Headers shared by GET and HEAD. The ETag is the SHA-256 of the file content once it has
+    // been computed in the background, and a weak mtime/size validator until then; callers that
+    // need the digest now (content-addressed CDN nodes) send "Want-Digest: sha-256".
+    private HttpHeaders fileHeaders(File file, String decodedFilename, String mediaType, String wantDigest)
+            throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + decodedFilename + "\"");
+        headers.add(HttpHeaders.CACHE_CONTROL, "max-age=3600, must-revalidate");
+        headers.add(HttpHeaders.CONTENT_TYPE, mediaType);
+        String digest = wantsSha256(wantDigest)
+                ? observe("origin.digest", () -> digestCache.digest(file.toPath()))
+                : digestCache.current(file.toPath());
+        headers.setETag(digest != null ? "\"" + digest + "\"" : ContentDigestCache.weakEtag(file.toPath()));
+        headers.setLastModified(file.lastModified());
+        headers.setContentLength(file.length());
+        headers.add(HttpHeaders.ACCEPT_RANGES, "bytes");
+        return headers;
+    }
+
+    // If-Range: the range applies only while the caller's validator matches the file as it is
+    // now, by strong ETag or by Last-Modified date; a weak ETag never matches
+    private static boolean ifRangeMatches(String ifRange, HttpHeaders headers) {
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(headers.getETag());
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return date == headers.getLastModified() / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static boolean wantsSha256(String wantDigest) {
+        return wantDigest != null && wantDigest.toLowerCase(java.util.Locale.ROOT).contains("sha-256");
+    }
+
+    // One page of a sorted listing; the total size goes in X-Total-Count so callers can page through it
+    private <T> ResponseEntity<List<T>> listing(List<T> sorted, int offset, int limit, String order) {
+        List<T> page = ContentIndex.page(sorted, offset, limit, "desc".equalsIgnoreCase(order));
+        return ResponseEntity.ok()
+                .header(TOTAL_COUNT, String.valueOf(sorted.size()))
+                .body(page);
+    }
+
+    @GetMapping("/series")
+    public ResponseEntity<List<String>> listSeries(
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "-1") int limit,
+            @RequestParam(defaultValue = "asc") String order) throws IOException {
+        List<String> seriesDirectories = contentIndex.directories();
+        return listing(seriesDirectories == null ? List.of() : seriesDirectories, offset, limit, order);
+    }
+
+    @GetMapping("/types/{series}")
+    public ResponseEntity<List<String>> listTypes(
+            @PathVariable String series,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "-1") int limit,
+            @RequestParam(defaultValue = "asc") String order) throws IOException {
+        String decodedSeries = java.net.URLDecoder.decode(series, java.nio.charset.StandardCharsets.UTF_8);
+        List<String> typeDirectories = contentIndex.directories(decodedSeries);
+        return listing(typeDirectories == null ? List.of() : typeDirectories, offset, limit, order);
+    }
+
+    // File names only, as CDN nodes expect; sort is name, size or modified. Pages are walked with
+    // the X-Next-Cursor header (absent on the last page); offset paging is still accepted.
+    @GetMapping("/list-files/{series}/{type}")
+    public ResponseEntity<?> listFiles(
+            @PathVariable String series,
+            @PathVariable String type,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "-1") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String prefix,
+            @RequestParam(defaultValue = ContentIndex.SORT_NAME) String sort,
+            @RequestParam(defaultValue = "asc") String order) {
+        return filePage(series, type, offset, limit, cursor, prefix, sort, order, ContentIndex.FileEntry::name);
+    }
+
+    // Same listing with size, mtime, media type and (when indexed) SHA-256 per file
+    @GetMapping("/list-entries/{series}/{type}")
+    public ResponseEntity<?> listEntries(
+            @PathVariable String series,
+            @PathVariable String type,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "-1") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String prefix,
+            @RequestParam(defaultValue = ContentIndex.SORT_NAME) String sort,
+            @RequestParam(defaultValue = "asc") String order) {
+        return filePage(series, type, offset, limit, cursor, prefix, sort, order, entry -> entry);
+    }
+
+    // One page of a directory listing, written element by element as a JSON array so a large page
+    // is never built up as one string or byte array
+    private ResponseEntity<?> filePage(String series, String type, int offset, int limit, String cursor,
+                                       String prefix, String sort, String order,
+                                       Function<ContentIndex.FileEntry, Object> element) {
+        String decodedSeries = java.net.URLDecoder.decode(series, java.nio.charset.StandardCharsets.UTF_8);
+        String decodedType = java.net.URLDecoder.decode(type, java.nio.charset.StandardCharsets.UTF_8);
+        List<ContentIndex.FileEntry> files = contentIndex.files(sort, decodedSeries, decodedType);
+        if (files == null) {
+            logger.debug("Directory not found: {}/{}", decodedSeries, decodedType);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.emptyList());
+        }
+        boolean descending = "desc".equalsIgnoreCase(order);
+        List<ContentIndex.FileEntry> matching = ContentIndex.withPrefix(files, sort, prefix);
+        int start = offset;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                start = ContentIndex.offsetAfter(matching, sort, cursor, descending);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("Invalid cursor");
+            }
+        }
+        List<ContentIndex.FileEntry> page = ContentIndex.page(matching, start, limit, descending);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set(TOTAL_COUNT, String.valueOf(matching.size()));
+        if (!page.isEmpty() && Math.max(start, 0) + page.size() < matching.size()) {
+            headers.set(NEXT_CURSOR, ContentIndex.cursorAfter(page.get(page.size() - 1), sort));
+        }
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(outputStream)) {
+                json.writeStartArray();
+                for (ContentIndex.FileEntry entry : page) {
+                    json.writeObject(element.apply(entry));
+                }
+                json.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().headers(headers).body(body);
+    }
+
+    // Long-poll for content changes after an offset of the given epoch. Without an epoch the
+    // caller subscribes from now; a batch with reset=true means changes were missed.
+    @GetMapping("/changes")
+    public CompletableFuture<ChangeFeed.Batch> changes(
+            @RequestParam(defaultValue = "") String epoch,
+            @RequestParam(defaultValue = "0") long after,
+            @RequestParam(defaultValue = "1000") int limit,
+            @RequestParam(defaultValue = "20000") long waitMs) {
+        return changeFeed.poll(epoch, after, Math.max(1, limit), Math.min(waitMs, maxChangesWaitMs));
+    }
+
+    // Whole series/type as one zip archive
+    @GetMapping("/bulk/{series}/{type}")
+    public ResponseEntity<?> bulkByPrefix(@PathVariable String series, @PathVariable String type) {
+        String decodedSeries = java.net.URLDecoder.decode(series, java.nio.charset.StandardCharsets.UTF_8);
+        String decodedType = java.net.URLDecoder.decode(type, java.nio.charset.StandardCharsets.UTF_8);
+        List<ContentIndex.FileEntry> files = contentIndex.files(ContentIndex.SORT_NAME, decodedSeries, decodedType);
+        if (files == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Directory not found");
+        }
+        List<String> keys = new ArrayList<>();
+        for (ContentIndex.FileEntry file : files) {
+            keys.add(decodedSeries + "/" + decodedType + "/" + file.name());
+        }
+        return bulkResponse(keys, decodedSeries + "-" + decodedType + ".zip");
+    }
+
+    // Explicit list of "series/type/filename" keys as one zip archive, in request order
+    @PostMapping("/bulk")
+    public ResponseEntity<?> bulk(@RequestBody List<String> keys) {
+        if (keys.size() > bulkMaxKeys) {
+            return ResponseEntity.badRequest().body("At most " + bulkMaxKeys + " keys per archive");
+        }
+        return bulkResponse(keys, "bulk.zip");
+    }
+
+    private ResponseEntity<?> bulkResponse(List<String> keys, String archiveName) {
+        logger.info("Bulk download of {} files", keys.size());
+        StreamingResponseBody body = outputStream -> ArchiveSerializer.serializeFiles(baseDir, keys, outputStream);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, "application/zip")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archiveName + "\"")
+                .body(body);
+    }
+
+    @GetMapping("/{series}/{type}/{filename}")
+    public ResponseEntity<?> getFile(
+            @PathVariable String series,
+            @PathVariable String type,
+            @PathVariable String filename,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(value = WANT_DIGEST, required = false) String wantDigest) {
+
+        String decodedSeries = java.net.URLDecoder.decode(series, java.nio.charset.StandardCharsets.UTF_8);
+        String decodedType = java.net.URLDecoder.decode(type, java.nio.charset.StandardCharsets.UTF_8);
+        String decodedFilename = java.net.URLDecoder.decode(filename, java.nio.charset.StandardCharsets.UTF_8);
+
+        logger.debug("Decoded series: {}", decodedSeries);
+        logger.debug("Decoded type: {}", decodedType);
+        logger.debug("Decoded filename: {}", decodedFilename);
+
+        //logger.info("Request received for file: {}/{}/{}", decodedSeries, decodedType, decodedFilename);
+        Path filePath = Paths.get(baseDir, decodedSeries, decodedType, decodedFilename);
+
+        logger.debug("Resolved file path: {}", filePath);
+
+        try {
+            File file = filePath.toFile();
+            if (!file.exists() || !file.canRead()) {
+                logger.warn("File not found or not readable: {}", filePath);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found");
+            }
+
+            // Dynamically detect media type using Apache Tika
+            String mediaType = observe("origin.detect-type", () -> tika.detect(file));
+            if (mediaType == null) {
+                logger.warn("Unable to detect media type for: {}", filename);
+                return ResponseEntity.badRequest().body("Unable to detect media type");
+            }
+
+            // Prepare headers
+            // A strong If-Range can only be compared with the digest, so it waits for one too
+            boolean strongIfRange = range != null && ifRange != null && ifRange.startsWith("\"");
+            HttpHeaders headers = fileHeaders(file, decodedFilename, mediaType, strongIfRange ? "sha-256" : wantDigest);
+
+            // Range requests (used by CDN segment fills) are answered with 206 by Spring's resource
+            // handling; a stale If-Range gets the whole file instead
+            if (range != null && (ifRange == null || ifRangeMatches(ifRange, headers))) {
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+                logger.debug("Streaming range {} of file: {}", range, filePath);
+                return ResponseEntity.ok().headers(headers).body(new FileSystemResource(file));
+            }
+
+            logger.debug("Streaming file: {}", filePath);
+
+            // Serialize and stream the file once the headers have been written
+            StreamingResponseBody body = outputStream -> FileSerializer.serializeFile(file, outputStream);
+            return ResponseEntity.ok().headers(headers).body(body);
+
+        } catch (IOException e) {
+            logger.error("Error while serving file: {}", filePath, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An error occurred: " + e.getMessage());
+        }
+    }
+
+    // Metadata only: lets CDN nodes learn the content hash before fetching the body
+    @RequestMapping(value = "/{series}/{type}/{filename}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> headFile(
+            @PathVariable String series,
+            @PathVariable String type,
+            @PathVariable String filename,
+            @RequestHeader(value = WANT_DIGEST, required = false) String wantDigest) {
+
+        String decodedSeries = java.net.URLDecoder.decode(series, java.nio.charset.StandardCharsets.UTF_8);
+        String decodedType = java.net.URLDecoder.decode(type, java.nio.charset.StandardCharsets.UTF_8);
+        String decodedFilename = java.net.URLDecoder.decode(filename, java.nio.charset.StandardCharsets.UTF_8);
+        Path filePath = Paths.get(baseDir, decodedSeries, decodedType, decodedFilename);
+
+        File file = filePath.toFile();
+        if (!file.exists() || !file.canRead()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        try {
+            String mediaType = observe("origin.detect-type", () -> tika.detect(file));
+            return ResponseEntity.ok().headers(fileHeaders(file, decodedFilename, mediaType, wantDigest)).build();
+        } catch (IOException e) {
+            logger.error("Error reading file metadata: {}", filePath, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+
+}
+
+
+
@@ -0,0 +1,9 @@
+package com.example.originserver;
+
+import com.example.accesslog.AccessLogFilter;
+import org.springframework.stereotype.Component;
+
+// The shared access log, with no fields of the origin's own
+@Component
+public class OriginAccessLogFilter extends AccessLogFilter {
+}
@@ -0,0 +1,62 @@
+package com.example.originserver.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveSerializer {
+    public static final String MISSING_ENTRY = "MISSING.txt";
+
+    // Writes "series/type/filename" keys under baseDir as zip entries, in the given order.
+    // Keys that do not resolve to a readable file are listed in a trailing MISSING.txt.
+    public static void serializeFiles(String baseDir, List<String> keys, OutputStream outputStream) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(outputStream);
+        zip.setLevel(Deflater.NO_COMPRESSION); // media is already compressed
+        List<String> missing = new ArrayList<>();
+        Path base = Paths.get(baseDir).toAbsolutePath().normalize();
+
+        for (String key : keys) {
+            Path path = resolve(base, key);
+            File file = path != null ? path.toFile() : null;
+            if (file == null || !file.isFile() || !file.canRead()) {
+                missing.add(key);
+                continue;
+            }
+            zip.putNextEntry(new ZipEntry(key));
+            FileSerializer.serializeFile(file, zip);
+            zip.closeEntry();
+        }
+
+        if (!missing.isEmpty()) {
+            zip.putNextEntry(new ZipEntry(MISSING_ENTRY));
+            zip.write(String.join("\n", missing).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    // The file a key names under base, or null unless the key is exactly three plain segments
+    // that stay inside base. This also keeps the key safe to use as a zip entry name.
+    static Path resolve(Path base, String key) {
+        String[] parts = key.split("/", -1);
+        if (parts.length != 3) {
+            return null;
+        }
+        for (String part : parts) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..") || part.indexOf('\\') >= 0
+                    || part.indexOf(':') >= 0) {
+                return null;
+            }
+        }
+        Path path = base.resolve(Paths.get(parts[0], parts[1], parts[2])).normalize();
+        return path.startsWith(base) ? path : null;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.originserver.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Ordered feed of content changes, fed by ContentIndex as it diffs consecutive snapshots.
+// The most recent 'capacity' changes are kept in a ring; offsets grow by one per change and
+// restart with the process, so every batch names the epoch its offsets belong to. Readers
+// long-poll: a read with nothing new waits until the next publish or its timeout.
+@Component
+public class ChangeFeed {
+    public static final String ADDED = "added";
+    public static final String MODIFIED = "modified";
+    public static final String DELETED = "deleted";
+
+    public record Change(long offset, String type, String key, long size, long lastModified) {
+    }
+
+    // 'next' is the offset to resume after; 'reset' means changes were missed and the reader
+    // cannot rely on its view of the content any more
+    public record Batch(String epoch, long next, boolean reset, List<Change> changes) {
+    }
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Change[] ring;
+    // Guarded by 'this'; offsets [nextOffset - size, nextOffset) are in the ring
+    private long nextOffset = 1;
+    private int size;
+    private CompletableFuture<Void> published = new CompletableFuture<>();
+
+    public ChangeFeed(@Value("${content.changes.capacity:100000}") int capacity) {
+        this.ring = new Change[capacity];
+    }
+
+    public void publish(List<Change> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        CompletableFuture<Void> waiters;
+        synchronized (this) {
+            for (Change change : changes) {
+                long offset = nextOffset++;
+                ring[(int) (offset % ring.length)] = new Change(offset, change.type(), change.key(),
+                        change.size(), change.lastModified());
+                size = Math.min(size + 1, ring.length);
+            }
+            waiters = published;
+            published = new CompletableFuture<>();
+        }
+        waiters.complete(null);
+    }
+
+    // Changes after 'after'; an empty epoch subscribes from the current head without replay
+    public synchronized Batch read(String readerEpoch, long after, int limit) {
+        long head = nextOffset - 1;
+        if (readerEpoch == null || readerEpoch.isEmpty()) {
+            return new Batch(epoch, head, false, List.of());
+        }
+        long oldest = nextOffset - size;
+        if (!epoch.equals(readerEpoch) || after > head || after + 1 < oldest) {
+            return new Batch(epoch, head, true, List.of());
+        }
+        List<Change> changes = new ArrayList<>();
+        long offset = after + 1;
+        while (offset <= head && changes.size() < limit) {
+            changes.add(ring[(int) (offset % ring.length)]);
+            offset++;
+        }
+        return new Batch(epoch, offset - 1, false, changes);
+    }
+
+    public CompletableFuture<Batch> poll(String readerEpoch, long after, int limit, long waitMs) {
+        Batch batch;
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            batch = read(readerEpoch, after, limit);
+            next = published;
+        }
+        if (!batch.changes().isEmpty() || batch.reset() || readerEpoch == null || readerEpoch.isEmpty()
+                || waitMs <= 0) {
+            return CompletableFuture.completedFuture(batch);
+        }
+        // Each waiter times out on its own copy; completing the shared future would wake every
+        // other waiter and hand later polls an already completed one
+        return next.copy().completeOnTimeout(null, waitMs, TimeUnit.MILLISECONDS)
+                .thenApply(ignored -> read(readerEpoch, after, limit));
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.originserver.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// SHA-256 of content files, remembered until the file's size or mtime changes.
+// Served as the ETag so CDN nodes can recognise identical bytes under different paths.
+// Requests never wait for a digest unless they ask for one: current() starts hashing in
+// the background and returns null until the digest is ready.
+@Component
+public class ContentDigestCache {
+    private static final Logger logger = LoggerFactory.getLogger(ContentDigestCache.class);
+
+    private record Entry(long size, long lastModified, String digest) {
+    }
+
+    private final Map<Path, Entry> digests = new ConcurrentHashMap<>();
+    private final Set<Path> hashing = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    public ContentDigestCache(@Value("${content.digest.threads:2}") int threads,
+                              @Value("${content.digest.queue-size:10000}") int queueSize) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "content-digest");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // The digest if it is known for the file as it is now; otherwise null, and the file is
+    // queued for hashing so a later request finds it
+    public String current(Path path) throws IOException {
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Entry entry = digests.get(path);
+        if (entry != null && entry.size() == size && entry.lastModified() == lastModified) {
+            return entry.digest();
+        }
+        if (hashing.add(path)) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        digest(path);
+                    } catch (IOException e) {
+                        logger.debug("Could not hash {}: {}", path, e.getMessage());
+                    } finally {
+                        hashing.remove(path);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Queue full; the next request for the file tries again
+                hashing.remove(path);
+            }
+        }
+        return null;
+    }
+
+    // The digest, computed on the calling thread if it is not known yet
+    public String digest(Path path) throws IOException {
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        Entry entry = digests.get(path);
+        if (entry != null && entry.size() == size && entry.lastModified() == lastModified) {
+            return entry.digest();
+        }
+        String digest = sha256(path);
+        digests.put(path, new Entry(size, lastModified, digest));
+        return digest;
+    }
+
+    // Weak validator used until the digest is ready: changes whenever the size or mtime does
+    public static String weakEtag(Path path) throws IOException {
+        return "W/\"" + Long.toHexString(Files.getLastModifiedTime(path).toMillis())
+                + "-" + Long.toHexString(Files.size(path)) + "\"";
+    }
+
+    public static String sha256(Path path) throws IOException {
+        MessageDigest messageDigest = newSha256();
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, bytesRead);
+            }
+        }
+        return HexFormat.of().formatHex(messageDigest.digest());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.originserver.utils;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+// In-memory snapshot of the content tree with file sizes, mtimes, media types and (optionally)
+// hashes. Built by walking content.base-dir with one fork-join task per directory, reading all
+// basic attributes of an entry in a single call, and rebuilt on a fixed delay. Listings come
+// from pre-sorted arrays, so a page costs the same however large the directory is. Each
+// rebuild is diffed against the previous snapshot and the differences go to the ChangeFeed.
+@Component
+public class ContentIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ContentIndex.class);
+
+    public static final String SORT_NAME = "name";
+    public static final String SORT_SIZE = "size";
+    public static final String SORT_MODIFIED = "modified";
+
+    public record FileEntry(String name, long size, long lastModified, String mediaType, String sha256) {
+    }
+
+    private static final class Directory {
+        private final Map<String, Directory> children;
+        private final List<String> childNames;
+        private final List<FileEntry> byName;
+        private final List<FileEntry> bySize;
+        private final List<FileEntry> byModified;
+
+        private Directory(Map<String, Directory> children, List<FileEntry> files) {
+            this.children = children;
+            this.childNames = List.copyOf(children.keySet());
+            files.sort(comparator(SORT_NAME));
+            this.byName = List.copyOf(files);
+            files.sort(comparator(SORT_SIZE));
+            this.bySize = List.copyOf(files);
+            files.sort(comparator(SORT_MODIFIED));
+            this.byModified = List.copyOf(files);
+        }
+
+        private List<FileEntry> files(String sort) {
+            return switch (sort) {
+                case SORT_SIZE -> bySize;
+                case SORT_MODIFIED -> byModified;
+                default -> byName;
+            };
+        }
+    }
+
+    private final String baseDir;
+    private final boolean hashes;
+    private final ForkJoinPool pool;
+    private final ContentDigestCache digestCache;
+    private final ChangeFeed changeFeed;
+    private final Tika tika = new Tika();
+    private volatile Directory root;
+
+    public ContentIndex(ContentDigestCache digestCache, ChangeFeed changeFeed,
+                        @Value("${content.base-dir}") String baseDir,
+                        @Value("${content.index.parallelism:8}") int parallelism,
+                        @Value("${content.index.hashes:false}") boolean hashes) {
+        this.digestCache = digestCache;
+        this.changeFeed = changeFeed;
+        this.baseDir = baseDir;
+        this.hashes = hashes;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // First run right after startup; listings fall back to the file system until it completes
+    @Scheduled(initialDelay = 0, fixedDelayString = "${content.index.refresh-ms:300000}")
+    public void rebuild() {
+        long start = System.nanoTime();
+        try {
+            Directory previous = root;
+            Directory built = pool.invoke(new ScanTask(Paths.get(baseDir), previous));
+            root = built;
+            logger.info("Indexed {} in {} ms", baseDir, (System.nanoTime() - start) / 1_000_000);
+            // The first snapshot has nothing to compare with; subscribers start from "now" anyway
+            if (previous != null) {
+                List<ChangeFeed.Change> changes = new ArrayList<>();
+                diff("", previous, built, changes);
+                changeFeed.publish(changes);
+                if (!changes.isEmpty()) {
+                    logger.info("Published {} content changes", changes.size());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to index {}, keeping the previous index", baseDir, e);
+        }
+    }
+
+    // Names of the subdirectories at the path below base-dir, sorted; null if there is no such directory.
+    // Directories created since the last rebuild are read from disk.
+    public List<String> directories(String... path) throws IOException {
+        Directory directory = find(path);
+        if (directory != null) {
+            return directory.childNames;
+        }
+        Path dirPath = Paths.get(baseDir, path);
+        if (!Files.isDirectory(dirPath)) {
+            return null;
+        }
+        try (Stream<Path> paths = Files.list(dirPath)) {
+            return paths.filter(Files::isDirectory)
+                    .map(child -> child.getFileName().toString())
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    // Files at the path below base-dir in the given order; null if there is no such directory
+    public List<FileEntry> files(String sort, String... path) {
+        Directory directory = find(path);
+        if (directory == null) {
+            Path dirPath = Paths.get(baseDir, path);
+            if (!Files.isDirectory(dirPath)) {
+                return null;
+            }
+            directory = pool.invoke(new ScanTask(dirPath, null));
+        }
+        return directory.files(sort);
+    }
+
+    private static final Directory EMPTY = new Directory(new TreeMap<>(), new ArrayList<>());
+
+    // Changes from one snapshot of a directory to the next, keyed by path below base-dir;
+    // both file lists are sorted by name, so files are compared in a single merge pass
+    private static void diff(String prefix, Directory before, Directory after, List<ChangeFeed.Change> changes) {
+        List<FileEntry> old = before.byName;
+        List<FileEntry> current = after.byName;
+        int i = 0;
+        int j = 0;
+        while (i < old.size() || j < current.size()) {
+            int order = i == old.size() ? 1 : j == current.size() ? -1
+                    : old.get(i).name().compareTo(current.get(j).name());
+            if (order < 0) {
+                changes.add(change(ChangeFeed.DELETED, prefix, old.get(i++)));
+            } else if (order > 0) {
+                changes.add(change(ChangeFeed.ADDED, prefix, current.get(j++)));
+            } else {
+                FileEntry was = old.get(i++);
+                FileEntry is = current.get(j++);
+                if (was.size() != is.size() || was.lastModified() != is.lastModified()) {
+                    changes.add(change(ChangeFeed.MODIFIED, prefix, is));
+                }
+            }
+        }
+        for (Map.Entry<String, Directory> child : before.children.entrySet()) {
+            if (!after.children.containsKey(child.getKey())) {
+                diff(prefix + child.getKey() + "/", child.getValue(), EMPTY, changes);
+            }
+        }
+        for (Map.Entry<String, Directory> child : after.children.entrySet()) {
+            diff(prefix + child.getKey() + "/", before.children.getOrDefault(child.getKey(), EMPTY),
+                    child.getValue(), changes);
+        }
+    }
+
+    private static ChangeFeed.Change change(String type, String prefix, FileEntry file) {
+        return new ChangeFeed.Change(0, type, prefix + file.name(), file.size(), file.lastModified());
+    }
+
+    private Directory find(String... path) {
+        Directory directory = root;
+        for (String name : path) {
+            if (directory == null) {
+                return null;
+            }
+            directory = directory.children.get(name);
+        }
+        return directory;
+    }
+
+    // One slice of a sorted listing; descending pages are read from the end
+    public static <T> List<T> page(List<T> sorted, int offset, int limit, boolean descending) {
+        int size = sorted.size();
+        int from = Math.min(Math.max(offset, 0), size);
+        int to = limit < 0 ? size : (int) Math.min((long) from + limit, size);
+        List<T> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(sorted.get(descending ? size - 1 - i : i));
+        }
+        return page;
+    }
+
+    // Order of a listing sorted by 'sort'; ties are broken by name, so every entry has a unique position
+    public static Comparator<FileEntry> comparator(String sort) {
+        return switch (sort) {
+            case SORT_SIZE -> Comparator.comparingLong(FileEntry::size).thenComparing(FileEntry::name);
+            case SORT_MODIFIED -> Comparator.comparingLong(FileEntry::lastModified).thenComparing(FileEntry::name);
+            default -> Comparator.comparing(FileEntry::name);
+        };
+    }
+
+    // Entries whose names start with the prefix, still in the listing's order. A name-sorted
+    // listing is narrowed by binary search; the others are filtered.
+    public static List<FileEntry> withPrefix(List<FileEntry> sorted, String sort, String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return sorted;
+        }
+        if (!SORT_SIZE.equals(sort) && !SORT_MODIFIED.equals(sort)) {
+            Comparator<FileEntry> byName = comparator(SORT_NAME);
+            int from = lowerBound(sorted, probe(prefix, 0, 0), byName);
+            int to = lowerBound(sorted, probe(prefix + Character.MAX_VALUE, 0, 0), byName);
+            return sorted.subList(from, to);
+        }
+        return sorted.stream().filter(entry -> entry.name().startsWith(prefix)).toList();
+    }
+
+    // Opaque keyset cursor for the position just past 'entry': its sort key, not an offset, so
+    // pages neither skip nor repeat entries when the index is rebuilt between two requests
+    public static String cursorAfter(FileEntry entry, String sort) {
+        long key = switch (sort) {
+            case SORT_SIZE -> entry.size();
+            case SORT_MODIFIED -> entry.lastModified();
+            default -> 0;
+        };
+        String cursor = sort + "\n" + key + "\n" + entry.name();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Offset in reading order of the first entry after the cursor; IllegalArgumentException if
+    // the cursor is malformed or belongs to a different sort
+    public static int offsetAfter(List<FileEntry> sorted, String sort, String cursor, boolean descending) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", 3);
+        if (parts.length != 3 || !parts[0].equals(sort)) {
+            throw new IllegalArgumentException("Cursor does not belong to this listing");
+        }
+        long key = Long.parseLong(parts[1]);
+        FileEntry position = probe(parts[2], key, key);
+        Comparator<FileEntry> order = comparator(sort);
+        if (descending) {
+            return sorted.size() - lowerBound(sorted, position, order);
+        }
+        int index = lowerBound(sorted, position, order);
+        if (index < sorted.size() && order.compare(sorted.get(index), position) == 0) {
+            index++;
+        }
+        return index;
+    }
+
+    private static FileEntry probe(String name, long size, long lastModified) {
+        return new FileEntry(name, size, lastModified, null, null);
+    }
+
+    // Index of the first entry not ordered before 'key'
+    private static int lowerBound(List<FileEntry> sorted, FileEntry key, Comparator<FileEntry> order) {
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (order.compare(sorted.get(middle), key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private final class ScanTask extends RecursiveTask<Directory> {
+        private final Path path;
+        // The same directory in the last snapshot, or null
+        private final Directory previous;
+
+        private ScanTask(Path path, Directory previous) {
+            this.path = path;
+            this.previous = previous;
+        }
+
+        // An entry that cannot be read keeps what the last snapshot had for it, and a directory
+        // that cannot be listed keeps its whole last snapshot: a read error must not look like a
+        // deletion, which the change feed would publish and every CDN node would act on
+        @Override
+        protected Directory compute() {
+            List<ScanTask> subtasks = new ArrayList<>();
+            List<String> subtaskNames = new ArrayList<>();
+            List<FileEntry> files = new ArrayList<>();
+            Map<String, Directory> children = new TreeMap<>();
+            boolean complete = true;
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue;  // deleted since it was listed
+                    } catch (IOException e) {
+                        logger.warn("Failed to index {}, keeping its previous entry: {}", entry, e.getMessage());
+                        keepPrevious(name, files, children);
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        ScanTask subtask = new ScanTask(entry, previous != null ? previous.children.get(name) : null);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                        subtaskNames.add(name);
+                    } else if (attributes.isRegularFile() && !name.equals("list-files")) {
+                        files.add(new FileEntry(name, attributes.size(),
+                                attributes.lastModifiedTime().toMillis(), tika.detect(name), hash(entry)));
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                logger.warn("Failed to index {}, keeping its previous snapshot: {}", path, e.getMessage());
+                complete = false;
+            }
+            for (int i = 0; i < subtasks.size(); i++) {
+                children.put(subtaskNames.get(i), subtasks.get(i).join());
+            }
+            if (!complete && previous != null) {
+                return previous;
+            }
+            return new Directory(children, files);
+        }
+
+        private void keepPrevious(String name, List<FileEntry> files, Map<String, Directory> children) {
+            if (previous == null) {
+                return;
+            }
+            Directory child = previous.children.get(name);
+            if (child != null) {
+                children.put(name, child);
+                return;
+            }
+            List<FileEntry> byName = previous.byName;
+            int index = lowerBound(byName, probe(name, 0, 0), comparator(SORT_NAME));
+            if (index < byName.size() && byName.get(index).name().equals(name)) {
+                files.add(byName.get(index));
+            }
+        }
+
+        private String hash(Path file) {
+            if (!hashes) {
+                return null;
+            }
+            try {
+                return digestCache.digest(file);
+            } catch (IOException e) {
+                logger.warn("Failed to hash {}: {}", file, e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.originserver.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ArchiveSerializerTests {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void refusesKeysThatLeaveTheBaseDirectory() {
+        Path base = root.resolve("content");
+        assertThat(ArchiveSerializer.resolve(base, "s/t/f.mp4")).isEqualTo(base.resolve("s/t/f.mp4"));
+        assertThat(ArchiveSerializer.resolve(base, "../../secret")).isNull();
+        assertThat(ArchiveSerializer.resolve(base, "s/../../secret")).isNull();
+        assertThat(ArchiveSerializer.resolve(base, "s/t/..")).isNull();
+        assertThat(ArchiveSerializer.resolve(base, "s/./f")).isNull();
+        assertThat(ArchiveSerializer.resolve(base, "s//f")).isNull();
+        assertThat(ArchiveSerializer.resolve(base, "s/t/..\\..\\f")).isNull();
+        assertThat(ArchiveSerializer.resolve(base, "s/t")).isNull();
+    }
+
+    @Test
+    void archivesOnlyFilesUnderTheBaseDirectory() throws IOException {
+        Path base = Files.createDirectories(root.resolve("content/s/t")).getParent().getParent();
+        Files.writeString(base.resolve("s/t/a.txt"), "a");
+        Files.writeString(root.resolve("secret"), "secret");
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ArchiveSerializer.serializeFiles(base.toString(), List.of("s/t/a.txt", "s/../../secret", "s/t/b.txt"), archive);
+
+        List<String> names = new ArrayList<>();
+        String missing = null;
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                names.add(entry.getName());
+                if (entry.getName().equals(ArchiveSerializer.MISSING_ENTRY)) {
+                    missing = new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        assertThat(names).containsExactly("s/t/a.txt", ArchiveSerializer.MISSING_ENTRY);
+        assertThat(missing).isEqualTo("s/../../secret\ns/t/b.txt");
+    }
+}
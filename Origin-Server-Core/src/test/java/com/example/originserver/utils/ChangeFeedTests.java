@@ -0,0 +1,105 @@
+package com.example.originserver.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeFeedTests {
+
+    @Test
+    void subscribesAtTheHeadWithoutReplay() {
+        ChangeFeed feed = new ChangeFeed(8);
+        feed.publish(changes("a", "b"));
+
+        ChangeFeed.Batch batch = feed.read("", 0, 10);
+        assertThat(batch.reset()).isFalse();
+        assertThat(batch.next()).isEqualTo(2);
+        assertThat(batch.changes()).isEmpty();
+    }
+
+    @Test
+    void resumesAfterTheGivenOffset() {
+        ChangeFeed feed = new ChangeFeed(8);
+        String epoch = feed.read("", 0, 10).epoch();
+        feed.publish(changes("a", "b", "c"));
+
+        ChangeFeed.Batch first = feed.read(epoch, 0, 2);
+        assertThat(first.changes()).extracting(ChangeFeed.Change::key).containsExactly("s/t/a", "s/t/b");
+        assertThat(first.next()).isEqualTo(2);
+
+        ChangeFeed.Batch second = feed.read(epoch, first.next(), 2);
+        assertThat(second.changes()).extracting(ChangeFeed.Change::offset).containsExactly(3L);
+        assertThat(second.next()).isEqualTo(3);
+        assertThat(feed.read(epoch, second.next(), 2).changes()).isEmpty();
+    }
+
+    @Test
+    void resetsAReaderOfAnotherEpoch() {
+        ChangeFeed feed = new ChangeFeed(8);
+        feed.publish(changes("a"));
+
+        ChangeFeed.Batch batch = feed.read("elsewhere", 0, 10);
+        assertThat(batch.reset()).isTrue();
+        assertThat(batch.changes()).isEmpty();
+        assertThat(batch.next()).isEqualTo(1);
+    }
+
+    @Test
+    void resetsAReaderTheRingHasOverwritten() {
+        ChangeFeed feed = new ChangeFeed(3);
+        String epoch = feed.read("", 0, 10).epoch();
+        feed.publish(changes("a", "b", "c", "d", "e"));
+
+        assertThat(feed.read(epoch, 1, 10).reset()).isTrue();
+        ChangeFeed.Batch oldest = feed.read(epoch, 2, 10);
+        assertThat(oldest.reset()).isFalse();
+        assertThat(oldest.changes()).extracting(ChangeFeed.Change::key).containsExactly("s/t/c", "s/t/d", "s/t/e");
+        assertThat(feed.read(epoch, 6, 10).reset()).isTrue();
+    }
+
+    @Test
+    void pollWaitsForTheNextPublish() throws Exception {
+        ChangeFeed feed = new ChangeFeed(8);
+        String epoch = feed.read("", 0, 10).epoch();
+
+        CompletableFuture<ChangeFeed.Batch> poll = feed.poll(epoch, 0, 10, 10_000);
+        assertThat(poll).isNotDone();
+        feed.publish(changes("a"));
+        assertThat(poll.get(5, TimeUnit.SECONDS).changes()).extracting(ChangeFeed.Change::key)
+                .containsExactly("s/t/a");
+
+        ChangeFeed.Batch idle = feed.poll(epoch, 1, 10, 50).get(5, TimeUnit.SECONDS);
+        assertThat(idle.reset()).isFalse();
+        assertThat(idle.changes()).isEmpty();
+    }
+
+    @Test
+    void idleTimeoutDoesNotEndOtherOrLaterPolls() throws Exception {
+        ChangeFeed feed = new ChangeFeed(8);
+        String epoch = feed.read("", 0, 10).epoch();
+
+        CompletableFuture<ChangeFeed.Batch> patient = feed.poll(epoch, 0, 10, 10_000);
+        assertThat(feed.poll(epoch, 0, 10, 50).get(5, TimeUnit.SECONDS).changes()).isEmpty();
+        assertThat(patient).isNotDone();
+
+        CompletableFuture<ChangeFeed.Batch> later = feed.poll(epoch, 0, 10, 10_000);
+        Thread.sleep(100);
+        assertThat(later).isNotDone();
+        assertThat(patient).isNotDone();
+
+        feed.publish(changes("a"));
+        assertThat(later.get(5, TimeUnit.SECONDS).changes()).hasSize(1);
+        assertThat(patient.get(5, TimeUnit.SECONDS).changes()).hasSize(1);
+    }
+
+    private static List<ChangeFeed.Change> changes(String... names) {
+        return Arrays.stream(names)
+                .map(name -> new ChangeFeed.Change(0, ChangeFeed.ADDED, "s/t/" + name, 1, 0))
+                .toList();
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.originserver.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContentIndexTests {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void breaksTiesByName() {
+        List<ContentIndex.FileEntry> sorted = sorted(ContentIndex.SORT_SIZE,
+                entry("c", 10), entry("a", 10), entry("b", 5));
+        assertThat(sorted).extracting(ContentIndex.FileEntry::name).containsExactly("b", "a", "c");
+    }
+
+    @Test
+    void cursorResumesWithoutSkipsOrRepeatsAcrossARebuild() {
+        for (boolean descending : new boolean[] {false, true}) {
+            List<ContentIndex.FileEntry> before = sorted(ContentIndex.SORT_SIZE,
+                    entry("a", 1), entry("b", 2), entry("c", 2), entry("d", 3), entry("e", 4));
+            List<ContentIndex.FileEntry> first = ContentIndex.page(before, 0, 2, descending);
+            String cursor = ContentIndex.cursorAfter(first.get(1), ContentIndex.SORT_SIZE);
+
+            // Files added ahead of the cursor between the two requests must not shift the next page
+            List<ContentIndex.FileEntry> after = sorted(ContentIndex.SORT_SIZE,
+                    entry("a", 1), entry("aa", 0), entry("b", 2), entry("bb", 2), entry("c", 2),
+                    entry("d", 3), entry("e", 4), entry("ee", 5));
+            int offset = ContentIndex.offsetAfter(after, ContentIndex.SORT_SIZE, cursor, descending);
+            List<ContentIndex.FileEntry> second = ContentIndex.page(after, offset, 2, descending);
+
+            if (descending) {
+                assertThat(first).extracting(ContentIndex.FileEntry::name).containsExactly("e", "d");
+                assertThat(second).extracting(ContentIndex.FileEntry::name).containsExactly("c", "bb");
+            } else {
+                assertThat(first).extracting(ContentIndex.FileEntry::name).containsExactly("a", "b");
+                assertThat(second).extracting(ContentIndex.FileEntry::name).containsExactly("bb", "c");
+            }
+        }
+    }
+
+    @Test
+    void cursorPastARemovedEntryStartsAtItsSuccessor() {
+        List<ContentIndex.FileEntry> sorted = sorted(ContentIndex.SORT_NAME, entry("a", 1), entry("c", 1));
+        String cursor = ContentIndex.cursorAfter(entry("b", 1), ContentIndex.SORT_NAME);
+        assertThat(ContentIndex.offsetAfter(sorted, ContentIndex.SORT_NAME, cursor, false)).isEqualTo(1);
+        assertThat(ContentIndex.offsetAfter(sorted, ContentIndex.SORT_NAME, cursor, true)).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsACursorOfAnotherSort() {
+        List<ContentIndex.FileEntry> sorted = sorted(ContentIndex.SORT_NAME, entry("a", 1));
+        String cursor = ContentIndex.cursorAfter(entry("a", 1), ContentIndex.SORT_MODIFIED);
+        assertThatThrownBy(() -> ContentIndex.offsetAfter(sorted, ContentIndex.SORT_NAME, cursor, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ContentIndex.offsetAfter(sorted, ContentIndex.SORT_NAME, "not base64!", false))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void narrowsToAPrefixInListingOrder() {
+        List<ContentIndex.FileEntry> byName = sorted(ContentIndex.SORT_NAME,
+                entry("ep1", 3), entry("ep10", 1), entry("ep2", 2), entry("extra", 0), entry("op1", 0));
+        assertThat(ContentIndex.withPrefix(byName, ContentIndex.SORT_NAME, "ep"))
+                .extracting(ContentIndex.FileEntry::name).containsExactly("ep1", "ep10", "ep2");
+
+        List<ContentIndex.FileEntry> bySize = sorted(ContentIndex.SORT_SIZE, byName.toArray(ContentIndex.FileEntry[]::new));
+        assertThat(ContentIndex.withPrefix(bySize, ContentIndex.SORT_SIZE, "ep"))
+                .extracting(ContentIndex.FileEntry::name).containsExactly("ep10", "ep2", "ep1");
+        assertThat(ContentIndex.withPrefix(byName, ContentIndex.SORT_NAME, "zz")).isEmpty();
+    }
+
+    @Test
+    void pagesFromEitherEnd() {
+        List<Integer> sorted = List.of(1, 2, 3, 4, 5);
+        assertThat(ContentIndex.page(sorted, 1, 2, false)).containsExactly(2, 3);
+        assertThat(ContentIndex.page(sorted, 1, 2, true)).containsExactly(4, 3);
+        assertThat(ContentIndex.page(sorted, 3, -1, false)).containsExactly(4, 5);
+        assertThat(ContentIndex.page(sorted, 9, 2, false)).isEmpty();
+    }
+
+    @Test
+    void fileThatCannotBeReadKeepsItsPreviousEntry() throws IOException {
+        Path dir = Files.createDirectories(root.resolve("s/t"));
+        Files.writeString(dir.resolve("a.mp4"), "a");
+        Files.writeString(dir.resolve("b.mp4"), "b");
+        ChangeFeed feed = new ChangeFeed(16);
+        ContentIndex index = new ContentIndex(new ContentDigestCache(1, 16), feed, root.toString(), 2, false);
+        try {
+            index.rebuild();
+            ChangeFeed.Batch head = feed.read("", 0, 10);
+
+            // A link to itself fails to stat with ELOOP, like a transient read error would
+            Files.delete(dir.resolve("a.mp4"));
+            Files.createSymbolicLink(dir.resolve("a.mp4"), dir.resolve("a.mp4"));
+            Files.delete(dir.resolve("b.mp4"));
+            index.rebuild();
+
+            assertThat(feed.read(head.epoch(), head.next(), 10).changes())
+                    .extracting(change -> change.type() + " " + change.key())
+                    .containsExactly(ChangeFeed.DELETED + " s/t/b.mp4");
+            assertThat(index.files(ContentIndex.SORT_NAME, "s", "t"))
+                    .extracting(ContentIndex.FileEntry::name).containsExactly("a.mp4");
+        } finally {
+            index.shutdown();
+        }
+    }
+
+    private static ContentIndex.FileEntry entry(String name, long size) {
+        return new ContentIndex.FileEntry(name, size, 1000 + size, "application/octet-stream", null);
+    }
+
+    private static List<ContentIndex.FileEntry> sorted(String sort, ContentIndex.FileEntry... entries) {
+        List<ContentIndex.FileEntry> sorted = new ArrayList<>(List.of(entries));
+        sorted.sort(ContentIndex.comparator(sort));
+        return sorted;
+    }
+}